@@ -0,0 +1,199 @@
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * AccessSketch class.
+ *
+ * <p>
+ * Approximate count of how often each entry is used, in a Count-Min sketch:
+ * DEPTH rows of WIDTH counters, each row hashing the entry id to a different
+ * counter. An entry's count is the smallest of its counters, which can only
+ * overestimate it when other entries share all of them. Only the smallest
+ * of an entry's counters are incremented (conservative update), which keeps
+ * that overestimate low. The sketch takes the same fixed memory however many
+ * entries there are.
+ * </p>
+ *
+ * <p>
+ * Counts decay the way TinyLFU ages them: after SAMPLE_SIZE accesses every
+ * counter is halved, so entries that were used a lot long ago give way to the
+ * ones used now.
+ * </p>
+ *
+ * <p>
+ * The sketch is stored next to the vault (see forVault) encrypted and
+ * authenticated with the vault key, and replaced atomically.
+ * </p>
+ *
+ * @author Luke Halpenny & Andrej Gorochov
+ * @version 1.0
+ */
+public final class AccessSketch {
+
+    public static final String FILE_SUFFIX = ".usage";
+    public static final int MAGIC = 0x89534155;
+    public static final int VERSION = 1;
+    public static final int DEPTH = 4;
+    public static final int WIDTH = 4096;
+    public static final int SAMPLE_SIZE = 10 * WIDTH;
+
+    private static final int[] SEEDS = {0x9e3779b9, 0x7f4a7c15, 0x94d049bb, 0xbf58476d};
+    private static final byte[] ASSOCIATED_DATA = "SAPM access sketch".getBytes(StandardCharsets.UTF_8);
+
+    private final int[] counters;
+    private int additions;
+
+    /**
+     * Creates a sketch with every count at zero.
+     */
+    public AccessSketch() {
+        this.counters = new int[DEPTH * WIDTH];
+        this.additions = 0;
+    }
+
+    /**
+     * Copies a sketch, so that it can be read while the original keeps
+     * counting.
+     *
+     * @param other sketch to copy.
+     */
+    public AccessSketch(AccessSketch other) {
+        this.counters = other.counters.clone();
+        this.additions = other.additions;
+    }
+
+    /**
+     * Gets the file the sketch of a vault is stored in.
+     *
+     * @param vaultPath path of the vault file.
+     * @return the sketch file.
+     */
+    public static File forVault(String vaultPath) {
+        return new File(vaultPath + FILE_SUFFIX);
+    }
+
+    /**
+     * Counts a use of an entry.
+     *
+     * @param id id of the entry.
+     */
+    public void record(int id) {
+        int count = estimate(id);
+        for (int row = 0; row < DEPTH; row++) {
+            int i = index(row, id);
+            if (this.counters[i] == count) {
+                this.counters[i]++;
+            }
+        }
+        if (++this.additions >= SAMPLE_SIZE) {
+            halve();
+        }
+    }
+
+    /**
+     * Estimates how often an entry has been used, recent uses counting more.
+     *
+     * @param id id of the entry.
+     * @return the count, possibly too high but never too low.
+     */
+    public int estimate(int id) {
+        int count = Integer.MAX_VALUE;
+        for (int row = 0; row < DEPTH; row++) {
+            count = Math.min(count, this.counters[index(row, id)]);
+        }
+        return count;
+    }
+
+    /**
+     * Halves every counter and the number of accesses seen.
+     */
+    private void halve() {
+        for (int i = 0; i < this.counters.length; i++) {
+            this.counters[i] >>>= 1;
+        }
+        this.additions >>>= 1;
+    }
+
+    /**
+     * @param row row of the sketch.
+     * @param id id of the entry.
+     * @return position of the entry's counter in that row.
+     */
+    private static int index(int row, int id) {
+        return row * WIDTH + (IntObjectMap.mix(id ^ SEEDS[row]) & (WIDTH - 1));
+    }
+
+    /**
+     * Reads a sketch written by write.
+     *
+     * @param file file to read.
+     * @param key vault key the sketch was encrypted with.
+     * @return the sketch.
+     * @throws IOException if the file can't be read or isn't a sketch.
+     * @throws CipherException if the file wasn't written with this key or was
+     *         changed.
+     */
+    public static AccessSketch read(File file, String key) throws IOException {
+        byte[] sealed;
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not an access sketch: " + file);
+            }
+            sealed = in.readAllBytes();
+        }
+        CipherEngine engine = new CipherEngine(key);
+        int length;
+        try {
+            length = engine.openInPlace(sealed, 0, sealed.length, ASSOCIATED_DATA);
+        } finally {
+            engine.destroy();
+        }
+        if (length != Integer.BYTES * (1 + DEPTH * WIDTH)) {
+            throw new IOException("Access sketch has the wrong size: " + file);
+        }
+        AccessSketch sketch = new AccessSketch();
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(sealed, 0, length));
+        sketch.additions = in.readInt();
+        for (int i = 0; i < sketch.counters.length; i++) {
+            sketch.counters[i] = in.readInt();
+        }
+        return sketch;
+    }
+
+    /**
+     * Encrypts the sketch and replaces the file with it.
+     *
+     * @param file file to write.
+     * @param key vault key to encrypt with.
+     * @throws IOException if the file can't be written.
+     */
+    public void write(File file, String key) throws IOException {
+        ByteArrayOutputStream plain = new ByteArrayOutputStream(Integer.BYTES * (1 + this.counters.length));
+        DataOutputStream data = new DataOutputStream(plain);
+        data.writeInt(this.additions);
+        for (int counter : this.counters) {
+            data.writeInt(counter);
+        }
+        byte[] plaintext = plain.toByteArray();
+        CipherEngine engine = new CipherEngine(key);
+        byte[] sealed;
+        try {
+            sealed = engine.seal(plaintext, 0, plaintext.length, ASSOCIATED_DATA);
+        } finally {
+            engine.destroy();
+        }
+        ByteArrayOutputStream contents = new ByteArrayOutputStream(2 * Integer.BYTES + sealed.length);
+        DataOutputStream out = new DataOutputStream(contents);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.write(sealed);
+        AtomicFile.write(file, contents.toByteArray());
+    }
+}
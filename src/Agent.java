@@ -0,0 +1,452 @@
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Agent class.
+ *
+ * <p>
+ * Long-lived process that keeps the password store unlocked and serves
+ * requests from short-lived client invocations (see AgentClient), so they
+ * don't each pay for deriving the key and reading the vault. The agent
+ * listens on a Unix domain socket inside a directory only its owner can
+ * access, and handles one request per connection, one connection at a time,
+ * so the password store is never touched by two requests at once. Changes are
+ * committed (see PasswordStorage.commitChanges) before they are acknowledged.
+ * </p>
+ *
+ * <p>
+ * Protocol: the client sends one line of UTF-8 fields separated by tabs, the
+ * command first. The agent answers with OK or ERR and a message on the first
+ * line, then any result lines, and closes the connection.
+ * </p>
+ *
+ * <p>
+ * After IDLE_PROPERTY seconds without a request (DEFAULT_IDLE_SECONDS by
+ * default), or on a lock request, the agent saves, wipes the journal's key,
+ * drops the password store and the key, removes its socket and exits.
+ * </p>
+ *
+ * @author Luke Halpenny & Andrej Gorochov
+ * @version 1.0
+ */
+public class Agent {
+
+    public static final String AGENT_ARG = "agent";
+    public static final String SOCKET_DIR = "saps-agent";
+    public static final String SOCKET_NAME = "agent.sock";
+    public static final String IDLE_PROPERTY = "saps.agentIdleSeconds";
+    public static final long DEFAULT_IDLE_SECONDS = 15 * 60;
+    public static final long REQUEST_TIMEOUT_MILLIS = 5000;
+    public static final int MAX_REQUEST_BYTES = 64 * 1024;
+    public static final String FIELD_SEPARATOR = "\t";
+    public static final String STATUS_OK = "OK";
+    public static final String STATUS_ERROR = "ERR";
+
+    public static final String CMD_PING = "ping";
+    public static final String CMD_LIST = "list";
+    public static final String CMD_SEARCH_TITLE = "search-title";
+    public static final String CMD_SEARCH_WEBSITE = "search-website";
+    public static final String CMD_GET = "get";
+    public static final String CMD_PASSWORD = "password";
+    public static final String CMD_ADD = "add";
+    public static final String CMD_EDIT_TITLE = "edit-title";
+    public static final String CMD_EDIT_WEBSITE = "edit-website";
+    public static final String CMD_EDIT_PASSWORD = "edit-password";
+    public static final String CMD_REMOVE = "remove";
+    public static final String CMD_LOCK = "lock";
+
+    private static final String ERR_USAGE = "Wrong number of arguments for ";
+    private static final String ERR_UNKNOWN = "Unknown command ";
+    private static final String ERR_NOT_FOUND = "No entry with id ";
+    private static final String ERR_SAVE = "Could not save changes";
+    private static final String ERR_INTERNAL = "Internal error";
+    private static final Set<PosixFilePermission> OWNER_ONLY_DIR = PosixFilePermissions.fromString("rwx------");
+    private static final Set<PosixFilePermission> OWNER_ONLY_FILE = PosixFilePermissions.fromString("rw-------");
+
+    private final Terminal terminal;
+    private final String passwordsPath;
+    private final long idleMillis;
+    private PasswordStorage passwords;
+    private String key;
+
+    /**
+     * Creates an agent for an unlocked password store.
+     *
+     * @param terminal terminal to log to.
+     * @param key key of the password store.
+     * @param passwordsPath path of the password store.
+     */
+    public Agent(Terminal terminal, String key, String passwordsPath) {
+        this.terminal = terminal;
+        this.key = key;
+        this.passwordsPath = passwordsPath;
+        this.idleMillis = Math.max(1, Long.getLong(IDLE_PROPERTY, DEFAULT_IDLE_SECONDS)) * 1000;
+        this.passwords = new PasswordStorage();
+    }
+
+    /**
+     * Gets the path of the agent's socket.
+     *
+     * @return socket path, relative to the working directory.
+     */
+    public static Path getSocketPath() {
+        return Paths.get(SOCKET_DIR, SOCKET_NAME);
+    }
+
+    /**
+     * Loads the password store and serves requests until the agent locks.
+     * However the loop ends, the agent is locked and its changes saved.
+     *
+     * @return false if the agent couldn't start.
+     */
+    public boolean run() {
+        if (!this.passwords.readPasswordsIn(this.passwordsPath, this.key)) {
+            this.terminal.error("Could not load passwords from file.\n");
+            this.lock();
+            return false;
+        }
+        Path socket = getSocketPath();
+        try (ServerSocketChannel server = this.bind(socket); Selector selector = Selector.open()) {
+            server.configureBlocking(false);
+            server.register(selector, SelectionKey.OP_ACCEPT);
+            this.terminal.info("Agent listening on " + socket.toAbsolutePath() + ", locks after "
+                    + this.idleMillis / 1000 + " seconds idle.\n");
+            long deadline = System.currentTimeMillis() + this.idleMillis;
+            while (this.key != null) {
+                long wait = deadline - System.currentTimeMillis();
+                if (wait <= 0) {
+                    this.terminal.info("Agent idle, locking.\n");
+                    break;
+                }
+                selector.select(wait);
+                selector.selectedKeys().clear();
+                SocketChannel client = server.accept();
+                if (client != null) {
+                    try (SocketChannel connection = client) {
+                        this.serve(connection);
+                    } catch (IOException e) {
+                        this.terminal.warn("Request failed: " + e.getMessage() + "\n");
+                    }
+                    deadline = System.currentTimeMillis() + this.idleMillis;
+                }
+            }
+        } catch (IOException e) {
+            this.terminal.error("Agent stopped: " + e.getMessage() + "\n");
+            return false;
+        } finally {
+            // Also reached if the loop fails unexpectedly, so changes are saved.
+            this.lock();
+            try {
+                Files.deleteIfExists(socket);
+            } catch (IOException e) {
+                this.terminal.warn("Could not remove " + socket + "\n");
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Binds the socket inside an owner-only directory, replacing a socket
+     * left behind by an agent that is no longer running.
+     *
+     * @param socket socket path.
+     * @return the bound server channel.
+     * @throws IOException if the directory isn't private or another agent is running.
+     */
+    private ServerSocketChannel bind(Path socket) throws IOException {
+        Path dir = socket.getParent();
+        boolean posix = FileSystems.getDefault().supportedFileAttributeViews().contains("posix");
+        if (!Files.isDirectory(dir)) {
+            if (posix) {
+                Files.createDirectory(dir, PosixFilePermissions.asFileAttribute(OWNER_ONLY_DIR));
+            } else {
+                Files.createDirectory(dir);
+            }
+        } else if (posix && !Files.getPosixFilePermissions(dir).equals(OWNER_ONLY_DIR)) {
+            throw new IOException(dir + " must only be accessible by its owner (chmod 700)");
+        }
+        if (Files.exists(socket)) {
+            if (AgentClient.isAgentRunning()) {
+                throw new IOException("Another agent is already running");
+            }
+            Files.delete(socket);
+        }
+        ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        try {
+            server.bind(UnixDomainSocketAddress.of(socket));
+            if (posix) {
+                Files.setPosixFilePermissions(socket, OWNER_ONLY_FILE);
+            }
+        } catch (IOException e) {
+            server.close();
+            throw e;
+        }
+        return server;
+    }
+
+    /**
+     * Reads one request from a client, handles it and writes the response.
+     *
+     * @param client connected client.
+     * @throws IOException if the request can't be read or answered.
+     */
+    private void serve(SocketChannel client) throws IOException {
+        String request = readRequest(client);
+        StringBuilder response = new StringBuilder();
+        String[] fields = request.split(FIELD_SEPARATOR, -1);
+        boolean lock = false;
+        try {
+            lock = this.handle(fields, response);
+        } catch (IllegalArgumentException | PasswordException e) {
+            response.setLength(0);
+            response.append(STATUS_ERROR).append(' ').append(e.getMessage()).append('\n');
+        } catch (RuntimeException e) {
+            // A bug in one request must not stop the agent without locking it.
+            this.terminal.warn("Request failed: " + e + "\n");
+            response.setLength(0);
+            response.append(STATUS_ERROR).append(' ').append(ERR_INTERNAL).append('\n');
+        }
+        client.configureBlocking(true);
+        ByteBuffer out = ByteBuffer.wrap(response.toString().getBytes(StandardCharsets.UTF_8));
+        while (out.hasRemaining()) {
+            client.write(out);
+        }
+        if (lock) {
+            this.terminal.info("Agent locked by client.\n");
+            this.lock();
+        }
+    }
+
+    /**
+     * Reads a request line, giving up after REQUEST_TIMEOUT_MILLIS so a
+     * stalled client can't hold up the agent.
+     *
+     * @param client connected client.
+     * @return the request without its line end.
+     * @throws IOException if the request is too long, late or can't be read.
+     */
+    private static String readRequest(SocketChannel client) throws IOException {
+        ByteArrayOutputStream request = new ByteArrayOutputStream();
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+        long deadline = System.currentTimeMillis() + REQUEST_TIMEOUT_MILLIS;
+        client.configureBlocking(false);
+        try (Selector selector = Selector.open()) {
+            client.register(selector, SelectionKey.OP_READ);
+            while (true) {
+                long wait = deadline - System.currentTimeMillis();
+                if (wait <= 0) {
+                    throw new IOException("Request timed out");
+                }
+                selector.select(wait);
+                selector.selectedKeys().clear();
+                int read = client.read(buffer);
+                if (read < 0) {
+                    break;
+                }
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    byte b = buffer.get();
+                    if (b == '\n') {
+                        return new String(request.toByteArray(), StandardCharsets.UTF_8);
+                    }
+                    request.write(b);
+                }
+                buffer.clear();
+                if (request.size() > MAX_REQUEST_BYTES) {
+                    throw new IOException("Request too long");
+                }
+            }
+        }
+        return new String(request.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Handles a request.
+     *
+     * @param fields command followed by its arguments.
+     * @param response builder the response is written to.
+     * @return true if the agent should lock.
+     * @throws IllegalArgumentException if the arguments are invalid.
+     */
+    private boolean handle(String[] fields, StringBuilder response) {
+        String command = fields[0];
+        switch (command) {
+            case CMD_PING: {
+                expectArguments(fields, 0);
+                response.append(STATUS_OK).append('\n');
+                return false;
+            }
+            case CMD_LIST: {
+                expectArguments(fields, 0);
+                appendEntries(response, this.passwords.getUserPasswords());
+                return false;
+            }
+            case CMD_SEARCH_TITLE: {
+                expectArguments(fields, 1);
+                appendEntries(response, this.passwords.getUserPasswords(fields[1], new TitleSearchFilter()));
+                return false;
+            }
+            case CMD_SEARCH_WEBSITE: {
+                expectArguments(fields, 1);
+                appendEntries(response, this.passwords.getUserPasswords(fields[1], new WebsiteSearchFilter()));
+                return false;
+            }
+            case CMD_GET: {
+                expectArguments(fields, 1);
+                int id = parseId(fields[1]);
+                StoredPassword entry = this.passwords.getPasswordDetails(id);
+                this.passwords.recordAccess(id);
+                response.append(STATUS_OK).append('\n');
+                CSVCodec.appendEntry(response, entry);
+                response.append('\n');
+                return false;
+            }
+            case CMD_PASSWORD: {
+                expectArguments(fields, 1);
+                int id = parseId(fields[1]);
+                String password = this.passwords.getPassword(id);
+                this.passwords.recordAccess(id);
+                response.append(STATUS_OK).append('\n').append(password).append('\n');
+                return false;
+            }
+            case CMD_ADD: {
+                expectArguments(fields, 3);
+                this.passwords.addNewPassword(fields[1], fields[2], fields[3]);
+                int id = this.passwords.getLatestPasswordId();
+                this.commit();
+                response.append(STATUS_OK).append(' ').append(id).append('\n');
+                return false;
+            }
+            case CMD_EDIT_TITLE:
+            case CMD_EDIT_WEBSITE:
+            case CMD_EDIT_PASSWORD: {
+                expectArguments(fields, 2);
+                int id = parseId(fields[1]);
+                if (command.equals(CMD_EDIT_TITLE)) {
+                    this.passwords.editPasswordTitle(id, fields[2]);
+                } else if (command.equals(CMD_EDIT_WEBSITE)) {
+                    this.passwords.editPasswordWebsite(id, fields[2]);
+                } else {
+                    this.passwords.editPasswordPassword(id, fields[2]);
+                }
+                this.commit();
+                response.append(STATUS_OK).append('\n');
+                return false;
+            }
+            case CMD_REMOVE: {
+                expectArguments(fields, 1);
+                if (!this.passwords.removePassword(parseId(fields[1]))) {
+                    throw new IllegalArgumentException(ERR_NOT_FOUND + fields[1]);
+                }
+                this.commit();
+                response.append(STATUS_OK).append('\n');
+                return false;
+            }
+            case CMD_LOCK: {
+                expectArguments(fields, 0);
+                response.append(STATUS_OK).append('\n');
+                return true;
+            }
+            default: {
+                throw new IllegalArgumentException(ERR_UNKNOWN + command);
+            }
+        }
+    }
+
+    /**
+     * Checks the number of arguments of a request.
+     *
+     * @param fields command followed by its arguments.
+     * @param count expected number of arguments.
+     * @throws IllegalArgumentException if the count is different.
+     */
+    private static void expectArguments(String[] fields, int count) {
+        if (fields.length != count + 1) {
+            throw new IllegalArgumentException(ERR_USAGE + fields[0]);
+        }
+    }
+
+    /**
+     * Parses an entry id and checks that the entry exists.
+     *
+     * @param field id argument.
+     * @return the id.
+     * @throws IllegalArgumentException if the id is malformed or unknown.
+     */
+    private int parseId(String field) {
+        int id;
+        try {
+            id = Integer.parseInt(field.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(ERR_NOT_FOUND + field);
+        }
+        if (this.passwords.getPassword(id) == null) {
+            throw new IllegalArgumentException(ERR_NOT_FOUND + field);
+        }
+        return id;
+    }
+
+    /**
+     * Writes an OK response listing entries without their passwords, one
+     * escaped id,title,website line each (see CSVCodec).
+     *
+     * @param response builder the response is written to.
+     * @param entries entries to list.
+     */
+    private static void appendEntries(StringBuilder response, List<StoredPassword> entries) {
+        response.append(STATUS_OK).append('\n');
+        for (StoredPassword entry : entries) {
+            response.append(entry.getId()).append(',');
+            CSVCodec.appendEscaped(response, entry.getTitle());
+            response.append(',');
+            CSVCodec.appendEscaped(response, entry.getWebsite());
+            response.append('\n');
+        }
+    }
+
+    /**
+     * Commits changes to the password store before they are acknowledged.
+     *
+     * @throws IllegalArgumentException if the changes couldn't be saved.
+     */
+    private void commit() {
+        if (!this.passwords.commitChanges(this.passwordsPath, this.key)) {
+            throw new IllegalArgumentException(ERR_SAVE);
+        }
+    }
+
+    /**
+     * Saves and closes the password store and drops it and the key. The
+     * journal's engine wipes its copy of the key as it closes (see
+     * CipherEngine.destroy); the process exits afterwards so no other copy
+     * outlives the agent.
+     */
+    private void lock() {
+        if (this.key == null) {
+            return;
+        }
+        if (!this.passwords.commitChanges(this.passwordsPath, this.key)) {
+            this.terminal.error(ERR_SAVE + "\n");
+        }
+        this.passwords.closeJournal();
+        this.passwords = null;
+        this.key = null;
+    }
+}
@@ -0,0 +1,108 @@
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * AgentClient class.
+ *
+ * <p>
+ * Sends a single request to a running Agent and prints its answer, so scripts
+ * can look up and change entries without logging in each time. Result lines
+ * go to standard output and errors to standard error.
+ * </p>
+ *
+ * @author Luke Halpenny & Andrej Gorochov
+ * @version 1.0
+ */
+public class AgentClient {
+
+    public static final int EXIT_OK = 0;
+    public static final int EXIT_ERROR = 1;
+    public static final int EXIT_NO_AGENT = 2;
+
+    /**
+     * Sends the arguments to the agent as one request.
+     *
+     * @param args command followed by its arguments.
+     * @return process exit code.
+     */
+    public static int run(String[] args) {
+        StringBuilder request = new StringBuilder();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].indexOf('\t') >= 0 || args[i].indexOf('\n') >= 0 || args[i].indexOf('\r') >= 0) {
+                System.err.println("Arguments can not contain tabs or line breaks.");
+                return EXIT_ERROR;
+            }
+            if (i > 0) {
+                request.append(Agent.FIELD_SEPARATOR);
+            }
+            request.append(args[i]);
+        }
+        request.append('\n');
+        Path socket = Agent.getSocketPath();
+        if (!Files.exists(socket)) {
+            System.err.println("No agent is running. Start one with: " + Agent.AGENT_ARG);
+            return EXIT_NO_AGENT;
+        }
+        try (SocketChannel channel = SocketChannel.open(StandardProtocolFamily.UNIX)) {
+            channel.connect(UnixDomainSocketAddress.of(socket));
+            OutputStream out = Channels.newOutputStream(channel);
+            out.write(request.toString().getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            channel.shutdownOutput();
+            BufferedReader in = new BufferedReader(new InputStreamReader(Channels.newInputStream(channel), StandardCharsets.UTF_8));
+            String status = in.readLine();
+            if (status == null) {
+                System.err.println("The agent closed the connection.");
+                return EXIT_ERROR;
+            }
+            if (!status.startsWith(Agent.STATUS_OK)) {
+                System.err.println(status.startsWith(Agent.STATUS_ERROR + " ") ? status.substring(Agent.STATUS_ERROR.length() + 1) : status);
+                return EXIT_ERROR;
+            }
+            if (status.length() > Agent.STATUS_OK.length()) {
+                System.out.println(status.substring(Agent.STATUS_OK.length()).trim());
+            }
+            String line;
+            while ((line = in.readLine()) != null) {
+                System.out.println(line);
+            }
+            return EXIT_OK;
+        } catch (IOException e) {
+            System.err.println("No agent is running (" + e.getMessage() + ").");
+            return EXIT_NO_AGENT;
+        }
+    }
+
+    /**
+     * Checks whether an agent is answering on the socket.
+     *
+     * @return true if an agent answered a ping.
+     */
+    public static boolean isAgentRunning() {
+        Path socket = Agent.getSocketPath();
+        if (!Files.exists(socket)) {
+            return false;
+        }
+        try (SocketChannel channel = SocketChannel.open(StandardProtocolFamily.UNIX)) {
+            channel.connect(UnixDomainSocketAddress.of(socket));
+            OutputStream out = Channels.newOutputStream(channel);
+            out.write((Agent.CMD_PING + "\n").getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            channel.shutdownOutput();
+            BufferedReader in = new BufferedReader(new InputStreamReader(Channels.newInputStream(channel), StandardCharsets.UTF_8));
+            return Agent.STATUS_OK.equals(in.readLine());
+        } catch (IOException e) {
+            return false;
+        }
+    }
+}
@@ -1,3 +1,6 @@
+
+import java.io.IOException;
+
 /**
  * Application class.
  *
@@ -11,6 +14,7 @@ public class Application {
     private Terminal terminal;
     private Login login;
     private Menu menu;
+    private VaultLock vaultLock;
 
     /**
      * Main application class. Initialises Terminal, Login and Menu.
@@ -25,6 +29,13 @@ public class Application {
      * Runs the application.
      */
     public void run() {
+        if (AgentClient.isAgentRunning()) {
+            terminal.error("An agent has this password store open. Lock it first.\n");
+            System.exit(1);
+        }
+        if (!lockVault()) {
+            System.exit(1);
+        }
         String key = login.login();
         if (key == null) {
             terminal.error("Couldn't log in!\n");
@@ -34,4 +45,44 @@ public class Application {
         menu.run(key);
     }
 
+    /**
+     * Logs in and keeps the password store unlocked in an Agent until it
+     * locks.
+     */
+    public void runAgent() {
+        if (!lockVault()) {
+            System.exit(1);
+        }
+        String key = login.login();
+        if (key == null) {
+            terminal.error("Couldn't log in!\n");
+            terminal.error("Exiting...\n");
+            System.exit(1);
+        }
+        Agent agent = new Agent(terminal, key, Menu.DEFAULT_USER_PASSWORDS_PATH);
+        System.exit(agent.run() ? 0 : 1);
+    }
+
+    /**
+     * Locks the password store for this process (see VaultLock), so an
+     * interactive session and an agent can't both have it open. The lock is
+     * held until the process exits.
+     *
+     * @return false if another session has the password store open or it
+     *         couldn't be locked.
+     */
+    private boolean lockVault() {
+        try {
+            this.vaultLock = VaultLock.tryAcquire(Menu.DEFAULT_USER_PASSWORDS_PATH);
+        } catch (IOException e) {
+            terminal.error("Couldn't lock the password store: " + e.getMessage() + "\n");
+            return false;
+        }
+        if (this.vaultLock == null) {
+            terminal.error("The password store is open in another session. Close it first.\n");
+            return false;
+        }
+        return true;
+    }
+
 }
@@ -0,0 +1,134 @@
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * AtomicFile class.
+ *
+ * <p>
+ * Replaces a file so that a crash or full disk leaves either the old or the
+ * new contents, never a mix. The new contents are written to a temporary file
+ * in the same directory, forced to disk, renamed over the target and then the
+ * directory itself is forced so the rename survives a crash.
+ * </p>
+ *
+ * <p>
+ * Usage: write to the stream returned by startWrite, then call commit. If
+ * anything fails before commit, call abort to remove the temporary file.
+ * </p>
+ *
+ * @author Luke Halpenny & Andrej Gorochov
+ * @version 1.0
+ */
+public class AtomicFile {
+
+    public static final String TEMP_SUFFIX = ".tmp";
+
+    private final File target;
+    private final File temp;
+    private FileOutputStream out;
+
+    /**
+     * Prepares to replace the specified file.
+     *
+     * @param target file to replace.
+     */
+    public AtomicFile(File target) {
+        this.target = target.getAbsoluteFile();
+        this.temp = new File(this.target.getParentFile(), this.target.getName() + TEMP_SUFFIX);
+        this.out = null;
+    }
+
+    /**
+     * Writes the whole contents of a file atomically.
+     *
+     * @param target file to replace.
+     * @param contents new contents of the file.
+     * @throws IOException if the file can't be written.
+     */
+    public static void write(File target, byte[] contents) throws IOException {
+        AtomicFile file = new AtomicFile(target);
+        try {
+            file.startWrite().write(contents);
+            file.commit();
+        } finally {
+            file.abort();
+        }
+    }
+
+    /**
+     * Opens the temporary file that the new contents are written to. The
+     * stream must not be closed by the caller, commit closes it.
+     *
+     * @return stream to write the new contents to.
+     * @throws IOException if the temporary file can't be created.
+     */
+    public OutputStream startWrite() throws IOException {
+        if (this.out != null) {
+            throw new IllegalStateException("Write already started.");
+        }
+        this.out = new FileOutputStream(this.temp);
+        return this.out;
+    }
+
+    /**
+     * Forces the new contents to disk and renames them over the target.
+     *
+     * @throws IOException if the contents can't be made durable.
+     */
+    public void commit() throws IOException {
+        if (this.out == null) {
+            throw new IllegalStateException("Write not started.");
+        }
+        this.out.getChannel().force(true);
+        this.out.close();
+        this.out = null;
+        Path source = this.temp.toPath();
+        Path destination = this.target.toPath();
+        try {
+            Files.move(source, destination, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, destination, StandardCopyOption.REPLACE_EXISTING);
+        }
+        forceDirectory(this.target.getParentFile());
+    }
+
+    /**
+     * Closes and deletes the temporary file if commit didn't complete. Does
+     * nothing after a successful commit.
+     */
+    public void abort() {
+        if (this.out != null) {
+            try {
+                this.out.close();
+            } catch (IOException ignored) {
+            }
+            this.out = null;
+        }
+        if (this.temp.exists()) {
+            this.temp.delete();
+        }
+    }
+
+    /**
+     * Forces a directory's entries to disk so renames and new files in it
+     * survive a crash. Some platforms can't open directories, in which case
+     * this does nothing.
+     *
+     * @param directory directory to force.
+     */
+    public static void forceDirectory(File directory) {
+        try (FileChannel channel = FileChannel.open(directory.toPath(), StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -0,0 +1,354 @@
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+
+/**
+ * BKTree class.
+ *
+ * <p>
+ * Typo-tolerant index over the words of the entries' titles and websites.
+ * Values are lowercased and split into words at every character that isn't a
+ * letter or digit. Each distinct word is a node of a Burkhard-Keller tree
+ * under the Levenshtein distance, listing the ids of the entries that contain
+ * it. A child is stored under its distance to its parent, so by the triangle
+ * inequality a search within distance k of a word only has to descend into
+ * children whose distance to the node lies within k of the word's own
+ * distance to it, instead of comparing the word with every other word.
+ * </p>
+ *
+ * <p>
+ * Words that no entry contains any more stay in the tree as empty nodes, as
+ * they still route searches to their children.
+ * </p>
+ *
+ * @author Luke Halpenny & Andrej Gorochov
+ * @version 1.0
+ */
+public final class BKTree {
+
+    public static final int MAX_DISTANCE = 3;
+
+    private final IntObjectMap<String[]> words;
+    private Node root;
+    private int[] previousRow = new int[16];
+    private int[] currentRow = new int[16];
+
+    /**
+     * Creates an empty tree.
+     */
+    public BKTree() {
+        this.words = new IntObjectMap<>();
+        this.root = null;
+    }
+
+    /**
+     * Indexes the words of an entry, replacing its previous words.
+     *
+     * @param id id of the entry.
+     * @param values text to take the words from, e.g. title and website.
+     */
+    public void put(int id, String... values) {
+        remove(id);
+        LinkedHashSet<String> distinct = new LinkedHashSet<>();
+        for (String value : values) {
+            distinct.addAll(Arrays.asList(tokenize(value)));
+        }
+        String[] entryWords = distinct.toArray(new String[0]);
+        this.words.put(id, entryWords);
+        for (String word : entryWords) {
+            findOrAdd(word).add(id);
+        }
+    }
+
+    /**
+     * Removes an entry from the index.
+     *
+     * @param id id of the entry.
+     */
+    public void remove(int id) {
+        String[] entryWords = this.words.remove(id);
+        if (entryWords == null) {
+            return;
+        }
+        for (String word : entryWords) {
+            Node node = find(word);
+            if (node != null) {
+                node.remove(id);
+            }
+        }
+    }
+
+    /**
+     * Finds the entries that contain every word of the query, allowing each
+     * word to be misspelt by up to maxDistance single character insertions,
+     * deletions or substitutions. Short words are matched less loosely, with
+     * at most half their length in edits, so that e.g. a two letter word
+     * doesn't match every other two letter word.
+     *
+     * @param query words to search for.
+     * @param maxDistance allowed edits per word, between 0 and MAX_DISTANCE.
+     * @return matching entries with their total distance, in no particular
+     *         order.
+     * @throws IllegalArgumentException if maxDistance is out of range.
+     */
+    public ArrayList<Match> search(String query, int maxDistance) {
+        if (maxDistance < 0 || maxDistance > MAX_DISTANCE) {
+            throw new IllegalArgumentException("Distance must be between 0 and " + MAX_DISTANCE + ".");
+        }
+        ArrayList<Match> matches = new ArrayList<>();
+        String[] queryWords = new LinkedHashSet<>(Arrays.asList(tokenize(query))).toArray(new String[0]);
+        if (queryWords.length == 0 || this.root == null) {
+            return matches;
+        }
+        IntObjectMap<int[]> totals = null;
+        for (String word : queryWords) {
+            IntObjectMap<int[]> closest = closest(word, Math.min(maxDistance, word.length() / 2));
+            if (totals != null) {
+                for (int id : closest.keys()) {
+                    int[] total = totals.get(id);
+                    if (total == null) {
+                        closest.remove(id);
+                    } else {
+                        closest.get(id)[0] += total[0];
+                    }
+                }
+            }
+            totals = closest;
+            if (totals.isEmpty()) {
+                return matches;
+            }
+        }
+        for (int id : totals.keys()) {
+            matches.add(new Match(id, totals.get(id)[0]));
+        }
+        return matches;
+    }
+
+    /**
+     * Finds the entries containing a word within a distance of the given
+     * one, each with the distance of its closest such word.
+     *
+     * @param word word to search for.
+     * @param limit largest distance allowed.
+     * @return map from entry id to a one element array with the distance.
+     */
+    private IntObjectMap<int[]> closest(String word, int limit) {
+        IntObjectMap<int[]> found = new IntObjectMap<>();
+        ArrayDeque<Node> pending = new ArrayDeque<>();
+        pending.push(this.root);
+        while (!pending.isEmpty()) {
+            Node node = pending.pop();
+            int distance = distance(word, node.word);
+            if (distance <= limit) {
+                for (int i = 0; i < node.size; i++) {
+                    int[] best = found.get(node.ids[i]);
+                    if (best == null) {
+                        found.put(node.ids[i], new int[] {distance});
+                    } else if (distance < best[0]) {
+                        best[0] = distance;
+                    }
+                }
+            }
+            if (node.children != null) {
+                for (int d = Math.max(1, distance - limit); d <= distance + limit; d++) {
+                    Node child = node.children.get(d);
+                    if (child != null) {
+                        pending.push(child);
+                    }
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Finds the node of a word.
+     *
+     * @param word word to look for.
+     * @return the node, or null if the word isn't in the tree.
+     */
+    private Node find(String word) {
+        Node node = this.root;
+        while (node != null) {
+            int distance = distance(word, node.word);
+            if (distance == 0) {
+                return node;
+            }
+            node = node.children == null ? null : node.children.get(distance);
+        }
+        return null;
+    }
+
+    /**
+     * Finds the node of a word, adding one if the word isn't in the tree.
+     *
+     * @param word word to look for.
+     * @return the node of the word.
+     */
+    private Node findOrAdd(String word) {
+        if (this.root == null) {
+            this.root = new Node(word);
+            return this.root;
+        }
+        Node node = this.root;
+        while (true) {
+            int distance = distance(word, node.word);
+            if (distance == 0) {
+                return node;
+            }
+            if (node.children == null) {
+                node.children = new IntObjectMap<>();
+            }
+            Node child = node.children.get(distance);
+            if (child == null) {
+                child = new Node(word);
+                node.children.put(distance, child);
+                return child;
+            }
+            node = child;
+        }
+    }
+
+    /**
+     * Splits text into lowercase words of letters and digits.
+     *
+     * @param value text to split.
+     * @return the words, possibly none.
+     */
+    static String[] tokenize(String value) {
+        ArrayList<String> tokens = new ArrayList<>();
+        String folded = value.toLowerCase();
+        int start = -1;
+        for (int i = 0; i <= folded.length(); i++) {
+            boolean wordChar = i < folded.length() && Character.isLetterOrDigit(folded.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                tokens.add(folded.substring(start, i));
+                start = -1;
+            }
+        }
+        return tokens.toArray(new String[0]);
+    }
+
+    /**
+     * Computes the Levenshtein distance between two words with two rows of
+     * the usual dynamic programming table. The rows are reused between calls,
+     * as searches compute many distances.
+     *
+     * @param a first word.
+     * @param b second word.
+     * @return number of single character insertions, deletions and
+     *         substitutions needed to turn one word into the other.
+     */
+    int distance(String a, String b) {
+        if (a.length() < b.length()) {
+            String swap = a;
+            a = b;
+            b = swap;
+        }
+        if (this.previousRow.length <= b.length()) {
+            this.previousRow = new int[b.length() * 2 + 1];
+            this.currentRow = new int[b.length() * 2 + 1];
+        }
+        int[] previous = this.previousRow;
+        int[] current = this.currentRow;
+        for (int j = 0; j <= b.length(); j++) {
+            previous[j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            current[0] = i;
+            char c = a.charAt(i - 1);
+            for (int j = 1; j <= b.length(); j++) {
+                int cost = c == b.charAt(j - 1) ? 0 : 1;
+                current[j] = Math.min(Math.min(current[j - 1], previous[j]) + 1, previous[j - 1] + cost);
+            }
+            int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        int result = previous[b.length()];
+        this.previousRow = previous;
+        this.currentRow = current;
+        return result;
+    }
+
+    /**
+     * Entry found by a search.
+     */
+    public static final class Match {
+
+        private final int id;
+        private final int distance;
+
+        /**
+         * @param id id of the entry.
+         * @param distance total edits between the query and the entry's words.
+         */
+        Match(int id, int distance) {
+            this.id = id;
+            this.distance = distance;
+        }
+
+        /**
+         * @return id of the entry.
+         */
+        public int getId() {
+            return this.id;
+        }
+
+        /**
+         * @return total edits between the query and the entry's words.
+         */
+        public int getDistance() {
+            return this.distance;
+        }
+    }
+
+    /**
+     * A word with the ids of the entries containing it, and its children by
+     * distance.
+     */
+    private static final class Node {
+
+        final String word;
+        IntObjectMap<Node> children;
+        int[] ids = new int[1];
+        int size;
+
+        /**
+         * @param word word of the node.
+         */
+        Node(String word) {
+            this.word = word;
+        }
+
+        /**
+         * Lists an entry under the word.
+         *
+         * @param id id of the entry.
+         */
+        void add(int id) {
+            if (this.size == this.ids.length) {
+                this.ids = Arrays.copyOf(this.ids, this.size * 2);
+            }
+            this.ids[this.size++] = id;
+        }
+
+        /**
+         * Removes an entry from the word.
+         *
+         * @param id id of the entry.
+         */
+        void remove(int id) {
+            for (int i = 0; i < this.size; i++) {
+                if (this.ids[i] == id) {
+                    this.ids[i] = this.ids[--this.size];
+                    return;
+                }
+            }
+        }
+    }
+}
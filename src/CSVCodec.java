@@ -0,0 +1,296 @@
+
+import java.time.DateTimeException;
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * CSVCodec class.
+ *
+ * <p>
+ * Encodes and decodes the CSV lines the password vault is stored as. Each line
+ * holds id, title, website, password and last updated time separated by
+ * commas, with commas, line feeds and carriage returns in the fields escaped
+ * as &amp;#44;, &amp;#10; and &amp;#13;. Both directions work in a single pass
+ * over the characters without regexes or intermediate strings.
+ * </p>
+ *
+ * @author Luke Halpenny & Andrej Gorochov
+ * @version 1.0
+ */
+public final class CSVCodec {
+
+    private static final char SEPARATOR = ',';
+    private static final char LINE_END = '\n';
+    private static final int FIELDS = 5;
+
+    /**
+     * Static utility class, not to be instantiated.
+     */
+    private CSVCodec() {
+    }
+
+    /**
+     * Appends the CSV line of an entry (without the line end) to the builder.
+     *
+     * @param out builder to append to.
+     * @param entry entry to encode.
+     */
+    public static void appendEntry(StringBuilder out, StoredPassword entry) {
+        out.append(entry.getId()).append(SEPARATOR);
+        appendEscaped(out, entry.getTitle());
+        out.append(SEPARATOR);
+        appendEscaped(out, entry.getWebsite());
+        out.append(SEPARATOR);
+        appendEscaped(out, entry.getPassword());
+        out.append(SEPARATOR);
+        appendEscaped(out, entry.getLastUpdated().toString());
+    }
+
+    /**
+     * Appends a field to the builder, escaping commas and line breaks.
+     *
+     * @param out builder to append to.
+     * @param field field to escape.
+     */
+    public static void appendEscaped(StringBuilder out, CharSequence field) {
+        int length = field.length();
+        for (int i = 0; i < length; i++) {
+            char c = field.charAt(i);
+            switch (c) {
+                case ',':
+                    out.append("&#44;");
+                    break;
+                case '\n':
+                    out.append("&#10;");
+                    break;
+                case '\r':
+                    out.append("&#13;");
+                    break;
+                default:
+                    out.append(c);
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Decodes every line of the payload into entries and adds them to the
+     * list. Lines that are malformed or hold invalid fields are skipped.
+     * Entries of authenticated content are built with
+     * StoredPassword.fromTrustedVault, so it must be vault content whose
+     * integrity was checked, e.g. an AES-GCM frame. Entries of any other
+     * content go through the validating constructor, and lines that fail its
+     * checks are skipped too.
+     *
+     * @param payload decrypted vault content, e.g. a String or CharBuffer.
+     * @param authenticated whether the payload's integrity was checked.
+     * @param out list the decoded entries are added to.
+     * @return number of lines that were skipped.
+     */
+    public static int decode(CharSequence payload, boolean authenticated, List<StoredPassword> out) {
+        StringBuilder field = new StringBuilder();
+        int[] bounds = new int[FIELDS * 2];
+        int skipped = 0;
+        int length = payload.length();
+        int lineStart = 0;
+        while (lineStart < length) {
+            int lineEnd = lineStart;
+            int fields = 0;
+            int fieldStart = lineStart;
+            while (lineEnd < length && payload.charAt(lineEnd) != LINE_END) {
+                if (payload.charAt(lineEnd) == SEPARATOR) {
+                    if (fields < FIELDS) {
+                        bounds[fields * 2] = fieldStart;
+                        bounds[fields * 2 + 1] = lineEnd;
+                    }
+                    fields++;
+                    fieldStart = lineEnd + 1;
+                }
+                lineEnd++;
+            }
+            if (fields < FIELDS) {
+                bounds[fields * 2] = fieldStart;
+                bounds[fields * 2 + 1] = lineEnd;
+            }
+            fields++;
+            if (lineEnd > lineStart) {
+                StoredPassword entry = fields == FIELDS ? decodeEntry(payload, bounds, field, authenticated) : null;
+                if (entry != null) {
+                    out.add(entry);
+                } else {
+                    skipped++;
+                }
+            }
+            lineStart = lineEnd + 1;
+        }
+        return skipped;
+    }
+
+    /**
+     * Decodes the five fields of a single line.
+     *
+     * @param payload decrypted vault content.
+     * @param bounds start (inclusive) and end (exclusive) of each field.
+     * @param field reusable builder for unescaping.
+     * @param authenticated whether the payload's integrity was checked.
+     * @return the decoded entry, or null if any field is invalid.
+     */
+    private static StoredPassword decodeEntry(CharSequence payload, int[] bounds, StringBuilder field,
+                                              boolean authenticated) {
+        try {
+            int id = parseInt(payload, bounds[0], bounds[1]);
+            String title = unescape(payload, bounds[2], bounds[3], field);
+            String website = unescape(payload, bounds[4], bounds[5], field);
+            String password = unescape(payload, bounds[6], bounds[7], field);
+            LocalDateTime lastUpdated = parseDateTime(payload, bounds[8], bounds[9]);
+            if (lastUpdated == null) {
+                lastUpdated = LocalDateTime.parse(unescape(payload, bounds[8], bounds[9], field));
+            }
+            if (!authenticated) {
+                return new StoredPassword(id, title, website, password, lastUpdated);
+            }
+            return StoredPassword.fromTrustedVault(id, title, website, password, lastUpdated);
+        } catch (IllegalArgumentException | DateTimeException | PasswordException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Unescapes a field into a new String.
+     *
+     * @param payload decrypted vault content.
+     * @param start start of the field (inclusive).
+     * @param end end of the field (exclusive).
+     * @param field reusable builder for unescaping.
+     * @return the unescaped field.
+     */
+    private static String unescape(CharSequence payload, int start, int end, StringBuilder field) {
+        field.setLength(0);
+        int i = start;
+        while (i < end) {
+            char c = payload.charAt(i);
+            if (c == '&' && i + 5 <= end && payload.charAt(i + 1) == '#' && payload.charAt(i + 4) == ';') {
+                char tens = payload.charAt(i + 2);
+                char units = payload.charAt(i + 3);
+                if (tens == '4' && units == '4') {
+                    field.append(',');
+                    i += 5;
+                    continue;
+                } else if (tens == '1' && units == '0') {
+                    field.append('\n');
+                    i += 5;
+                    continue;
+                } else if (tens == '1' && units == '3') {
+                    field.append('\r');
+                    i += 5;
+                    continue;
+                }
+            }
+            field.append(c);
+            i++;
+        }
+        return field.toString();
+    }
+
+    /**
+     * Parses a decimal int without creating a String.
+     *
+     * @param payload decrypted vault content.
+     * @param start start of the number (inclusive).
+     * @param end end of the number (exclusive).
+     * @return the parsed value.
+     * @throws NumberFormatException if the range is not a valid int.
+     */
+    private static int parseInt(CharSequence payload, int start, int end) {
+        if (start >= end || end - start > 11) {
+            throw new NumberFormatException("Invalid id.");
+        }
+        boolean negative = payload.charAt(start) == '-';
+        int i = negative || payload.charAt(start) == '+' ? start + 1 : start;
+        if (i == end) {
+            throw new NumberFormatException("Invalid id.");
+        }
+        long value = 0;
+        for (; i < end; i++) {
+            int digit = payload.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                throw new NumberFormatException("Invalid id.");
+            }
+            value = value * 10 + digit;
+        }
+        value = negative ? -value : value;
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            throw new NumberFormatException("Invalid id.");
+        }
+        return (int) value;
+    }
+
+    /**
+     * Parses the layouts LocalDateTime.toString produces for four digit
+     * years: uuuu-MM-ddTHH:mm, optionally followed by :ss and a 3, 6 or 9
+     * digit fraction.
+     *
+     * @param payload decrypted vault content.
+     * @param start start of the date (inclusive).
+     * @param end end of the date (exclusive).
+     * @return the parsed date, or null if the range has another layout.
+     * @throws DateTimeException if a field is out of range.
+     */
+    private static LocalDateTime parseDateTime(CharSequence payload, int start, int end) {
+        int length = end - start;
+        if (length != 16 && length != 19 && length != 23 && length != 26 && length != 29) {
+            return null;
+        }
+        if (payload.charAt(start + 4) != '-' || payload.charAt(start + 7) != '-'
+                || payload.charAt(start + 10) != 'T' || payload.charAt(start + 13) != ':') {
+            return null;
+        }
+        int year = digits(payload, start, 4);
+        int month = digits(payload, start + 5, 2);
+        int day = digits(payload, start + 8, 2);
+        int hour = digits(payload, start + 11, 2);
+        int minute = digits(payload, start + 14, 2);
+        int second = 0;
+        int nano = 0;
+        if (length > 16) {
+            if (payload.charAt(start + 16) != ':') {
+                return null;
+            }
+            second = digits(payload, start + 17, 2);
+        }
+        if (length > 19) {
+            if (payload.charAt(start + 19) != '.') {
+                return null;
+            }
+            int fractionDigits = length - 20;
+            nano = digits(payload, start + 20, fractionDigits);
+            for (int i = fractionDigits; i < 9; i++) {
+                nano *= 10;
+            }
+        }
+        if ((year | month | day | hour | minute | second | nano) < 0) {
+            return null;
+        }
+        return LocalDateTime.of(year, month, day, hour, minute, second, nano);
+    }
+
+    /**
+     * Reads a fixed number of decimal digits.
+     *
+     * @param payload decrypted vault content.
+     * @param start position of the first digit.
+     * @param count number of digits.
+     * @return the value, or -1 if any character is not a digit.
+     */
+    private static int digits(CharSequence payload, int start, int count) {
+        int value = 0;
+        for (int i = start; i < start + count; i++) {
+            int digit = payload.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+}
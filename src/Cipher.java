@@ -1,10 +1,5 @@
-import javax.crypto.*;
-import javax.crypto.spec.IvParameterSpec;
-import javax.crypto.spec.SecretKeySpec;
-import java.security.InvalidAlgorithmParameterException;
-import java.security.InvalidKeyException;
-import java.security.NoSuchAlgorithmException;
-import java.security.spec.InvalidParameterSpecException;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
 import java.util.Base64;
 
 public class Cipher {
@@ -14,18 +9,65 @@ public class Cipher {
   // #######################################################
 
   // Configuration values
-  public static final String CIPHER_TYPE     = "AES/CBC/PKCS5Padding";
-  public static final String KEY_SPEC_TYPE   = "AES";
-  public static final int    BITS_PER_BYTE   = 8;
-  public static final int    KEY_BITS_SMALL  = 128;
-  public static final int    KEY_BITS_MEDIUM = 192;
-  public static final int    KEY_BITS_LARGE  = 256;
+  public static final String CIPHER_TYPE      = "AES/CBC/PKCS5Padding";
+  public static final String KEY_SPEC_TYPE    = "AES";
+  public static final int    BITS_PER_BYTE    = 8;
+  public static final int    KEY_BITS_SMALL   = 128;
+  public static final int    KEY_BITS_MEDIUM  = 192;
+  public static final int    KEY_BITS_LARGE   = 256;
+  public static final int    IV_BYTES         = 16;
+  public static final String KEY_CHECK_TYPE   = "HmacSHA256";
+  public static final byte[] KEY_CHECK_DATA   = "SAPM key check".getBytes(StandardCharsets.UTF_8);
+  public static final int    KEY_CHECK_BYTES  = 8;
+  public static final String AEAD_CIPHER_TYPE = "AES/GCM/NoPadding";
+  public static final int    AEAD_NONCE_BYTES = 12;
+  public static final int    AEAD_TAG_BITS    = 128;
 
 
   // Exception messages
   public static final String PREPEND_ENCRYPT = "[ENCRYPT]";
   public static final String PREPEND_DECRYPT = "[DECRYPT]";
   public static final String BAD_KEY_SIZE    = "A 128, 192, or 256-byte key is required (encoded as Base64)";
+  public static final String BAD_KEY_CHECK   = "Key does not match key-check value";
+
+  // #######################################################
+  // # Key utilities
+  // #######################################################
+
+  /**
+   * @return A random 256-bit AES key as a Base64-encoded
+   *         string.
+   */
+  public static String generateKey() {
+    byte[] keyBytes = new byte[KEY_BITS_LARGE / BITS_PER_BYTE];
+    new SecureRandom().nextBytes(keyBytes);
+    return Base64.getEncoder().encodeToString(keyBytes);
+  }
+
+  /**
+   * Returns a short key-check value for a key: an HMAC of
+   * a fixed message under the key, truncated to
+   * KEY_CHECK_BYTES. Storing it next to data encrypted with
+   * the key lets a wrong key be rejected before any
+   * decryption is attempted, without revealing the key.
+   *
+   * @param base64Key The key to check, 128, 192, or 256
+   *                  bits as a base64-encoded string
+   * @return          Key-check value as a base64-encoded string
+   */
+  public static String keyCheckValue(String base64Key) {
+    return Base64.getEncoder().encodeToString(keyCheckBytes(base64Key));
+  }
+
+  /**
+   * Returns the raw bytes of keyCheckValue.
+   *
+   * @param base64Key The key to check
+   * @return          KEY_CHECK_BYTES long key-check value
+   */
+  public static byte[] keyCheckBytes(String base64Key) {
+    return new CipherEngine(base64Key).keyCheckBytes();
+  }
 
   // #######################################################
   // # Encryption utility
@@ -50,7 +92,8 @@ public class Cipher {
   /**
    * Given a string of plaintext, and a 128, 192, or 256-bit
    * key (encoded as base-64) encrypts the string using
-   * AES-CBC (configurable in CIPHER_TYPE const).
+   * AES-CBC (configurable in CIPHER_TYPE const). The
+   * plaintext is encoded as UTF-8.
    *
    * Note the returned string bundles the initialization
    * vector and ciphertext, separated by a | character.
@@ -63,38 +106,7 @@ public class Cipher {
    *                  both included, separated by a | character
    */
   public static String encryptString(String plaintext, String base64Key) {
-
-    // Decode the base64-encoded key into bytes
-    byte[] decodedKeyBytes = Base64.getDecoder().decode(base64Key);
-
-    // Check the key is a usable length
-    if (!Cipher.isValidKeySize(decodedKeyBytes)) {
-      throw new CipherException(BAD_KEY_SIZE);
-    }
-
-    try {
-
-      // Create a native key specification object.
-      SecretKey secret = new SecretKeySpec(decodedKeyBytes, KEY_SPEC_TYPE);
-
-      // Initialize the cipher algorithm
-      javax.crypto.Cipher cipher = javax.crypto.Cipher.getInstance(CIPHER_TYPE);
-      cipher.init(javax.crypto.Cipher.ENCRYPT_MODE, secret);
-
-      // Get the block initialization vector
-      byte[] ivBytes = cipher.getParameters().getParameterSpec(IvParameterSpec.class).getIV();
-
-      // Encrypt the plaintext
-      byte[] ciphertext = cipher.doFinal(plaintext.getBytes());
-
-      // Base64-encode the initialization vector and ciphertext bytes
-      return Base64.getEncoder().encodeToString(ivBytes)
-          + "|"
-          + Base64.getEncoder().encodeToString(ciphertext);
-    }
-    catch (NoSuchAlgorithmException |NoSuchPaddingException |InvalidKeyException |IllegalBlockSizeException |BadPaddingException |InvalidParameterSpecException e) {
-      throw new CipherException(PREPEND_ENCRYPT + e.getMessage());
-    }
+    return new CipherEngine(base64Key).encryptString(plaintext);
   }
 
   // #######################################################
@@ -107,6 +119,10 @@ public class Cipher {
    * decrypts the string using AES-CBC (configurable in
    * CIPHER_TYPE const).
    *
+   * Each call sets up a new CipherEngine; callers that
+   * encrypt or decrypt repeatedly with the same key should
+   * hold one instead.
+   *
    * @param ciphertext The ciphertext string to decrypt, inclusive
    *                   of initialization vector (format: iv|ciphertext).
    * @param base64Key  The key to use for encryption, 128, 192, or 256
@@ -114,36 +130,40 @@ public class Cipher {
    * @return           Decrypted Plaintext string
    */
   public static String decryptString(String ciphertext, String base64Key) {
+    return new CipherEngine(base64Key).decryptString(ciphertext);
+  }
 
-    // Decode the base64-encoded key into bytes
-    byte[] decodedKeyBytes = Base64.getDecoder().decode(base64Key);
-
-    // Check the key is a usable length
-    if (!Cipher.isValidKeySize(decodedKeyBytes)) {
-      throw new CipherException(BAD_KEY_SIZE);
-    }
-
-    try {
-
-      // Decode Base64 string into IV and ciphertext bytes
-      String[] cipherTextParts = ciphertext.split("\\|");
-      byte[]   ivBytes         = Base64.getDecoder().decode(cipherTextParts[0]);
-      byte[]   ciphertextBytes = Base64.getDecoder().decode(cipherTextParts[1]);
-
-      // Create a native key specification object
-      SecretKey secret = new SecretKeySpec(decodedKeyBytes, KEY_SPEC_TYPE);
+  // #######################################################
+  // # Byte array utilities
+  // #######################################################
 
-      // Initialize the cipher algorithm
-      javax.crypto.Cipher cipher = javax.crypto.Cipher.getInstance(CIPHER_TYPE);
-      cipher.init(javax.crypto.Cipher.DECRYPT_MODE, secret, new IvParameterSpec(ivBytes));
+  /**
+   * Encrypts a byte array with a 128, 192, or 256-bit key
+   * (encoded as base-64) using AES-CBC (configurable in
+   * CIPHER_TYPE const).
+   *
+   * @param plaintext The plaintext bytes to encrypt
+   * @param base64Key The key to use for encryption
+   * @return          The IV_BYTES long initialization vector
+   *                  followed by the ciphertext
+   */
+  public static byte[] encryptBytes(byte[] plaintext, String base64Key) {
+    return new CipherEngine(base64Key).encrypt(plaintext);
+  }
 
-      // Decode and return the plaintext
-      String plaintext = new String(cipher.doFinal(ciphertextBytes));
-      return plaintext;
-    }
-    catch (NoSuchAlgorithmException |NoSuchPaddingException |InvalidKeyException |IllegalBlockSizeException |BadPaddingException |InvalidAlgorithmParameterException e) {
-      throw new CipherException(PREPEND_DECRYPT + e.getMessage());
-    }
+  /**
+   * Decrypts bytes created with the encryptBytes method.
+   *
+   * @param input     Array holding the initialization vector
+   *                  followed by the ciphertext
+   * @param offset    Start of the initialization vector in input
+   * @param length    Length of the initialization vector and
+   *                  ciphertext together
+   * @param base64Key The key to use for decryption
+   * @return          Decrypted plaintext bytes
+   */
+  public static byte[] decryptBytes(byte[] input, int offset, int length, String base64Key) {
+    return new CipherEngine(base64Key).decrypt(input, offset, length);
   }
 
 }
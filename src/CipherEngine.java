@@ -0,0 +1,425 @@
+import javax.crypto.BadPaddingException;
+import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.Mac;
+import javax.crypto.NoSuchPaddingException;
+import javax.crypto.SecretKey;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * Reusable AES engine bound to a single key.
+ *
+ * The key is decoded and validated once, and each thread
+ * keeps its own javax.crypto.Cipher instance, so an
+ * encryption or decryption only pays for the cipher
+ * initialisation and the work itself. Ciphertext is laid
+ * out as the IV_BYTES long initialization vector followed
+ * by the AES-CBC ciphertext (configurable in the
+ * Cipher.CIPHER_TYPE const). Strings are always encoded
+ * as UTF-8.
+ *
+ * Instances are safe to share between threads. Call destroy
+ * once the key is no longer needed to wipe the engine's
+ * copy of it.
+ */
+public class CipherEngine {
+
+  // Shared by all engines; SecureRandom is thread-safe and
+  // costly to seed
+  private static final SecureRandom RANDOM = new SecureRandom();
+
+  // #######################################################
+  // # Instance variables
+  // #######################################################
+
+  private final byte[]                          keyBytes;
+  private final EngineKey                       secret;
+  private final ThreadLocal<javax.crypto.Cipher> ciphers;
+  private final ThreadLocal<javax.crypto.Cipher> aeadCiphers;
+  private volatile boolean                      destroyed;
+
+  // #######################################################
+  // # Constructors
+  // #######################################################
+
+  /**
+   * Construct from a 128, 192, or 256-bit key encoded as
+   * base-64.
+   *
+   * @param base64Key The key to use for encryption
+   */
+  public CipherEngine(String base64Key) {
+    this(Base64.getDecoder().decode(base64Key));
+  }
+
+  /**
+   * Construct from a 128, 192, or 256-bit raw key. The
+   * array is copied.
+   *
+   * @param key The key to use for encryption
+   */
+  public CipherEngine(byte[] key) {
+    if (!Cipher.isValidKeySize(key)) {
+      throw new CipherException(Cipher.BAD_KEY_SIZE);
+    }
+    this.keyBytes = key.clone();
+    this.secret   = new EngineKey(this.keyBytes);
+    this.ciphers     = cipherCache(Cipher.CIPHER_TYPE);
+    this.aeadCiphers = cipherCache(Cipher.AEAD_CIPHER_TYPE);
+  }
+
+  /**
+   * @param type Transformation to create ciphers for
+   * @return     Per-thread cache of ciphers of that type
+   */
+  private static ThreadLocal<javax.crypto.Cipher> cipherCache(final String type) {
+    return new ThreadLocal<javax.crypto.Cipher>() {
+      @Override
+      protected javax.crypto.Cipher initialValue() {
+        try {
+          return javax.crypto.Cipher.getInstance(type);
+        }
+        catch (NoSuchAlgorithmException |NoSuchPaddingException e) {
+          throw new CipherException(e.getMessage());
+        }
+      }
+    };
+  }
+
+  // #######################################################
+  // # Sizes
+  // #######################################################
+
+  /**
+   * @param plaintextLength Number of plaintext bytes
+   * @return                Number of bytes encrypt produces for
+   *                        that much plaintext
+   */
+  public int getOutputSize(int plaintextLength) {
+    int blocks = plaintextLength / Cipher.IV_BYTES + 1;
+    return Cipher.IV_BYTES + blocks * Cipher.IV_BYTES;
+  }
+
+  // #######################################################
+  // # Encryption
+  // #######################################################
+
+  /**
+   * @param plaintext The plaintext bytes to encrypt
+   * @return          Initialization vector followed by the
+   *                  ciphertext
+   */
+  public byte[] encrypt(byte[] plaintext) {
+    return encrypt(plaintext, 0, plaintext.length);
+  }
+
+  /**
+   * @param input  Array holding the plaintext
+   * @param offset Start of the plaintext in input
+   * @param length Number of plaintext bytes
+   * @return       Initialization vector followed by the
+   *               ciphertext
+   */
+  public byte[] encrypt(byte[] input, int offset, int length) {
+    byte[] output  = new byte[getOutputSize(length)];
+    int    written = encrypt(ByteBuffer.wrap(input, offset, length), ByteBuffer.wrap(output));
+    return written == output.length ? output : Arrays.copyOf(output, written);
+  }
+
+  /**
+   * Encrypts the remaining bytes of plaintext into output,
+   * advancing both buffers. The buffers may be backed by
+   * the same array.
+   *
+   * @param plaintext The plaintext to encrypt
+   * @param output    Buffer with at least getOutputSize bytes
+   *                  remaining
+   * @return          Number of bytes written to output
+   */
+  public int encrypt(ByteBuffer plaintext, ByteBuffer output) {
+    checkNotDestroyed();
+    try {
+      byte[] ivBytes = new byte[Cipher.IV_BYTES];
+      RANDOM.nextBytes(ivBytes);
+      javax.crypto.Cipher cipher = this.ciphers.get();
+      cipher.init(javax.crypto.Cipher.ENCRYPT_MODE, this.secret, new IvParameterSpec(ivBytes));
+      output.put(ivBytes);
+      return Cipher.IV_BYTES + cipher.doFinal(plaintext, output);
+    }
+    catch (InvalidKeyException |InvalidAlgorithmParameterException |IllegalBlockSizeException |BadPaddingException |ShortBufferException e) {
+      throw new CipherException(Cipher.PREPEND_ENCRYPT + e.getMessage());
+    }
+  }
+
+  /**
+   * @param plaintext The plaintext string to encrypt
+   * @return          Base64-encoded initialization vector and
+   *                  ciphertext, separated by a | character
+   */
+  public String encryptString(String plaintext) {
+    byte[] sealed = encrypt(plaintext.getBytes(StandardCharsets.UTF_8));
+    Base64.Encoder encoder = Base64.getEncoder();
+    return encoder.encodeToString(Arrays.copyOf(sealed, Cipher.IV_BYTES))
+        + "|"
+        + encoder.encodeToString(Arrays.copyOfRange(sealed, Cipher.IV_BYTES, sealed.length));
+  }
+
+  // #######################################################
+  // # Decryption
+  // #######################################################
+
+  /**
+   * @param input  Array holding the initialization vector
+   *               followed by the ciphertext
+   * @param offset Start of the initialization vector
+   * @param length Length of initialization vector and
+   *               ciphertext together
+   * @return       Decrypted plaintext bytes
+   */
+  public byte[] decrypt(byte[] input, int offset, int length) {
+    byte[] output  = new byte[Math.max(0, length - Cipher.IV_BYTES)];
+    int    written = decrypt(ByteBuffer.wrap(input, offset, length), ByteBuffer.wrap(output));
+    return written == output.length ? output : Arrays.copyOf(output, written);
+  }
+
+  /**
+   * Decrypts in place: the plaintext overwrites the
+   * initialization vector and ciphertext, starting at
+   * offset.
+   *
+   * @param buffer Array holding the initialization vector
+   *               followed by the ciphertext
+   * @param offset Start of the initialization vector
+   * @param length Length of initialization vector and
+   *               ciphertext together
+   * @return       Number of plaintext bytes at offset
+   */
+  public int decryptInPlace(byte[] buffer, int offset, int length) {
+    return decrypt(ByteBuffer.wrap(buffer, offset, length), ByteBuffer.wrap(buffer, offset, length));
+  }
+
+  /**
+   * Decrypts the remaining bytes of input (initialization
+   * vector followed by ciphertext) into output, advancing
+   * both buffers. The buffers may be backed by the same
+   * array.
+   *
+   * @param input  Initialization vector and ciphertext
+   * @param output Buffer with room for the plaintext
+   * @return       Number of plaintext bytes written
+   */
+  public int decrypt(ByteBuffer input, ByteBuffer output) {
+    if (input.remaining() < Cipher.IV_BYTES) {
+      throw new CipherException(Cipher.PREPEND_DECRYPT + "Input too short");
+    }
+    checkNotDestroyed();
+    try {
+      byte[] ivBytes = new byte[Cipher.IV_BYTES];
+      input.get(ivBytes);
+      javax.crypto.Cipher cipher = this.ciphers.get();
+      cipher.init(javax.crypto.Cipher.DECRYPT_MODE, this.secret, new IvParameterSpec(ivBytes));
+      return cipher.doFinal(input, output);
+    }
+    catch (InvalidKeyException |InvalidAlgorithmParameterException |IllegalBlockSizeException |BadPaddingException |ShortBufferException e) {
+      throw new CipherException(Cipher.PREPEND_DECRYPT + e.getMessage());
+    }
+  }
+
+  /**
+   * @param ciphertext Ciphertext created by encryptString
+   *                   (format: iv|ciphertext)
+   * @return           Decrypted plaintext string
+   */
+  public String decryptString(String ciphertext) {
+    String[] cipherTextParts = ciphertext.split("\\|");
+    if (cipherTextParts.length != 2) {
+      throw new CipherException(Cipher.PREPEND_DECRYPT + "Expected iv|ciphertext");
+    }
+    byte[] ivBytes         = Base64.getDecoder().decode(cipherTextParts[0]);
+    byte[] ciphertextBytes = Base64.getDecoder().decode(cipherTextParts[1]);
+    if (ivBytes.length != Cipher.IV_BYTES) {
+      throw new CipherException(Cipher.PREPEND_DECRYPT + "Bad initialization vector");
+    }
+    byte[] sealed = Arrays.copyOf(ivBytes, Cipher.IV_BYTES + ciphertextBytes.length);
+    System.arraycopy(ciphertextBytes, 0, sealed, Cipher.IV_BYTES, ciphertextBytes.length);
+    return new String(decrypt(sealed, 0, sealed.length), StandardCharsets.UTF_8);
+  }
+
+  // #######################################################
+  // # Authenticated encryption
+  // #######################################################
+
+  /**
+   * @param plaintextLength Number of plaintext bytes
+   * @return                Number of bytes seal produces for
+   *                        that much plaintext
+   */
+  public int getSealedSize(int plaintextLength) {
+    return Cipher.AEAD_NONCE_BYTES + plaintextLength + Cipher.AEAD_TAG_BITS / Cipher.BITS_PER_BYTE;
+  }
+
+  /**
+   * Encrypts and authenticates plaintext with AES-GCM
+   * (configurable in the Cipher.AEAD_CIPHER_TYPE const)
+   * under a random nonce. The associated data is
+   * authenticated but not stored, so open must be given
+   * the same bytes; binding e.g. a segment number this way
+   * stops segments from being reordered undetected.
+   *
+   * @param input          Array holding the plaintext
+   * @param offset         Start of the plaintext in input
+   * @param length         Number of plaintext bytes
+   * @param associatedData Data to authenticate, or null
+   * @return               Nonce followed by the ciphertext and
+   *                       authentication tag
+   */
+  public byte[] seal(byte[] input, int offset, int length, byte[] associatedData) {
+    checkNotDestroyed();
+    try {
+      byte[] nonce = new byte[Cipher.AEAD_NONCE_BYTES];
+      RANDOM.nextBytes(nonce);
+      javax.crypto.Cipher cipher = this.aeadCiphers.get();
+      cipher.init(javax.crypto.Cipher.ENCRYPT_MODE, this.secret, new GCMParameterSpec(Cipher.AEAD_TAG_BITS, nonce));
+      byte[] output = new byte[getSealedSize(length)];
+      System.arraycopy(nonce, 0, output, 0, Cipher.AEAD_NONCE_BYTES);
+      if (associatedData != null) {
+        cipher.updateAAD(associatedData);
+      }
+      int written = cipher.doFinal(input, offset, length, output, Cipher.AEAD_NONCE_BYTES);
+      return Cipher.AEAD_NONCE_BYTES + written == output.length
+          ? output
+          : Arrays.copyOf(output, Cipher.AEAD_NONCE_BYTES + written);
+    }
+    catch (InvalidKeyException |InvalidAlgorithmParameterException |IllegalBlockSizeException |BadPaddingException |ShortBufferException e) {
+      throw new CipherException(Cipher.PREPEND_ENCRYPT + e.getMessage());
+    }
+  }
+
+  /**
+   * Verifies and decrypts bytes created with seal, in
+   * place: the plaintext overwrites the sealed bytes,
+   * starting at offset. Nothing is written unless the
+   * authentication tag matches.
+   *
+   * @param buffer         Array holding the sealed bytes
+   * @param offset         Start of the nonce
+   * @param length         Length of nonce, ciphertext and tag
+   * @param associatedData Data passed to seal, or null
+   * @return               Number of plaintext bytes at offset
+   */
+  public int openInPlace(byte[] buffer, int offset, int length, byte[] associatedData) {
+    if (length < getSealedSize(0)) {
+      throw new CipherException(Cipher.PREPEND_DECRYPT + "Input too short");
+    }
+    checkNotDestroyed();
+    try {
+      javax.crypto.Cipher cipher = this.aeadCiphers.get();
+      cipher.init(javax.crypto.Cipher.DECRYPT_MODE, this.secret,
+          new GCMParameterSpec(Cipher.AEAD_TAG_BITS, buffer, offset, Cipher.AEAD_NONCE_BYTES));
+      if (associatedData != null) {
+        cipher.updateAAD(associatedData);
+      }
+      return cipher.doFinal(buffer, offset + Cipher.AEAD_NONCE_BYTES, length - Cipher.AEAD_NONCE_BYTES, buffer, offset);
+    }
+    catch (InvalidKeyException |InvalidAlgorithmParameterException |IllegalBlockSizeException |BadPaddingException |ShortBufferException e) {
+      throw new CipherException(Cipher.PREPEND_DECRYPT + e.getMessage());
+    }
+  }
+
+  // #######################################################
+  // # Key utilities
+  // #######################################################
+
+  /**
+   * @return KEY_CHECK_BYTES long key-check value of this
+   *         engine's key (see Cipher.keyCheckValue)
+   */
+  public byte[] keyCheckBytes() {
+    checkNotDestroyed();
+    try {
+      Mac mac = Mac.getInstance(Cipher.KEY_CHECK_TYPE);
+      mac.init(new SecretKeySpec(this.keyBytes, Cipher.KEY_CHECK_TYPE));
+      return Arrays.copyOf(mac.doFinal(Cipher.KEY_CHECK_DATA), Cipher.KEY_CHECK_BYTES);
+    }
+    catch (NoSuchAlgorithmException |InvalidKeyException e) {
+      throw new CipherException(e.getMessage());
+    }
+  }
+
+  /**
+   * Wipes the engine's copy of the key. Any later
+   * encryption or decryption throws a CipherException.
+   * Copies made by the JCE provider while initialising a
+   * cipher are outside the engine's control.
+   */
+  public void destroy() {
+    this.destroyed = true;
+    this.secret.destroy();
+  }
+
+  /**
+   * @return True once destroy has been called
+   */
+  public boolean isDestroyed() {
+    return this.destroyed;
+  }
+
+  private void checkNotDestroyed() {
+    if (this.destroyed) {
+      throw new CipherException("Key has been destroyed");
+    }
+  }
+
+  // #######################################################
+  // # Key material
+  // #######################################################
+
+  /**
+   * AES key backed by the engine's own array, so that
+   * destroying it wipes the only copy the engine holds.
+   * SecretKeySpec keeps a private copy that can't be
+   * cleared.
+   */
+  private static final class EngineKey implements SecretKey {
+
+    private static final long serialVersionUID = 1L;
+
+    private final byte[] key;
+
+    private EngineKey(byte[] key) {
+      this.key = key;
+    }
+
+    @Override
+    public String getAlgorithm() {
+      return Cipher.KEY_SPEC_TYPE;
+    }
+
+    @Override
+    public String getFormat() {
+      return "RAW";
+    }
+
+    @Override
+    public byte[] getEncoded() {
+      return this.key.clone();
+    }
+
+    @Override
+    public void destroy() {
+      Arrays.fill(this.key, (byte) 0);
+    }
+
+  }
+
+}
@@ -0,0 +1,200 @@
+
+import java.io.BufferedReader;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * CommonPasswordCorpus class.
+ *
+ * <p>
+ * A memory-mapped, sorted list of common password fingerprints. Each entry is
+ * the first 8 bytes of the SHA-256 hash of a case-folded password, stored as
+ * a big-endian long. Entries are sorted and de-duplicated, so a lookup is a
+ * binary search over the mapped file and no entries are ever copied onto the
+ * heap. Run the main method to build a corpus from a plain-text list with one
+ * password per line.
+ * </p>
+ *
+ * <p>
+ * File layout: a 4 byte magic number, a 4 byte version, an 8 byte entry count
+ * and then the sorted entries.
+ * </p>
+ *
+ * @author Luke Halpenny & Andrej Gorochov
+ * @version 1.0
+ */
+public class CommonPasswordCorpus {
+
+    public static final int MAGIC = 0x53415043; // "SAPC"
+    public static final int VERSION = 1;
+    public static final int HEADER_BYTES = 16;
+    public static final int ENTRY_BYTES = 8;
+    private static final String FINGERPRINT_ALGORITHM = "SHA-256";
+    // Entries per mapped segment, keeps every mapping under the 2GB limit.
+    private static final int SEGMENT_ENTRIES = 1 << 27;
+
+    private final MappedByteBuffer[] segments;
+    private final long size;
+
+    /**
+     * Maps the specified corpus file into memory.
+     *
+     * @param file corpus file built by the main method.
+     * @throws IOException if the file can't be read or isn't a corpus file.
+     */
+    public CommonPasswordCorpus(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+                FileChannel channel = raf.getChannel()) {
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+            if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+                throw new IOException("Not a common password corpus: " + file);
+            }
+            this.size = header.getLong();
+            if (this.size < 0 || HEADER_BYTES + this.size * ENTRY_BYTES > channel.size()) {
+                throw new IOException("Truncated common password corpus: " + file);
+            }
+            int segmentCount = (int) ((this.size + SEGMENT_ENTRIES - 1) / SEGMENT_ENTRIES);
+            this.segments = new MappedByteBuffer[segmentCount];
+            for (int i = 0; i < segmentCount; i++) {
+                long first = (long) i * SEGMENT_ENTRIES;
+                long entries = Math.min(SEGMENT_ENTRIES, this.size - first);
+                this.segments[i] = channel.map(FileChannel.MapMode.READ_ONLY,
+                        HEADER_BYTES + first * ENTRY_BYTES, entries * ENTRY_BYTES);
+            }
+        }
+    }
+
+    /**
+     * Gets the number of fingerprints in the corpus.
+     *
+     * @return number of entries.
+     */
+    public long size() {
+        return this.size;
+    }
+
+    /**
+     * Checks whether the password (ignoring case) is in the corpus. Only
+     * absolute reads are made on the mapping, so concurrent lookups are safe.
+     *
+     * @param password password to look up.
+     * @return true if the password's fingerprint is in the corpus.
+     */
+    public boolean contains(String password) {
+        long target = fingerprint(password);
+        long low = 0;
+        long high = this.size - 1;
+        while (low <= high) {
+            long mid = (low + high) >>> 1;
+            long value = entryAt(mid);
+            if (value < target) {
+                low = mid + 1;
+            } else if (value > target) {
+                high = mid - 1;
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reads the entry at the specified index.
+     *
+     * @param index index of the entry.
+     * @return the fingerprint stored at that index.
+     */
+    private long entryAt(long index) {
+        MappedByteBuffer segment = this.segments[(int) (index / SEGMENT_ENTRIES)];
+        return segment.getLong((int) (index % SEGMENT_ENTRIES) * ENTRY_BYTES);
+    }
+
+    /**
+     * Calculates the corpus fingerprint of a password: the first 8 bytes of
+     * the SHA-256 hash of its case-folded UTF-8 form.
+     *
+     * @param password password to fingerprint.
+     * @return 64 bit fingerprint.
+     */
+    public static long fingerprint(String password) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance(FINGERPRINT_ALGORITHM);
+            byte[] hash = digest.digest(Utilities.foldCase(password).getBytes(StandardCharsets.UTF_8));
+            return ByteBuffer.wrap(hash).getLong();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(FINGERPRINT_ALGORITHM + " is not available", e);
+        }
+    }
+
+    /**
+     * Builds a corpus file from a plain-text list with one password per line.
+     *
+     * @param input plain-text password list.
+     * @param output corpus file to write.
+     * @return number of distinct entries written.
+     * @throws IOException if either file can't be read or written.
+     */
+    public static long build(File input, File output) throws IOException {
+        long[] entries = new long[1024];
+        int count = 0;
+        try (BufferedReader reader = new BufferedReader(new FileReader(input, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                if (count == entries.length) {
+                    if (count == Integer.MAX_VALUE - 8) {
+                        throw new IOException("Password list is too large to build in one pass");
+                    }
+                    entries = Arrays.copyOf(entries, (int) Math.min(Integer.MAX_VALUE - 8L, count * 2L));
+                }
+                entries[count++] = fingerprint(line);
+            }
+        }
+        Arrays.sort(entries, 0, count);
+        int distinct = 0;
+        for (int i = 0; i < count; i++) {
+            if (distinct == 0 || entries[distinct - 1] != entries[i]) {
+                entries[distinct++] = entries[i];
+            }
+        }
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(output), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(distinct);
+            for (int i = 0; i < distinct; i++) {
+                out.writeLong(entries[i]);
+            }
+        }
+        return distinct;
+    }
+
+    /**
+     * Build tool entry point. Converts a plain-text password list into a
+     * corpus file.
+     *
+     * @param args input list path and output corpus path.
+     * @throws IOException if either file can't be read or written.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: java CommonPasswordCorpus <passwords.txt> <corpus.bin>");
+            System.exit(1);
+        }
+        long written = build(new File(args[0]), new File(args[1]));
+        System.out.println("Wrote " + written + " entries to " + args[1]);
+    }
+}
@@ -0,0 +1,242 @@
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * CommonPasswordFilter class.
+ *
+ * <p>
+ * A serialized Bloom filter over the case-folded common password list. It
+ * answers "definitely not common" without touching the exact lookup, at the
+ * cost of a configurable false-positive rate. Run the main method to build a
+ * filter from a plain-text list with one password per line.
+ * </p>
+ *
+ * <p>
+ * File layout: a 4 byte magic number, a 4 byte version, a 4 byte hash count,
+ * an 8 byte bit count and then the bit array as big-endian longs.
+ * </p>
+ *
+ * @author Luke Halpenny & Andrej Gorochov
+ * @version 1.0
+ */
+public class CommonPasswordFilter {
+
+    public static final int MAGIC = 0x53415042; // "SAPB"
+    public static final int VERSION = 1;
+    public static final double DEFAULT_FALSE_POSITIVE_RATE = 0.01;
+    private static final String HASH_ALGORITHM = "SHA-256";
+    private static final int MAX_HASHES = 32;
+
+    private final long[] bits;
+    private final long bitCount;
+    private final int hashCount;
+
+    /**
+     * Creates an empty filter.
+     *
+     * @param bitCount number of bits in the filter.
+     * @param hashCount number of bit positions set per entry.
+     */
+    public CommonPasswordFilter(long bitCount, int hashCount) {
+        if (bitCount < 1 || bitCount > (long) Integer.MAX_VALUE * Long.SIZE) {
+            throw new IllegalArgumentException("Bit count out of range.");
+        }
+        if (hashCount < 1 || hashCount > MAX_HASHES) {
+            throw new IllegalArgumentException("Hash count must be between 1 and " + MAX_HASHES + ".");
+        }
+        this.bitCount = bitCount;
+        this.hashCount = hashCount;
+        this.bits = new long[(int) ((bitCount + Long.SIZE - 1) / Long.SIZE)];
+    }
+
+    /**
+     * Creates an empty filter sized for the expected number of entries at the
+     * specified false-positive rate.
+     *
+     * @param expectedEntries number of entries that will be added.
+     * @param falsePositiveRate wanted false-positive rate, between 0 and 1.
+     * @return an empty, optimally sized filter.
+     */
+    public static CommonPasswordFilter withFalsePositiveRate(long expectedEntries, double falsePositiveRate) {
+        if (falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+            throw new IllegalArgumentException("False-positive rate must be between 0 and 1.");
+        }
+        long entries = Math.max(1, expectedEntries);
+        long bitCount = (long) Math.ceil(-entries * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+        return withBitCount(entries, bitCount);
+    }
+
+    /**
+     * Creates an empty filter of the specified size, using the number of
+     * hashes that gives the lowest false-positive rate for that size.
+     *
+     * @param expectedEntries number of entries that will be added.
+     * @param bitCount number of bits in the filter.
+     * @return an empty filter.
+     */
+    public static CommonPasswordFilter withBitCount(long expectedEntries, long bitCount) {
+        long entries = Math.max(1, expectedEntries);
+        int hashCount = (int) Math.round((double) bitCount / entries * Math.log(2));
+        return new CommonPasswordFilter(bitCount, Math.max(1, Math.min(MAX_HASHES, hashCount)));
+    }
+
+    /**
+     * Adds a password (ignoring case) to the filter.
+     *
+     * @param password password to add.
+     */
+    public void add(String password) {
+        long[] hashes = hash(password);
+        for (int i = 0; i < this.hashCount; i++) {
+            long bit = bitIndex(hashes, i);
+            this.bits[(int) (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    /**
+     * Checks whether the password (ignoring case) may have been added. A false
+     * result means the password is definitely not in the filter.
+     *
+     * @param password password to check.
+     * @return false if the password was definitely never added.
+     */
+    public boolean mightContain(String password) {
+        long[] hashes = hash(password);
+        for (int i = 0; i < this.hashCount; i++) {
+            long bit = bitIndex(hashes, i);
+            if ((this.bits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Gets the i-th bit position of an entry by double hashing.
+     *
+     * @param hashes the two base hashes of the entry.
+     * @param i index of the hash function.
+     * @return bit position within the filter.
+     */
+    private long bitIndex(long[] hashes, int i) {
+        return Long.remainderUnsigned(hashes[0] + i * hashes[1], this.bitCount);
+    }
+
+    /**
+     * Hashes the case-folded password into two 64 bit values.
+     *
+     * @param password password to hash.
+     * @return two independent 64 bit hashes.
+     */
+    private static long[] hash(String password) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance(HASH_ALGORITHM);
+            ByteBuffer hash = ByteBuffer.wrap(digest.digest(Utilities.foldCase(password).getBytes(StandardCharsets.UTF_8)));
+            return new long[]{hash.getLong(), hash.getLong() | 1};
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(HASH_ALGORITHM + " is not available", e);
+        }
+    }
+
+    /**
+     * Reads a filter written by write.
+     *
+     * @param file filter file.
+     * @return the loaded filter.
+     * @throws IOException if the file can't be read or isn't a filter file.
+     */
+    public static CommonPasswordFilter read(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a common password filter: " + file);
+            }
+            int hashCount = in.readInt();
+            long bitCount = in.readLong();
+            CommonPasswordFilter filter;
+            try {
+                filter = new CommonPasswordFilter(bitCount, hashCount);
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Corrupt common password filter: " + file);
+            }
+            for (int i = 0; i < filter.bits.length; i++) {
+                filter.bits[i] = in.readLong();
+            }
+            return filter;
+        }
+    }
+
+    /**
+     * Writes the filter to a file.
+     *
+     * @param file file to write to.
+     * @throws IOException if the file can't be written.
+     */
+    public void write(File file) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(this.hashCount);
+            out.writeLong(this.bitCount);
+            for (long word : this.bits) {
+                out.writeLong(word);
+            }
+        }
+    }
+
+    /**
+     * Build tool entry point. Builds a filter from a plain-text password list.
+     * The size is taken from the bit count if given, otherwise from the
+     * false-positive rate (1% by default).
+     *
+     * @param args input list path, output filter path, and optionally the
+     *             false-positive rate and bit count.
+     * @throws IOException if either file can't be read or written.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2 || args.length > 4) {
+            System.err.println("Usage: java CommonPasswordFilter <passwords.txt> <filter.bloom> [falsePositiveRate] [bits]");
+            System.exit(1);
+        }
+        File input = new File(args[0]);
+        long entries = 0;
+        try (BufferedReader reader = new BufferedReader(new FileReader(input, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.isEmpty()) {
+                    entries++;
+                }
+            }
+        }
+        CommonPasswordFilter filter;
+        if (args.length == 4) {
+            filter = withBitCount(entries, Long.parseLong(args[3]));
+        } else {
+            double rate = args.length == 3 ? Double.parseDouble(args[2]) : DEFAULT_FALSE_POSITIVE_RATE;
+            filter = withFalsePositiveRate(entries, rate);
+        }
+        try (BufferedReader reader = new BufferedReader(new FileReader(input, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.isEmpty()) {
+                    filter.add(line);
+                }
+            }
+        }
+        filter.write(new File(args[1]));
+        System.out.println("Wrote " + filter.bitCount + " bit filter with " + filter.hashCount
+                + " hashes for " + entries + " entries to " + args[1]);
+    }
+}
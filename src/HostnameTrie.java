@@ -0,0 +1,163 @@
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * HostnameTrie class.
+ *
+ * <p>
+ * Index of the entries' website hostnames by their labels in reverse order,
+ * so login.example.com is stored under com, then example, then login. All
+ * entries on a domain or any of its subdomains are then found by walking the
+ * subtree of the domain's node, without looking at hostnames elsewhere in
+ * the tree.
+ * </p>
+ *
+ * @author Luke Halpenny & Andrej Gorochov
+ * @version 1.0
+ */
+public final class HostnameTrie {
+
+    private static final int[] NO_IDS = new int[0];
+
+    private final IntObjectMap<String> hosts;
+    private final Node root;
+
+    /**
+     * Creates an empty trie.
+     */
+    public HostnameTrie() {
+        this.hosts = new IntObjectMap<>();
+        this.root = new Node();
+    }
+
+    /**
+     * Indexes the hostname of an entry, replacing its previous hostname.
+     *
+     * @param id id of the entry.
+     * @param host lowercase hostname, or null to only remove the entry.
+     */
+    public void put(int id, String host) {
+        remove(id);
+        if (host == null) {
+            return;
+        }
+        this.hosts.put(id, host);
+        String[] labels = host.split("\\.");
+        Node node = this.root;
+        for (int i = labels.length - 1; i >= 0; i--) {
+            if (node.children == null) {
+                node.children = new HashMap<>();
+            }
+            Node child = node.children.get(labels[i]);
+            if (child == null) {
+                child = new Node();
+                node.children.put(labels[i], child);
+            }
+            node = child;
+        }
+        node.add(id);
+    }
+
+    /**
+     * Removes an entry from the trie, along with nodes left without entries.
+     *
+     * @param id id of the entry.
+     */
+    public void remove(int id) {
+        String host = this.hosts.remove(id);
+        if (host == null) {
+            return;
+        }
+        String[] labels = host.split("\\.");
+        Node[] path = new Node[labels.length + 1];
+        path[0] = this.root;
+        for (int i = 0; i < labels.length; i++) {
+            path[i + 1] = path[i].children.get(labels[labels.length - 1 - i]);
+        }
+        path[labels.length].remove(id);
+        for (int i = labels.length; i > 0 && path[i].isEmpty(); i--) {
+            path[i - 1].children.remove(labels[labels.length - i]);
+        }
+    }
+
+    /**
+     * Finds the entries on a domain or any of its subdomains.
+     *
+     * @param domain lowercase domain, e.g. example.com.
+     * @return ids of the entries, in no particular order.
+     */
+    public int[] findUnder(String domain) {
+        String[] labels = domain.split("\\.");
+        Node node = this.root;
+        for (int i = labels.length - 1; i >= 0 && node != null; i--) {
+            node = node.children == null ? null : node.children.get(labels[i]);
+        }
+        if (node == null) {
+            return NO_IDS;
+        }
+        int[] ids = new int[4];
+        int count = 0;
+        ArrayDeque<Node> pending = new ArrayDeque<>();
+        pending.push(node);
+        while (!pending.isEmpty()) {
+            Node next = pending.pop();
+            if (count + next.size > ids.length) {
+                ids = Arrays.copyOf(ids, Math.max(ids.length * 2, count + next.size));
+            }
+            System.arraycopy(next.ids, 0, ids, count, next.size);
+            count += next.size;
+            if (next.children != null) {
+                for (Node child : next.children.values()) {
+                    pending.push(child);
+                }
+            }
+        }
+        return Arrays.copyOf(ids, count);
+    }
+
+    /**
+     * A label with the ids of the entries whose hostname ends here, and the
+     * labels that can come before it.
+     */
+    private static final class Node {
+
+        HashMap<String, Node> children;
+        int[] ids = NO_IDS;
+        int size;
+
+        /**
+         * @return true if no entry ends here or below.
+         */
+        boolean isEmpty() {
+            return this.size == 0 && (this.children == null || this.children.isEmpty());
+        }
+
+        /**
+         * Lists an entry under the node.
+         *
+         * @param id id of the entry.
+         */
+        void add(int id) {
+            if (this.size == this.ids.length) {
+                this.ids = Arrays.copyOf(this.ids, Math.max(1, this.size * 2));
+            }
+            this.ids[this.size++] = id;
+        }
+
+        /**
+         * Removes an entry from the node.
+         *
+         * @param id id of the entry.
+         */
+        void remove(int id) {
+            for (int i = 0; i < this.size; i++) {
+                if (this.ids[i] == id) {
+                    this.ids[i] = this.ids[--this.size];
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,239 @@
+
+import java.util.Arrays;
+
+/**
+ * IntObjectMap class.
+ *
+ * <p>
+ * Hash map from int keys to objects that stores the keys unboxed. Collisions
+ * are resolved by linear probing in a power of two table that is kept at most
+ * half full, so lookups, insertions and removals take a few probes on
+ * average. Removed keys leave a marker behind until the table is rebuilt, so
+ * probe chains stay intact. Null values are not allowed; get returns null for
+ * a missing key.
+ * </p>
+ *
+ * @param <V> type of the values.
+ * @author Luke Halpenny & Andrej Gorochov
+ * @version 1.0
+ */
+public final class IntObjectMap<V> {
+
+    private static final int MIN_CAPACITY = 16;
+    private static final Object REMOVED = new Object();
+
+    private int[] keys;
+    private Object[] values;
+    private int size;
+    private int used;
+
+    /**
+     * Creates an empty map.
+     */
+    public IntObjectMap() {
+        this(MIN_CAPACITY / 2);
+    }
+
+    /**
+     * Creates an empty map that holds the expected number of keys without
+     * growing.
+     *
+     * @param expectedSize expected number of keys.
+     */
+    public IntObjectMap(int expectedSize) {
+        allocate(capacityFor(expectedSize));
+    }
+
+    /**
+     * @return number of keys in the map.
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * @return true if the map has no keys.
+     */
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    /**
+     * Gets the value of a key.
+     *
+     * @param key key to look up.
+     * @return the value, or null if the key isn't in the map.
+     */
+    @SuppressWarnings("unchecked")
+    public V get(int key) {
+        int mask = this.keys.length - 1;
+        for (int i = mix(key) & mask; this.values[i] != null; i = (i + 1) & mask) {
+            if (this.keys[i] == key && this.values[i] != REMOVED) {
+                return (V) this.values[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param key key to look up.
+     * @return true if the key is in the map.
+     */
+    public boolean containsKey(int key) {
+        return get(key) != null;
+    }
+
+    /**
+     * Maps a key to a value, replacing any previous value.
+     *
+     * @param key key to map.
+     * @param value value to map it to.
+     * @return the previous value, or null if there was none.
+     * @throws IllegalArgumentException if the value is null.
+     */
+    @SuppressWarnings("unchecked")
+    public V put(int key, V value) {
+        if (value == null) {
+            throw new IllegalArgumentException("Value can not be null.");
+        }
+        int mask = this.keys.length - 1;
+        int free = -1;
+        int i = mix(key) & mask;
+        for (; this.values[i] != null; i = (i + 1) & mask) {
+            if (this.values[i] == REMOVED) {
+                if (free < 0) {
+                    free = i;
+                }
+            } else if (this.keys[i] == key) {
+                V previous = (V) this.values[i];
+                this.values[i] = value;
+                return previous;
+            }
+        }
+        if (free >= 0) {
+            i = free;
+        } else {
+            this.used++;
+        }
+        this.keys[i] = key;
+        this.values[i] = value;
+        this.size++;
+        if (this.used * 2 > this.keys.length) {
+            rehash(capacityFor(this.size));
+        }
+        return null;
+    }
+
+    /**
+     * Removes a key.
+     *
+     * @param key key to remove.
+     * @return the removed value, or null if the key wasn't in the map.
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(int key) {
+        int mask = this.keys.length - 1;
+        for (int i = mix(key) & mask; this.values[i] != null; i = (i + 1) & mask) {
+            if (this.keys[i] == key && this.values[i] != REMOVED) {
+                V previous = (V) this.values[i];
+                this.values[i] = REMOVED;
+                this.size--;
+                return previous;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Gets the keys of the map, in no particular order.
+     *
+     * @return a new array of the keys.
+     */
+    public int[] keys() {
+        int[] result = new int[this.size];
+        int count = 0;
+        for (int i = 0; i < this.values.length; i++) {
+            if (this.values[i] != null && this.values[i] != REMOVED) {
+                result[count++] = this.keys[i];
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Removes all keys.
+     */
+    public void clear() {
+        Arrays.fill(this.values, null);
+        this.size = 0;
+        this.used = 0;
+    }
+
+    /**
+     * Rebuilds the table with a new capacity, dropping removal markers.
+     *
+     * @param capacity new capacity, a power of two.
+     */
+    private void rehash(int capacity) {
+        int[] oldKeys = this.keys;
+        Object[] oldValues = this.values;
+        allocate(capacity);
+        int mask = capacity - 1;
+        for (int j = 0; j < oldValues.length; j++) {
+            if (oldValues[j] != null && oldValues[j] != REMOVED) {
+                int i = mix(oldKeys[j]) & mask;
+                while (this.values[i] != null) {
+                    i = (i + 1) & mask;
+                }
+                this.keys[i] = oldKeys[j];
+                this.values[i] = oldValues[j];
+                this.size++;
+                this.used++;
+            }
+        }
+    }
+
+    /**
+     * Replaces the table with an empty one.
+     *
+     * @param capacity capacity of the new table, a power of two.
+     */
+    private void allocate(int capacity) {
+        this.keys = new int[capacity];
+        this.values = new Object[capacity];
+        this.size = 0;
+        this.used = 0;
+    }
+
+    /**
+     * Gets the smallest table capacity that keeps the given number of keys
+     * at most a quarter full, so the table doesn't grow again right away.
+     *
+     * @param expectedSize number of keys.
+     * @return a power of two capacity.
+     */
+    private static int capacityFor(int expectedSize) {
+        long wanted = Math.max(MIN_CAPACITY, (long) expectedSize * 4);
+        if (wanted > 1 << 30) {
+            throw new IllegalStateException("Map is too large.");
+        }
+        return Integer.highestOneBit((int) wanted - 1) << 1;
+    }
+
+    /**
+     * Spreads the bits of a key so that sequential keys don't fill
+     * neighbouring slots (the finaliser of MurmurHash3).
+     *
+     * @param key key to hash.
+     * @return mixed hash.
+     */
+    static int mix(int key) {
+        int h = key;
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+}
@@ -0,0 +1,52 @@
+
+import java.util.Properties;
+
+/**
+ * KeyDerivationFunction class.
+ *
+ * <p>
+ * Password-based key derivation function used to hash master passwords (see
+ * Password.generateHash). Implementations hold their own cost parameters and
+ * store them in the user record, so a hash can be verified with the exact
+ * parameters it was made with.
+ * </p>
+ *
+ * @author Luke Halpenny & Andrej Gorochov
+ * @version 1.0
+ */
+public interface KeyDerivationFunction {
+
+    /**
+     * Property holding the name of the function in the user record.
+     */
+    String KEY_ALGORITHM = "kdfAlgorithm";
+
+    /**
+     * @return name of the function, as stored in the user record.
+     */
+    String getAlgorithm();
+
+    /**
+     * Derives a key from a password.
+     *
+     * @param password the password.
+     * @param salt the salt.
+     * @param keyBytes length of the key in bytes.
+     * @return the derived key.
+     * @throws PasswordException if the function can't be run.
+     */
+    byte[] derive(char[] password, byte[] salt, int keyBytes);
+
+    /**
+     * @return true if the cost parameters are weaker than Password's cost
+     *         policy allows.
+     */
+    boolean isBelowPolicy();
+
+    /**
+     * Stores the name and cost parameters of the function.
+     *
+     * @param properties properties to store them in.
+     */
+    void writeParameters(Properties properties);
+}
@@ -0,0 +1,164 @@
+
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Base64;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * KeySchedule class.
+ *
+ * <p>
+ * Keys derived from the master password. The expensive password hash (see
+ * Password.generateHash) is run once, and its output is expanded with
+ * HKDF-SHA512 (RFC 5869) into two independent subkeys: a verifier that is
+ * stored to check the master password, and the key-encryption key that wraps
+ * the vault key (see UserRecord). Knowing the verifier reveals nothing about
+ * the key-encryption key, so a single derivation serves both purposes without
+ * lowering the work factor.
+ * </p>
+ *
+ * @author Luke Halpenny & Andrej Gorochov
+ * @version 1.0
+ */
+public final class KeySchedule {
+
+    public static final String SCHEME = "pbkdf2-hkdf-sha512";
+    private static final String MAC_TYPE = "HmacSHA512";
+    private static final int HASH_BYTES = 64;
+    private static final int SUBKEY_BYTES = 32;
+    private static final byte[] INFO_VERIFIER = "SAPM master password verifier".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] INFO_KEY_ENCRYPTION = "SAPM key-encryption key".getBytes(StandardCharsets.UTF_8);
+
+    private final byte[] verifier;
+    private final byte[] keyEncryptionKey;
+
+    /**
+     * Expands the subkeys from the output of the password hash.
+     *
+     * @param rootKey output of the password hash.
+     */
+    private KeySchedule(byte[] rootKey) {
+        byte[] prk = extract(new byte[HASH_BYTES], rootKey);
+        try {
+            this.verifier = expand(prk, INFO_VERIFIER, SUBKEY_BYTES);
+            this.keyEncryptionKey = expand(prk, INFO_KEY_ENCRYPTION, SUBKEY_BYTES);
+        } finally {
+            Arrays.fill(prk, (byte) 0);
+        }
+    }
+
+    /**
+     * Runs the password hash once and derives the subkeys from it.
+     *
+     * @param masterPassword the master password with its salt and hashing cost.
+     * @return the derived keys.
+     * @throws PasswordException if the hash can't be run.
+     */
+    public static KeySchedule derive(Password masterPassword) {
+        byte[] rootKey = Base64.getDecoder().decode(masterPassword.generateHash());
+        try {
+            return new KeySchedule(rootKey);
+        } finally {
+            Arrays.fill(rootKey, (byte) 0);
+        }
+    }
+
+    /**
+     * Checks the verifier against a stored one in constant time.
+     *
+     * @param storedVerifier base64 verifier to compare with.
+     * @return true if they match.
+     */
+    public boolean matchesVerifier(String storedVerifier) {
+        byte[] stored;
+        try {
+            stored = Base64.getDecoder().decode(storedVerifier);
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+        return MessageDigest.isEqual(this.verifier, stored);
+    }
+
+    /**
+     * @return base64 verifier of the master password.
+     */
+    public String getVerifier() {
+        return Base64.getEncoder().encodeToString(this.verifier);
+    }
+
+    /**
+     * @return base64 key-encryption key.
+     */
+    public String getKeyEncryptionKey() {
+        return Base64.getEncoder().encodeToString(this.keyEncryptionKey);
+    }
+
+    /**
+     * Wipes the derived keys.
+     */
+    public void destroy() {
+        Arrays.fill(this.verifier, (byte) 0);
+        Arrays.fill(this.keyEncryptionKey, (byte) 0);
+    }
+
+    /**
+     * HKDF-Extract: condenses input key material into a pseudorandom key.
+     *
+     * @param salt HKDF salt.
+     * @param inputKey input key material.
+     * @return HASH_BYTES long pseudorandom key.
+     */
+    static byte[] extract(byte[] salt, byte[] inputKey) {
+        return newMac(salt).doFinal(inputKey);
+    }
+
+    /**
+     * HKDF-Expand: expands a pseudorandom key into output key material bound
+     * to the info string.
+     *
+     * @param prk pseudorandom key from extract.
+     * @param info context the output is bound to.
+     * @param length number of bytes to output, at most 255 * HASH_BYTES.
+     * @return output key material.
+     */
+    static byte[] expand(byte[] prk, byte[] info, int length) {
+        if (length < 0 || length > 255 * HASH_BYTES) {
+            throw new IllegalArgumentException("Bad HKDF output length " + length);
+        }
+        Mac mac = newMac(prk);
+        byte[] output = new byte[length];
+        byte[] block = new byte[0];
+        int written = 0;
+        for (int counter = 1; written < length; counter++) {
+            mac.update(block);
+            mac.update(info);
+            mac.update((byte) counter);
+            block = mac.doFinal();
+            int count = Math.min(block.length, length - written);
+            System.arraycopy(block, 0, output, written, count);
+            written += count;
+        }
+        Arrays.fill(block, (byte) 0);
+        return output;
+    }
+
+    /**
+     * Creates an HMAC-SHA512 instance keyed with the given bytes.
+     *
+     * @param key MAC key.
+     * @return initialised MAC.
+     */
+    private static Mac newMac(byte[] key) {
+        try {
+            Mac mac = Mac.getInstance(MAC_TYPE);
+            mac.init(new SecretKeySpec(key, MAC_TYPE));
+            return mac;
+        } catch (NoSuchAlgorithmException | InvalidKeyException e) {
+            throw new CipherException(e.getMessage());
+        }
+    }
+}
@@ -1,10 +1,7 @@
 
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.PrintWriter;
-import java.util.Scanner;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -27,13 +24,12 @@ public class Login {
     public static final String ERR_WRITE = "Could not write to user file!\n";
     public static final String ERR_COMMON_FILE_MISSING = "Could not check against list of common passwords.\n";
     public static final String INCORRECT_PASSWORD = "Invalid password! Try again in %d seconds\n";
+    public static final String ERR_VAULT_KEY = "Could not unlock the password store key.\n";
     public static final String FILE_PATH = "user.txt";
 
     private Terminal terminal;
     private int numAttempts;
-    private String masterHash;
-    private String masterSalt;
-    private String decryptSalt;
+    private UserRecord user;
 
     /**
      * Login class for getting the users master password and ensuring it is correct
@@ -42,20 +38,12 @@ public class Login {
     public Login(Terminal terminal) {
         this.terminal = terminal;
         this.numAttempts = 0;
-        this.masterSalt = null;
-        this.masterHash = null;
-        try (Scanner inFile = new Scanner(new File(FILE_PATH))) {
-            if (inFile.hasNextLine()) {
-                this.masterSalt = inFile.nextLine();
-            }
-            if (inFile.hasNextLine()) {
-                this.masterHash = inFile.nextLine();
-            }
-            if (inFile.hasNextLine()) {
-                this.decryptSalt = inFile.nextLine();
-            }
+        try {
+            this.user = UserRecord.read(new File(FILE_PATH));
         } catch (FileNotFoundException e) {
             this.createNewUser();
+        } catch (IOException e) {
+            this.user = new UserRecord();
         }
     }
 
@@ -64,7 +52,7 @@ public class Login {
      * @return the decryption key for the password store.
      */
     public String login() {
-        if (this.masterHash == null || this.masterSalt == null || this.decryptSalt == null) {
+        if (!this.user.isComplete()) {
             // Couldn't read user file
             this.terminal.warn(WARN_NO_USER_DATA);
             if (Utilities.getYesNoAnswer(this.terminal, "Yes/No >> ")) {
@@ -85,12 +73,16 @@ public class Login {
                 return null;
             }
             try {
-                Password pass = new Password(masterPassword, this.masterSalt);
-                String key = pass.generateHash();
-                if (key.equals(this.masterHash)) {
+                String keyEncryptionKey = this.user.unlock(masterPassword);
+                if (keyEncryptionKey != null) {
                     loggedIn = true;
-                    pass = new Password(masterPassword, this.decryptSalt);
-                    return pass.generateHash();
+                    String vaultKey = this.unlockVaultKey(keyEncryptionKey);
+                    if (vaultKey != null && this.user.needsRehash()) {
+                        // Older or cheaply hashed user files are rehashed at the calibrated cost
+                        this.user.setMasterPassword(masterPassword, vaultKey);
+                        this.writeToUserFile();
+                    }
+                    return vaultKey;
                 } else {
                     this.loginWait();
                 }
@@ -101,6 +93,26 @@ public class Login {
         return null;
     }
 
+    /**
+     * Unwraps the password store key with the key derived from the master
+     * password. User files from before the key was wrapped have the password
+     * store encrypted with the derived key itself, so that key is returned as
+     * the password store key, to be wrapped when the user file is migrated.
+     * @param keyEncryptionKey key derived from the master password.
+     * @return the password store key, or null if it couldn't be unwrapped.
+     */
+    private String unlockVaultKey(String keyEncryptionKey) {
+        if (!this.user.hasWrappedKey()) {
+            return keyEncryptionKey;
+        }
+        try {
+            return this.user.unwrapKey(keyEncryptionKey);
+        } catch (CipherException | IllegalArgumentException e) {
+            this.terminal.error(ERR_VAULT_KEY);
+            return null;
+        }
+    }
+
     /**
      * Exponential wait before trying again
      */
@@ -126,7 +138,7 @@ public class Login {
      * Creates a new user and stores it in file user.txt
      */
     private void createNewUser() {
-        this.masterSalt = Password.generateRandomSalt();
+        this.user = new UserRecord();
         this.terminal.info(Terminal.COLOR_YELLOW + "Please enter a master password." + Terminal.COLOR_RESET +
                 " This will be used to encrypt all of your passwords.\n" +
                 Terminal.COLOR_RED + "Please use a strong password that you have not used on any other sites.\n" +
@@ -150,9 +162,7 @@ public class Login {
                 this.terminal.warn(e.getMessage() + "\n");
             }
         }
-        Password pass = new Password(masterPassword, this.masterSalt);
-        this.masterHash = pass.generateHash();
-        this.decryptSalt = Password.generateRandomSalt();
+        this.user.setMasterPassword(masterPassword, Cipher.generateKey());
         this.writeToUserFile();
     }
 
@@ -160,42 +170,22 @@ public class Login {
      * Writes user details to user.txt.
      */
     private void writeToUserFile() {
-        try (
-                FileWriter fileWriter = new FileWriter(FILE_PATH);
-                PrintWriter printWriter = new PrintWriter(fileWriter)) {
-
-            printWriter.println(this.masterSalt);
-            printWriter.println(this.masterHash);
-            printWriter.println(this.decryptSalt);
-        } catch (IOException e) {
-            this.terminal.error(ERR_WRITE);
-            this.terminal.error(ERR_EXIT);
-            System.exit(1);
-        }
-
+        writeToUserFile(this.terminal, this.user);
     }
 
     /**
      * Writes user details to user.txt.
      * @param terminal Terminal for printing errors
-     * @param masterSalt the user password login salt
-     * @param masterHash the user password login hash
-     * @param decryptSalt the user password decryption salt
+     * @param user the user record to write
      */
-    public static void writeToUserFile(Terminal terminal, String masterSalt, String masterHash, String decryptSalt) {
-        try (
-                FileWriter fileWriter = new FileWriter(FILE_PATH);
-                PrintWriter printWriter = new PrintWriter(fileWriter)) {
-
-            printWriter.println(masterSalt);
-            printWriter.println(masterHash);
-            printWriter.println(decryptSalt);
+    public static void writeToUserFile(Terminal terminal, UserRecord user) {
+        try {
+            user.write(new File(FILE_PATH));
         } catch (IOException e) {
             terminal.error(ERR_WRITE);
             terminal.error(ERR_EXIT);
             System.exit(1);
         }
-
     }
 
 }
@@ -1,14 +1,24 @@
 /**
  * Main class.
  *
- * <p>Description here.
+ * <p>Description here. Without arguments the interactive menu is started.
+ * With "agent" as the only argument an Agent is started after logging in;
+ * any other arguments are sent to a running agent as one request (see
+ * AgentClient).
  *
  * @author Luke Halpenny & Andrej Gorochov
  * @version 1.0
  */
 public class Main {
     public static void main(String[] args) {
-        Application app = new Application();
-        app.run();
+        if (args.length == 1 && Agent.AGENT_ARG.equals(args[0])) {
+            Application app = new Application();
+            app.runAgent();
+        } else if (args.length > 0) {
+            System.exit(AgentClient.run(args));
+        } else {
+            Application app = new Application();
+            app.run();
+        }
     }
 }
@@ -1,9 +1,12 @@
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Scanner;
 
 /**
  * Menu class.
@@ -25,6 +28,7 @@ public class Menu {
     private static final String ERR_LOAD_PASSWORDS = "Could not load passwords from file.";
     private static final String ERR_STORE_PASSWORDS = "Could not store passwords in file.";
     private static final String ERR_CMD = "Invalid command entered!";
+    private static final String ERR_DATE = "Invalid date entered!\n";
     private static final String INPUT_PROMPT = "Enter >> ";
     private static final String HELP_TEXT =
             Terminal.COLOR_CYAN + "Super Amazing Password Manager" + Terminal.COLOR_RESET +
@@ -40,6 +44,7 @@ public class Menu {
                     Terminal.COLOR_BLUE + " 3. " + Terminal.COLOR_RESET + "Edit passwords\n" +
                     Terminal.COLOR_BLUE + " 4. " + Terminal.COLOR_RESET + "Remove passwords\n" +
                     Terminal.COLOR_BLUE + " 5. " + Terminal.COLOR_RESET + "Change master password\n" +
+                    Terminal.COLOR_BLUE + " 6. " + Terminal.COLOR_RESET + "Audit passwords\n" +
                     Terminal.COLOR_GREEN + " H. " + Terminal.COLOR_RESET + "Help\n" +
                     Terminal.COLOR_RED + " Q. " + Terminal.COLOR_RESET + "Quit";
     private static final String EDIT_PASSWORDS_MENU_OPTIONS =
@@ -51,14 +56,36 @@ public class Menu {
             Terminal.COLOR_BLUE + " 1. " + Terminal.COLOR_RESET + "View all entries\n" +
                     Terminal.COLOR_BLUE + " 2. " + Terminal.COLOR_RESET + "Search by title\n" +
                     Terminal.COLOR_BLUE + " 3. " + Terminal.COLOR_RESET + "Search by website\n" +
+                    Terminal.COLOR_BLUE + " 4. " + Terminal.COLOR_RESET + "Search allowing typos\n" +
+                    Terminal.COLOR_BLUE + " 5. " + Terminal.COLOR_RESET + "Search by domain\n" +
+                    Terminal.COLOR_BLUE + " 6. " + Terminal.COLOR_RESET + "Advanced search\n" +
+                    Terminal.COLOR_BLUE + " 7. " + Terminal.COLOR_RESET + "Sorted view\n" +
                     Terminal.COLOR_RED + " B. " + Terminal.COLOR_RESET + "Back";
+    private static final String QUERY_HELP =
+            "Combine terms with spaces (all must match), OR, NOT or -, and parentheses:\n" +
+                    "  title:text  website:text  domain:example.com  id=5  id>5\n" +
+                    "  updated<2025-01-01  updated>=2025-01-01  reused:true  text\n" +
+                    "e.g. website:github title:work updated<2025-01-01 reused:true\n";
+    private static final String SORT_OPTIONS =
+            Terminal.COLOR_BLUE + " 1. " + Terminal.COLOR_RESET + "Least recently updated first\n" +
+                    Terminal.COLOR_BLUE + " 2. " + Terminal.COLOR_RESET + "Most recently updated first\n" +
+                    Terminal.COLOR_BLUE + " 3. " + Terminal.COLOR_RESET + "Title A-Z\n" +
+                    Terminal.COLOR_BLUE + " 4. " + Terminal.COLOR_RESET + "Website A-Z\n" +
+                    Terminal.COLOR_BLUE + " 5. " + Terminal.COLOR_RESET + "Most used first\n" +
+                    Terminal.COLOR_BLUE + " 6. " + Terminal.COLOR_RESET + "Not updated since a date\n";
     private static final String GENERATE_PASSWORDS_OPTIONS =
             Terminal.COLOR_BLUE + " 1. " + Terminal.COLOR_RESET + "Generate easy to read password\n" +
                     Terminal.COLOR_BLUE + " 2. " + Terminal.COLOR_RESET + "Generate unrestricted password";
     private static final String DEFAULT_BORDER = "-";
     private static final int DEFAULT_BORDER_LENGTH = 80;
     private static final int MAX_PASSWORD_LENGTH = 2048;
-    private static final String DEFAULT_USER_PASSWORDS_PATH = "passwordStore.txt";
+    private static final int RESULTS_PAGE_SIZE = 20;
+    private static final int ENTRIES_PAGE_SIZE = 20;
+    private static final int ID_COLUMN_WIDTH = 7;
+    private static final int TITLE_COLUMN_WIDTH = 20;
+    private static final int WEBSITE_COLUMN_WIDTH = 30;
+    private static final String PAGER_PROMPT = "[N]ext, [P]revious, page number or [B]ack >> ";
+    public static final String DEFAULT_USER_PASSWORDS_PATH = "passwordStore.txt";
     private static final String DEFAULT_USER_FILEPATH = "user.txt";
     public static final String MENU_TITLE = Terminal.COLOR_CYAN + "SUPER AMAZING PASSWORD MANAGER" + Terminal.COLOR_RESET;
     public static final String MENU_HELP_TITLE = Terminal.COLOR_GREEN + "HELP MENU" + Terminal.COLOR_RESET;
@@ -119,6 +146,10 @@ public class Menu {
                         changeMasterPassword();
                         break;
                     }
+                    case '6': {
+                        auditPasswords();
+                        break;
+                    }
                     case HELP_CHAR: {
                         Utilities.printMenu(terminal, DEFAULT_BORDER, DEFAULT_BORDER_LENGTH, HELP_TEXT, MENU_HELP_TITLE);
                         break;
@@ -143,6 +174,7 @@ public class Menu {
      */
     private void exit() {
         savePasswords();
+        passwords.closeJournal();
         terminal.info("Goodbye!");
         this.running = false;
     }
@@ -255,6 +287,7 @@ public class Menu {
         terminal.info("\n");
         String passwordTitle = getValidTitleFromUser();
         String passwordWebsite = getValidWebsiteFromUser();
+        warnAboutSameDomain(passwordWebsite);
         String password = getValidPasswordFromUser(true);
         if (checkPasswordUsage(password)) {
             passwords.addNewPassword(passwordTitle, passwordWebsite, password);
@@ -335,6 +368,22 @@ public class Menu {
                         searchByWebsite();
                         break;
                     }
+                    case '4': {
+                        searchAllowingTypos();
+                        break;
+                    }
+                    case '5': {
+                        searchByDomain();
+                        break;
+                    }
+                    case '6': {
+                        advancedSearch();
+                        break;
+                    }
+                    case '7': {
+                        sortedView();
+                        break;
+                    }
                     case BACK_CHAR: {
                         runMenu = false;
                         break;
@@ -384,111 +433,355 @@ public class Menu {
     }
 
     /**
-     * Changes the master password of the user.
+     * Changes the master password of the user. Only the password store key
+     * wrapped in the user file is re-encrypted, the password store itself is
+     * left as it is.
      */
     private void changeMasterPassword() {
-        String oldMasterSalt = null;
-        String oldMasterHash = null;
-        try (Scanner inFile = new Scanner(new File(DEFAULT_USER_FILEPATH))) {
-            if (inFile.hasNextLine()) {
-                oldMasterSalt = inFile.nextLine();
-            }
-            if (inFile.hasNextLine()) {
-                oldMasterHash = inFile.nextLine();
-            }
-            if (oldMasterSalt != null && oldMasterHash != null) {
-                terminal.warn("You are about to change your master password used to login into the service\n");
-                terminal.info("Please enter your current master password to proceed.\n");
-                if (new Password(getValidPasswordFromUser(), oldMasterSalt).matchesHash(oldMasterHash)) {
-                    String newMasterSalt = Password.generateRandomSalt();
-                    String newDecryptSalt = Password.generateRandomSalt();
-                    terminal.info("Master password matches! Now please enter a new master password.\n");
-                    String newMasterPassword = getValidPasswordFromUser();
-                    Login.writeToUserFile(terminal, newMasterSalt, new Password(newMasterPassword, newMasterSalt).generateHash(), newDecryptSalt);
-                    this.key = new Password(newMasterPassword, newDecryptSalt).generateHash();
-                    savePasswords();
-                    terminal.info("Master password successfully changed!");
-                } else {
-                    terminal.error("Entered master password does not match!\n");
-                }
-            } else {
-                terminal.error("Stored master salt and/or hash failed to load.");
-            }
+        UserRecord user;
+        try {
+            user = UserRecord.read(new File(DEFAULT_USER_FILEPATH));
         } catch (FileNotFoundException e) {
             terminal.error("User text file was not found! Unable to change master password");
+            return;
+        } catch (IOException e) {
+            terminal.error("Stored master salt and/or hash failed to load.");
+            return;
         }
+        if (user.getMasterSalt() != null && user.getMasterHash() != null) {
+            terminal.warn("You are about to change your master password used to login into the service\n");
+            terminal.info("Please enter your current master password to proceed.\n");
+            if (user.unlock(getValidPasswordFromUser()) != null) {
+                terminal.info("Master password matches! Now please enter a new master password.\n");
+                user.setMasterPassword(getValidPasswordFromUser(), this.key);
+                Login.writeToUserFile(terminal, user);
+                terminal.info("Master password successfully changed!");
+            } else {
+                terminal.error("Entered master password does not match!\n");
+            }
+        } else {
+            terminal.error("Stored master salt and/or hash failed to load.");
+        }
+    }
 
+    /**
+     * Checks every stored entry against the current title, website and
+     * password rules and lists the ones that fail along with the reason.
+     */
+    private void auditPasswords() {
+        ArrayList<StoredPassword> invalid = passwords.auditPasswords();
+        if (invalid.isEmpty()) {
+            terminal.info("All " + passwords.getUserPasswords().size() + " entries passed the audit.\n");
+            return;
+        }
+        terminal.warn(invalid.size() + " entries failed the audit:\n");
+        for (StoredPassword entry : invalid) {
+            terminal.info(String.format(Terminal.COLOR_MAGENTA + "%-7d" + Terminal.COLOR_RESET + " | %-20s | %s\n",
+                    entry.getId(), Utilities.cutAndAppendString(entry.getTitle(), 20 - 2, ".."),
+                    entry.getValidationError()));
+        }
     }
 
     /**
      * Searches for entries by their title from user input. Entries are
-     * displayed if found and empty if not found. Gives ability to reveal
-     * passwords of found entries.
+     * displayed best matches first (see RankedSearch), and empty if none are
+     * found.
      */
     private void searchByTitle() {
-        ArrayList<StoredPassword> searchPasswords = passwords.getUserPasswords(terminal.readLine("Enter title to search for >> "), new TitleSearchFilter());
-        displayEntries(searchPasswords, true);
-        if (searchPasswords.size() > 0 && Utilities.getYesNoAnswer(terminal, "Reveal passwords? >> ")) {
-            displayEntries(searchPasswords, false);
-        }
+        displayRanked(passwords.getRankedPasswords(terminal.readLine("Enter title to search for >> "), new TitleSearchFilter()));
     }
 
     /**
      * Searches for entries by their website from user input. Entries are
-     * displayed if found and empty if not found. Gives ability to reveal
-     * passwords of found entries.
+     * displayed best matches first (see RankedSearch), and empty if none are
+     * found.
      */
     private void searchByWebsite() {
-        ArrayList<StoredPassword> searchPasswords = passwords.getUserPasswords(terminal.readLine("Enter website to search for >> "), new WebsiteSearchFilter());
-        displayEntries(searchPasswords, true);
-        if (searchPasswords.size() > 0 && Utilities.getYesNoAnswer(terminal, "Reveal passwords? >> ")) {
-            displayEntries(searchPasswords, false);
+        displayRanked(passwords.getRankedPasswords(terminal.readLine("Enter website to search for >> "), new WebsiteSearchFilter()));
+    }
+
+    /**
+     * Displays search results a page at a time, best matches first, for as
+     * long as the user wants more. Gives ability to reveal passwords of the
+     * displayed entries, starting from the last page of results shown.
+     *
+     * @param results ranked results of a search.
+     */
+    private void displayRanked(RankedSearch results) {
+        ArrayList<StoredPassword> shown = new ArrayList<>();
+        int lastPageStart = 0;
+        do {
+            ArrayList<StoredPassword> page = results.nextPage(RESULTS_PAGE_SIZE);
+            lastPageStart = shown.size();
+            shown.addAll(page);
+            displayEntries(page, true);
+        } while (results.hasNext() && Utilities.getYesNoAnswer(terminal,
+                "Showing " + shown.size() + " of " + results.size() + " results. Show more? >> "));
+        if (shown.size() > 0 && Utilities.getYesNoAnswer(terminal, "Reveal passwords? >> ")) {
+            displayEntries(shown, false, lastPageStart / ENTRIES_PAGE_SIZE);
+        }
+    }
+
+    /**
+     * Searches for entries by words of their title and website from user
+     * input, allowing as many typos per word as the user asks for. Closest
+     * entries are displayed first, and empty if none are found. Gives ability
+     * to reveal passwords of found entries.
+     */
+    private void searchAllowingTypos() {
+        String searchString = terminal.readLine("Enter title or website words to search for >> ");
+        int maxDistance = Utilities.getInt(terminal, "Enter typos allowed per word >> ", 0, BKTree.MAX_DISTANCE);
+        ArrayList<StoredPassword> searchPasswords = passwords.getUserPasswordsFuzzy(searchString, maxDistance);
+        displayAndReveal(searchPasswords);
+    }
+
+    /**
+     * Searches for entries on a domain and its subdomains from user input.
+     * Entries are displayed if found and empty if not found. Gives ability to
+     * reveal passwords of found entries.
+     */
+    private void searchByDomain() {
+        ArrayList<StoredPassword> searchPasswords = passwords.getUserPasswordsOnDomain(terminal.readLine("Enter domain to search for (e.g. example.com) >> "));
+        displayAndReveal(searchPasswords);
+    }
+
+    /**
+     * Searches for entries with a query from user input (see VaultQuery).
+     * Entries are displayed if found and empty if not found. Gives ability to
+     * reveal passwords of found entries.
+     */
+    private void advancedSearch() {
+        terminal.info(QUERY_HELP);
+        VaultQuery query;
+        try {
+            query = VaultQuery.parse(terminal.readLine("Enter query >> "));
+        } catch (IllegalArgumentException e) {
+            terminal.error(e.getMessage() + "\n");
+            return;
         }
+        ArrayList<StoredPassword> searchPasswords = passwords.getUserPasswords(query);
+        displayAndReveal(searchPasswords);
     }
 
     /**
-     * Displays all entries. Entries are displayed even if found or none are
-     * found. Gives ability to reveal passwords of found entries.
+     * Displays entries in an order chosen by the user, e.g. the least
+     * recently updated first, limited to as many as the user asks for.
+     * Gives ability to reveal passwords of displayed entries.
+     */
+    private void sortedView() {
+        terminal.info(SORT_OPTIONS);
+        int order = Utilities.getInt(terminal, "Enter sort order >> ", 1, 6);
+        ArrayList<StoredPassword> sortedPasswords;
+        if (order == 6) {
+            LocalDate date;
+            try {
+                date = LocalDate.parse(terminal.readLine("Enter date (YYYY-MM-DD) >> ").trim());
+            } catch (DateTimeParseException e) {
+                terminal.error(ERR_DATE);
+                return;
+            }
+            sortedPasswords = passwords.getPasswordsUpdatedBetween(null, date.atStartOfDay());
+        } else {
+            int limit = Utilities.getInt(terminal, "Enter number of entries to show (0 for all) >> ", 0, Integer.MAX_VALUE);
+            if (limit == 0) {
+                limit = Integer.MAX_VALUE;
+            }
+            switch (order) {
+                case 1:
+                    sortedPasswords = passwords.getOldestPasswords(limit);
+                    break;
+                case 2:
+                    sortedPasswords = passwords.getNewestPasswords(limit);
+                    break;
+                case 3:
+                    sortedPasswords = passwords.getPasswordsByTitle(limit);
+                    break;
+                case 5:
+                    sortedPasswords = passwords.getMostUsedPasswords(limit);
+                    break;
+                default:
+                    sortedPasswords = passwords.getPasswordsByWebsite(limit);
+                    break;
+            }
+        }
+        displayAndReveal(sortedPasswords);
+    }
+
+    /**
+     * Warns the user and displays their existing entries if they already
+     * have an account on the same registrable domain as the website, e.g.
+     * www.example.com when adding login.example.com.
+     *
+     * @param website website of the entry being added.
+     */
+    private void warnAboutSameDomain(String website) {
+        String domain = PasswordStorage.getRegistrableDomain(website);
+        if (domain == null) {
+            return;
+        }
+        ArrayList<StoredPassword> sameDomain = passwords.getUserPasswordsOnDomain(domain);
+        if (sameDomain.size() > 0) {
+            terminal.warn("You already have an account on " + domain + ":\n");
+            displayEntries(sameDomain, true);
+        }
+    }
+
+    /**
+     * Displays all entries, most used first. Entries are displayed even if
+     * found or none are found. Gives ability to reveal passwords of found
+     * entries.
      */
     private void viewAllEntries() {
-        displayEntries(passwords.getUserPasswords(), true);
-        if (passwords.getUserPasswords().size() > 0 && Utilities.getYesNoAnswer(terminal, "Reveal passwords? >> ")) {
-            displayEntries(passwords.getUserPasswords(), false);
+        UsageOrder allPasswords = passwords.getUserPasswordsByUsage(ENTRIES_PAGE_SIZE);
+        displayAndReveal(allPasswords);
+    }
+
+    /**
+     * Displays entries with their passwords hidden, then gives ability to
+     * reveal them. The passwords are revealed starting from the page the user
+     * was last shown.
+     *
+     * @param entries entries to be displayed.
+     */
+    private void displayAndReveal(List<StoredPassword> entries) {
+        int page = displayEntries(entries, true);
+        if (entries.size() > 0 && Utilities.getYesNoAnswer(terminal, "Reveal passwords? >> ")) {
+            displayEntries(entries, false, page);
         }
     }
 
+    /**
+     * Neatly displays the passed in entries from the first page, see
+     * displayEntries(List, boolean, int).
+     *
+     * @param entries      entries to be displayed
+     * @param hidePassword if true passwords are masked, otherwise revealed.
+     * @return index of the page shown last.
+     */
+    private int displayEntries(List<StoredPassword> entries, boolean hidePassword) {
+        return displayEntries(entries, hidePassword, 0);
+    }
+
     /**
      * Neatly displays the passed in entries with ability to display the entry
-     * password.
+     * password, a page of ENTRIES_PAGE_SIZE entries at a time. Only the page
+     * being shown is formatted, into one buffer that is printed at once, so
+     * showing a page takes the same time however many entries there are. If
+     * there is more than one page the user can move between them, see
+     * choosePage. Revealing a password counts as a use of the entry.
      *
      * @param entries      entries to be displayed
      * @param hidePassword flag for displaying password of entries. If true then
      *                     passwords won't be displayed, if false passwords will be visible.
+     * @param firstPage    index of the page to show first.
+     * @return index of the page shown last, so that the caller can come back
+     *         to it.
      */
-    private void displayEntries(List<StoredPassword> entries, boolean hidePassword) {
-        Utilities.printString(terminal, DEFAULT_BORDER, DEFAULT_BORDER_LENGTH);
-        terminal.info("\n");
-        terminal.info(String.format(Terminal.COLOR_BLUE + "%-7s   %-20s   %-30s   %s" + Terminal.COLOR_RESET + "\n",
-                "ID", "Title", "Website", "Password"));
-        Utilities.printString(terminal, DEFAULT_BORDER, DEFAULT_BORDER_LENGTH);
-        terminal.info("\n");
-        for (StoredPassword entry : entries) {
-            String password = "**********";
-            if (passwords.isDuplicate(entry.getPassword())) {
-                password = Terminal.COLOR_YELLOW + password + " [Duplicate]" + Terminal.COLOR_RESET;
+    private int displayEntries(List<StoredPassword> entries, boolean hidePassword, int firstPage) {
+        int idWidth = Math.max(ID_COLUMN_WIDTH, Integer.toString(StoredPassword.getHighestTotalId()).length());
+        String border = DEFAULT_BORDER.repeat(DEFAULT_BORDER_LENGTH) + "\n";
+        StringBuilder page = new StringBuilder();
+        page.append(border).append(Terminal.COLOR_BLUE);
+        appendPadded(page, "ID", idWidth).append("   ");
+        appendPadded(page, "Title", TITLE_COLUMN_WIDTH).append("   ");
+        appendPadded(page, "Website", WEBSITE_COLUMN_WIDTH).append("   Password");
+        page.append(Terminal.COLOR_RESET).append('\n').append(border);
+        int headerLength = page.length();
+        int pages = Math.max(1, (entries.size() + ENTRIES_PAGE_SIZE - 1) / ENTRIES_PAGE_SIZE);
+        int pageIndex = Math.max(0, Math.min(firstPage, pages - 1));
+        int shown = pageIndex;
+        while (pageIndex >= 0) {
+            page.setLength(headerLength);
+            int start = pageIndex * ENTRIES_PAGE_SIZE;
+            int end = Math.min(entries.size(), start + ENTRIES_PAGE_SIZE);
+            Iterator<StoredPassword> rows = entries.listIterator(start);
+            for (int i = start; i < end; i++) {
+                appendRow(page, rows.next(), idWidth, hidePassword);
             }
-            if (!hidePassword) {
-                password = entry.getPassword();
-                if (passwords.isDuplicate(password)) {
-                    password = Terminal.COLOR_YELLOW + password + " [Duplicate]" + Terminal.COLOR_RESET;
-                }
+            page.append(border);
+            if (pages > 1) {
+                page.append("Entries ").append(start + 1).append('-').append(end).append(" of ").append(entries.size())
+                        .append(", page ").append(pageIndex + 1).append(" of ").append(pages).append('\n');
             }
-            terminal.info(String.format(Terminal.COLOR_MAGENTA + "%-7d" + Terminal.COLOR_RESET + " | %-20s | %-30s | %s\n",
-                    entry.getId(), Utilities.cutAndAppendString(entry.getTitle(), 20 - 2, ".."),
-                    Utilities.cutAndAppendString(entry.getWebsite(), 30 - 2, ".."), password));
+            terminal.info(page.toString());
+            shown = pageIndex;
+            pageIndex = pages > 1 ? choosePage(pageIndex, pages) : -1;
+        }
+        return shown;
+    }
+
+    /**
+     * Formats a row of the entries table.
+     *
+     * @param page         buffer to append the row to.
+     * @param entry        entry to be displayed.
+     * @param idWidth      width of the id column.
+     * @param hidePassword if true the password is masked, otherwise it is
+     *                     revealed and the entry counted as used.
+     */
+    private void appendRow(StringBuilder page, StoredPassword entry, int idWidth, boolean hidePassword) {
+        page.append(Terminal.COLOR_MAGENTA);
+        appendPadded(page, Integer.toString(entry.getId()), idWidth).append(Terminal.COLOR_RESET).append(" | ");
+        appendPadded(page, Utilities.cutAndAppendString(entry.getTitle(), TITLE_COLUMN_WIDTH - 2, ".."), TITLE_COLUMN_WIDTH)
+                .append(" | ");
+        appendPadded(page, Utilities.cutAndAppendString(entry.getWebsite(), WEBSITE_COLUMN_WIDTH - 2, ".."), WEBSITE_COLUMN_WIDTH)
+                .append(" | ");
+        boolean duplicate = passwords.isDuplicate(entry.getPassword());
+        if (duplicate) {
+            page.append(Terminal.COLOR_YELLOW);
+        }
+        if (hidePassword) {
+            page.append("**********");
+        } else {
+            page.append(entry.getPassword());
+            passwords.recordAccess(entry.getId());
+        }
+        if (duplicate) {
+            page.append(" [Duplicate]").append(Terminal.COLOR_RESET);
+        }
+        page.append('\n');
+    }
+
+    /**
+     * Appends a string padded with spaces to a width.
+     *
+     * @param page  buffer to append to.
+     * @param s     string to append.
+     * @param width width to pad to. Longer strings are not cut.
+     * @return the buffer.
+     */
+    private static StringBuilder appendPadded(StringBuilder page, String s, int width) {
+        page.append(s);
+        for (int i = s.length(); i < width; i++) {
+            page.append(' ');
+        }
+        return page;
+    }
+
+    /**
+     * Asks which page of entries to show next: N or nothing for the next
+     * page, P for the previous one, a page number to jump to it, or B to stop.
+     *
+     * @param pageIndex index of the page being shown.
+     * @param pages     number of pages.
+     * @return index of the page to show, or -1 to stop.
+     */
+    private int choosePage(int pageIndex, int pages) {
+        while (true) {
+            String command = terminal.readLine(PAGER_PROMPT).trim().toUpperCase();
+            if (command.isEmpty() || command.equals("N")) {
+                return pageIndex + 1 < pages ? pageIndex + 1 : -1;
+            } else if (command.equals("P")) {
+                return Math.max(0, pageIndex - 1);
+            } else if (command.equals(String.valueOf(BACK_CHAR))) {
+                return -1;
+            }
+            int page = Utilities.parsePositiveInt(command, -1);
+            if (page >= 1 && page <= pages) {
+                return page - 1;
+            }
+            terminal.error(ERR_CMD + "\n");
         }
-        Utilities.printString(terminal, DEFAULT_BORDER, DEFAULT_BORDER_LENGTH);
-        terminal.info("\n");
     }
 
     /**
@@ -555,7 +848,7 @@ public class Menu {
 
     /**
      * Displays details of a Stored Password by their id without displaying the
-     * password.
+     * password, counting it as a use of the entry.
      *
      * @param passwordId Stored Password id to be searched for
      * @return true if found and details displayed. False if not found.
@@ -563,6 +856,7 @@ public class Menu {
     private boolean displayPasswordDetails(int passwordId) {
         StoredPassword passwordDetails = passwords.getPasswordDetails(passwordId);
         if (passwordDetails != null) {
+            passwords.recordAccess(passwordId);
             terminal.info(Terminal.COLOR_BLUE + "Title        : " + Terminal.COLOR_RESET + passwordDetails.getTitle() +
                     Terminal.COLOR_BLUE + "\nWebsite      : " + Terminal.COLOR_RESET + passwordDetails.getWebsite() +
                     Terminal.COLOR_BLUE + "\nLast updated : " + Terminal.COLOR_RESET + passwordDetails.getLastUpdated()
@@ -614,11 +908,11 @@ public class Menu {
     }
 
     /**
-     * Writes all stored passwords in the current object's password storage into
-     * passwords file.
+     * Persists the changes made to the current object's password storage,
+     * appending them to the passwords file journal where possible.
      */
     private void savePasswords() {
-        boolean done = passwords.readPasswordsOut(DEFAULT_USER_PASSWORDS_PATH, this.key);
+        boolean done = passwords.commitChanges(DEFAULT_USER_PASSWORDS_PATH, this.key);
         if (!done) {
             this.terminal.error(ERR_STORE_PASSWORDS);
         }
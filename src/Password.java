@@ -1,9 +1,9 @@
-import javax.crypto.SecretKey;
 import javax.crypto.SecretKeyFactory;
 import javax.crypto.spec.PBEKeySpec;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.security.spec.InvalidKeySpecException;
+import java.util.Arrays;
 import java.util.Base64;
 
 public class Password {
@@ -17,11 +17,30 @@ public class Password {
   public static final int    ITERATIONS       = 65536;
   public static final int    KEY_SIZE         = 256;
   public static final int    SALT_BYTES       = 32;
+  public static final String KDF_PROPERTY     = "saps.kdf";
+  public static final String KDF_SCRYPT       = "scrypt";
+  public static final String KDF_PBKDF2       = "pbkdf2";
+
+  // Cost policy. Hashes cheaper than this are redone on login.
+  public static final int    MIN_ITERATIONS   = 32768;
+  public static final int    MAX_ITERATIONS   = 16777216;
+  public static final int    MIN_KEY_SIZE     = 256;
+
+  // Calibration values
+  public static final long   TARGET_MILLIS          = 250;
+  public static final int    CALIBRATION_ITERATIONS = 8192;
+  public static final int    CALIBRATION_RUNS       = 3;
+  public static final int    ITERATION_STEP         = 1024;
 
   // Exception messages
   public static final String ERROR_BAD_ALGORITHM  = "[Hash error] bad algorithm";
   public static final String ERROR_BAD_SPEC       = "[Hash error] bad key specification";
   public static final String ERR_WEAK_SALT        = "Salt is too small, must be at least 16 bytes.";
+  public static final String ERR_BAD_ITERATIONS   = "Iteration count must be positive.";
+  public static final String ERR_BAD_KEY_SIZE     = "Key size must be a positive multiple of 8 bits.";
+
+  // Iterations picked by calibrateIterations for the defaults, 0 until run
+  private static volatile int calibratedIterations = 0;
 
   // #######################################################
   // # Instance variables
@@ -29,6 +48,8 @@ public class Password {
 
   private String password;
   private String salt;
+  private KeyDerivationFunction kdf;
+  private int                   keySize;
 
   // #######################################################
   // # Salt utilities
@@ -51,15 +72,32 @@ public class Password {
 
   /**
    * Construct from a passed password and salt (short constructor).
-   * The iterations and keySize fields are set to the class's
-   * defaults for these values.
+   * The password is hashed with PBKDF2 (KEY_FACTORY_TYPE over
+   * ITERATIONS iterations) to a KEY_SIZE bit hash, the
+   * class's defaults.
    *
    * @param password A plaintext password
    * @param salt     A password salt value (as a string)
    */
   public Password(String password, String salt) {
+    this(password, salt, new Pbkdf2Function(KEY_FACTORY_TYPE, ITERATIONS), KEY_SIZE);
+  }
+
+  /**
+   * Construct from a passed password, salt and hashing
+   * function (long constructor).
+   *
+   * @param password A plaintext password
+   * @param salt     A password salt value (as a string)
+   * @param kdf      The key derivation function to hash with,
+   *                 holding its own cost parameters
+   * @param keySize  Size of the hash in bits
+   */
+  public Password(String password, String salt, KeyDerivationFunction kdf, int keySize) {
     this.setPassword(password);
     this.setSalt(salt);
+    this.setKdf(kdf);
+    this.setKeySize(keySize);
   }
 
   /**
@@ -71,6 +109,8 @@ public class Password {
   public Password(Password other) {
     this.setPassword(other.getPassword());
     this.setSalt(other.getSalt());
+    this.setKdf(other.getKdf());
+    this.setKeySize(other.getKeySize());
   }
 
   // #######################################################
@@ -91,6 +131,20 @@ public class Password {
     return this.salt;
   }
 
+  /**
+   * @return The key derivation function used to hash.
+   */
+  public KeyDerivationFunction getKdf() {
+    return this.kdf;
+  }
+
+  /**
+   * @return The size of the hash in bits.
+   */
+  public int getKeySize() {
+    return this.keySize;
+  }
+
   // #######################################################
   // # Setters
   // #######################################################
@@ -131,15 +185,40 @@ public class Password {
     this.salt = salt;
   }
 
+  /**
+   * Set the key derivation function used to hash.
+   *
+   * @param kdf A key derivation function
+   */
+  public void setKdf(KeyDerivationFunction kdf) {
+    if (kdf == null) {
+      throw new PasswordException(ERROR_BAD_ALGORITHM);
+    }
+    this.kdf = kdf;
+  }
+
+  /**
+   * Set the size of the hash in bits.
+   *
+   * @param keySize A positive multiple of 8
+   */
+  public void setKeySize(int keySize) {
+    if (keySize < 1 || keySize % 8 != 0) {
+      throw new PasswordException(ERR_BAD_KEY_SIZE);
+    }
+    this.keySize = keySize;
+  }
+
   // #######################################################
   // # Hashing Utilities
   // #######################################################
 
   /**
    * Returns a derived key (hash) that has been generated using
-   * PBKDF2 (configurable with the KEY_FACTORY_TYPE constant) and
-   * SHA512 over {getIterations()} iterations. The resulting hash
-   * is returned as a base64-encoded string.
+   * the key derivation function and key size this object was
+   * constructed with (PBKDF2 with SHA512 over ITERATIONS
+   * iterations by default). The resulting hash is returned as
+   * a base64-encoded string.
    *
    * @return Hash as a base64-encoded string.
    * @throws PasswordException if the hashing function is not
@@ -147,22 +226,15 @@ public class Password {
    */
   public String generateHash() {
 
-    try {
-
-      char[] passwordChars     = this.getPassword().toCharArray();
-      byte[] saltBytes         = Base64.getDecoder().decode(this.getSalt());
+    char[] passwordChars = this.getPassword().toCharArray();
+    byte[] saltBytes     = Base64.getDecoder().decode(this.getSalt());
 
-      SecretKeyFactory factory = SecretKeyFactory.getInstance(KEY_FACTORY_TYPE);
-      PBEKeySpec       spec    = new PBEKeySpec(passwordChars, saltBytes, ITERATIONS, KEY_SIZE);
-      SecretKey        key     = factory.generateSecret(spec);
-
-      return Base64.getEncoder().encodeToString(key.getEncoded());
-    }
-    catch(NoSuchAlgorithmException e) {
-      throw new PasswordException(ERROR_BAD_ALGORITHM);
+    try {
+      byte[] hash = this.getKdf().derive(passwordChars, saltBytes, this.getKeySize() / 8);
+      return Base64.getEncoder().encodeToString(hash);
     }
-    catch(InvalidKeySpecException e) {
-      throw new PasswordException(ERROR_BAD_SPEC);
+    finally {
+      Arrays.fill(passwordChars, '\0');
     }
   }
 
@@ -182,4 +254,140 @@ public class Password {
     return this.generateHash().equals(hash);
   }
 
+  // #######################################################
+  // # Cost calibration
+  // #######################################################
+
+  /**
+   * Returns true if hashes made with these parameters are
+   * cheaper than the cost policy allows (MIN_KEY_SIZE and the
+   * function's own policy, e.g. MIN_ITERATIONS for PBKDF2).
+   *
+   * @param kdf     The key derivation function
+   * @param keySize The key size in bits
+   * @return        true if the hash should be redone
+   */
+  public static boolean isBelowPolicy(KeyDerivationFunction kdf, int keySize) {
+    return kdf.isBelowPolicy() || keySize < MIN_KEY_SIZE;
+  }
+
+  /**
+   * Returns the key derivation function new master passwords
+   * are hashed with: PBKDF2 at the calibrated iteration
+   * count, or scrypt calibrated for this host (see
+   * Scrypt.withDefaults) if the saps.kdf system property is
+   * set to scrypt.
+   *
+   * @return The default key derivation function
+   */
+  public static KeyDerivationFunction getDefaultKdf() {
+    return getKdf(getDefaultKdfAlgorithm());
+  }
+
+  /**
+   * Returns a key derivation function of the given algorithm
+   * at the cost calibrated for this host, so a hash can be
+   * redone at full cost without changing its function.
+   *
+   * @param algorithm The algorithm name, e.g. Scrypt.ALGORITHM
+   *                  or KEY_FACTORY_TYPE
+   * @return          The calibrated key derivation function
+   */
+  public static KeyDerivationFunction getKdf(String algorithm) {
+    if (Scrypt.ALGORITHM.equals(algorithm)) {
+      return Scrypt.withDefaults();
+    }
+    return new Pbkdf2Function(KEY_FACTORY_TYPE, getCalibratedIterations());
+  }
+
+  /**
+   * @return The name of the function getDefaultKdf returns,
+   *         without calibrating anything
+   */
+  public static String getDefaultKdfAlgorithm() {
+    String requested = getRequestedKdfAlgorithm();
+    return requested == null ? KEY_FACTORY_TYPE : requested;
+  }
+
+  /**
+   * Returns the algorithm the user asked for with the
+   * saps.kdf system property, scrypt or pbkdf2. Existing
+   * master passwords are only moved to another function when
+   * one is asked for this way.
+   *
+   * @return The requested algorithm name, or null if the
+   *         property is unset or names no known function
+   */
+  public static String getRequestedKdfAlgorithm() {
+    String requested = System.getProperty(KDF_PROPERTY);
+    if (KDF_SCRYPT.equalsIgnoreCase(requested)) {
+      return Scrypt.ALGORITHM;
+    }
+    if (KDF_PBKDF2.equalsIgnoreCase(requested)) {
+      return KEY_FACTORY_TYPE;
+    }
+    return null;
+  }
+
+  /**
+   * Returns the iteration count that makes hashing with the
+   * default algorithm and key size take about TARGET_MILLIS
+   * on this host. The host is only measured once; later
+   * calls return the same count.
+   *
+   * @return Calibrated iteration count
+   */
+  public static int getCalibratedIterations() {
+    int iterations = calibratedIterations;
+    if (iterations == 0) {
+      iterations = calibrateIterations(KEY_FACTORY_TYPE, KEY_SIZE, TARGET_MILLIS);
+      calibratedIterations = iterations;
+    }
+    return iterations;
+  }
+
+  /**
+   * Measures how long hashing takes on this host and
+   * returns the iteration count that takes about
+   * targetMillis, rounded up to a multiple of
+   * ITERATION_STEP and kept between MIN_ITERATIONS and
+   * MAX_ITERATIONS. The fastest of CALIBRATION_RUNS runs is
+   * used, so the first run can warm up the hash.
+   *
+   * @param algorithm    The key factory algorithm
+   * @param keySize      The key size in bits
+   * @param targetMillis The time hashing should take
+   * @return             Calibrated iteration count
+   * @throws PasswordException if the hashing function is not
+   *                           correctly configured.
+   */
+  public static int calibrateIterations(String algorithm, int keySize, long targetMillis) {
+
+    char[] probePassword = "calibration probe".toCharArray();
+    byte[] probeSalt     = new byte[SALT_BYTES];
+    long   fastestNanos  = Long.MAX_VALUE;
+
+    try {
+      SecretKeyFactory factory = SecretKeyFactory.getInstance(algorithm);
+      PBEKeySpec       spec    = new PBEKeySpec(probePassword, probeSalt, CALIBRATION_ITERATIONS, keySize);
+      for (int run = 0; run < CALIBRATION_RUNS; run++) {
+        long start = System.nanoTime();
+        factory.generateSecret(spec);
+        fastestNanos = Math.min(fastestNanos, System.nanoTime() - start);
+      }
+    }
+    catch(NoSuchAlgorithmException e) {
+      throw new PasswordException(ERROR_BAD_ALGORITHM);
+    }
+    catch(InvalidKeySpecException e) {
+      throw new PasswordException(ERROR_BAD_SPEC);
+    }
+
+    // Scale the probe to the target and round up to a whole step
+    double nanosPerIteration = (double) Math.max(fastestNanos, 1) / CALIBRATION_ITERATIONS;
+    double iterations        = targetMillis * 1_000_000.0 / nanosPerIteration;
+    long   steps             = (long) Math.ceil(iterations / ITERATION_STEP);
+    return (int) Math.max(MIN_ITERATIONS, Math.min(MAX_ITERATIONS, steps * ITERATION_STEP));
+  }
+
 }
@@ -0,0 +1,362 @@
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+/**
+ * PasswordJournal class.
+ *
+ * <p>
+ * Append-only journal of changes made to a PasswordStorage since its vault
+ * snapshot was last written. Every record holds the operation and the full
+ * resulting entry as a CSV line (see CSVCodec), or just the id for removals,
+ * so replaying the journal over the snapshot in order restores the latest
+ * state. Each record is sealed on its own with AES-GCM (see
+ * CipherEngine.seal), with the snapshot id and its offset in the file as
+ * associated data, so a record that was changed, reordered or moved fails to
+ * open instead of being replayed.
+ * </p>
+ *
+ * <p>
+ * Layout: a header of MAGIC, VERSION and the snapshot id of the vault the
+ * journal belongs to (see VaultFile.write), then records of a 4 byte length
+ * followed by the sealed record. A journal whose snapshot id isn't that of
+ * the vault was left behind by an older snapshot that already holds its
+ * changes, e.g. after a crash between writing a snapshot and emptying the
+ * journal, so replay skips it and it is emptied on the next open. A record
+ * cut short at the end of the file by a crash is ignored on replay and
+ * truncated on the next open. Any other damaged record fails the replay and
+ * the journal is left as it is, so records after it are never lost.
+ * </p>
+ *
+ * <p>
+ * Appends are buffered and made durable by sync, which uses group commit:
+ * callers that arrive while another sync is forcing the file wait for it and
+ * find their records already covered, so a burst of commits shares one fsync.
+ * </p>
+ *
+ * @author Luke Halpenny & Andrej Gorochov
+ * @version 1.0
+ */
+public class PasswordJournal implements Closeable {
+
+    public static final String FILE_SUFFIX = ".journal";
+    public static final char OP_ADD = 'A';
+    public static final char OP_TITLE = 'T';
+    public static final char OP_WEBSITE = 'W';
+    public static final char OP_PASSWORD = 'P';
+    public static final char OP_REMOVE = 'R';
+    // Starts like the vault and usage sketch magic numbers, "\x89SAJ".
+    public static final int MAGIC = 0x8953414a;
+    public static final int VERSION = 1;
+    public static final int HEADER_BYTES = 2 * Integer.BYTES + Long.BYTES;
+    private static final int MAX_RECORD_BYTES = 1024 * 1024;
+
+    /**
+     * Receives the records of a journal as it is replayed.
+     */
+    public interface Listener {
+
+        /**
+         * Called for added and edited entries with the entry's full state.
+         *
+         * @param op operation that produced the record.
+         * @param entry entry as it was after the operation.
+         */
+        void put(char op, StoredPassword entry);
+
+        /**
+         * Called for removed entries.
+         *
+         * @param id id of the removed entry.
+         */
+        void remove(int id);
+    }
+
+    private final File file;
+    private final CipherEngine engine;
+    private final long snapshotId;
+    private final FileOutputStream fileOut;
+    private final DataOutputStream out;
+    private final Object syncLock;
+    private long length;
+    private long syncedLength;
+    private int records;
+
+    /**
+     * Opens a journal for appending, creating it if needed. Anything after
+     * the last complete record is truncated first.
+     *
+     * @param file journal file.
+     * @param key base64 key to seal records with.
+     * @param snapshotId snapshot id of the vault the journal belongs to.
+     * @param validLength length of the header and complete records, as
+     *                    returned by replay, or 0 to start an empty journal.
+     * @throws IOException if the journal can't be opened.
+     */
+    public PasswordJournal(File file, String key, long snapshotId, long validLength) throws IOException {
+        this.file = file;
+        this.engine = new CipherEngine(key);
+        this.snapshotId = snapshotId;
+        boolean created = !file.exists();
+        if (validLength < HEADER_BYTES) {
+            validLength = HEADER_BYTES;
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.setLength(0);
+                raf.writeInt(MAGIC);
+                raf.writeInt(VERSION);
+                raf.writeLong(snapshotId);
+                raf.getChannel().force(true);
+            }
+        } else {
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                if (raf.length() != validLength) {
+                    raf.setLength(validLength);
+                    raf.getChannel().force(true);
+                }
+            }
+        }
+        if (created) {
+            AtomicFile.forceDirectory(file.getAbsoluteFile().getParentFile());
+        }
+        this.fileOut = new FileOutputStream(file, true);
+        this.out = new DataOutputStream(new BufferedOutputStream(this.fileOut));
+        this.syncLock = new Object();
+        this.length = validLength;
+        this.syncedLength = validLength;
+        this.records = 0;
+    }
+
+    /**
+     * Gets the journal file path for a vault file.
+     *
+     * @param vaultPath path of the vault file.
+     * @return the journal file belonging to the vault.
+     */
+    public static File forVault(String vaultPath) {
+        return new File(vaultPath + FILE_SUFFIX);
+    }
+
+    /**
+     * Appends a record holding the entry's current state. The record is
+     * buffered until sync is called.
+     *
+     * @param op one of OP_ADD, OP_TITLE, OP_WEBSITE or OP_PASSWORD.
+     * @param entry entry as it is after the operation.
+     * @throws IOException if the record can't be written.
+     */
+    public synchronized void append(char op, StoredPassword entry) throws IOException {
+        StringBuilder record = new StringBuilder();
+        record.append(op).append(',');
+        CSVCodec.appendEntry(record, entry);
+        appendRecord(record);
+    }
+
+    /**
+     * Appends a removal record. The record is buffered until sync is called.
+     *
+     * @param id id of the removed entry.
+     * @throws IOException if the record can't be written.
+     */
+    public synchronized void appendRemove(int id) throws IOException {
+        StringBuilder record = new StringBuilder();
+        record.append(OP_REMOVE).append(',').append(id);
+        appendRecord(record);
+    }
+
+    /**
+     * Seals and writes a single record.
+     *
+     * @param record plaintext record.
+     * @throws IOException if the record can't be written.
+     */
+    private void appendRecord(StringBuilder record) throws IOException {
+        byte[] plaintext = record.toString().getBytes(StandardCharsets.UTF_8);
+        byte[] sealed = this.engine.seal(plaintext, 0, plaintext.length, recordData(this.snapshotId, this.length));
+        this.out.writeInt(sealed.length);
+        this.out.write(sealed);
+        this.length += Integer.BYTES + sealed.length;
+        this.records++;
+    }
+
+    /**
+     * Writes all records appended so far to the file and forces them to
+     * disk. If another thread is already forcing the file, this waits for it
+     * and only forces again if records were appended after it started.
+     *
+     * @throws IOException if the records can't be made durable.
+     */
+    public void sync() throws IOException {
+        long target;
+        synchronized (this) {
+            target = this.length;
+        }
+        synchronized (this.syncLock) {
+            if (this.syncedLength >= target) {
+                return;
+            }
+            long covered;
+            synchronized (this) {
+                this.out.flush();
+                covered = this.length;
+            }
+            this.fileOut.getChannel().force(false);
+            this.syncedLength = covered;
+        }
+    }
+
+    /**
+     * Gets the size of the journal.
+     *
+     * @return journal length in bytes, including the header and buffered
+     *         records.
+     */
+    public synchronized long length() {
+        return this.length;
+    }
+
+    /**
+     * Gets the number of records appended since the journal was opened.
+     *
+     * @return number of records.
+     */
+    public synchronized int getRecordCount() {
+        return this.records;
+    }
+
+    /**
+     * Gets the journal file.
+     *
+     * @return journal file.
+     */
+    public File getFile() {
+        return this.file;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        this.engine.destroy();
+        this.out.close();
+    }
+
+    /**
+     * Replays a journal, passing each complete record to the listener in
+     * order. Replay stops at a record that the file ends in the middle of, as
+     * that is where a crash interrupted the last append. Nothing is replayed
+     * from a journal that belongs to another snapshot or whose header is cut
+     * short.
+     *
+     * @param file journal file, may not exist.
+     * @param key base64 key the records were sealed with.
+     * @param snapshotId snapshot id of the vault being read.
+     * @param listener receiver of the records.
+     * @return length in bytes of the header and complete records, 0 if
+     *         nothing was replayed.
+     * @throws IOException if the journal can't be read, isn't a journal in
+     *         this format, or a record has a bad length, can't be decrypted
+     *         or is malformed.
+     */
+    public static long replay(File file, String key, long snapshotId, Listener listener) throws IOException {
+        if (!file.isFile()) {
+            return 0;
+        }
+        long valid = HEADER_BYTES;
+        CipherEngine engine = new CipherEngine(key);
+        ArrayList<StoredPassword> decoded = new ArrayList<>(1);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            try {
+                if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                    throw new IOException("Not a journal in this format: " + file);
+                }
+                if (in.readLong() != snapshotId) {
+                    return 0;
+                }
+            } catch (EOFException e) {
+                return 0;
+            }
+            byte[] buffer = new byte[0];
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                if (length <= 0 || length > MAX_RECORD_BYTES) {
+                    throw corrupt(file, valid, "has a bad length");
+                }
+                if (buffer.length < length) {
+                    buffer = new byte[length];
+                }
+                try {
+                    in.readFully(buffer, 0, length);
+                } catch (EOFException e) {
+                    break;
+                }
+                String record;
+                try {
+                    int plaintextLength = engine.openInPlace(buffer, 0, length, recordData(snapshotId, valid));
+                    record = new String(buffer, 0, plaintextLength, StandardCharsets.UTF_8);
+                } catch (CipherException e) {
+                    throw corrupt(file, valid, "can't be decrypted");
+                }
+                if (record.length() < 2 || record.charAt(1) != ',') {
+                    throw corrupt(file, valid, "is malformed");
+                }
+                char op = record.charAt(0);
+                if (op == OP_REMOVE) {
+                    try {
+                        listener.remove(Integer.parseInt(record.substring(2)));
+                    } catch (NumberFormatException e) {
+                        throw corrupt(file, valid, "is malformed");
+                    }
+                } else {
+                    decoded.clear();
+                    CSVCodec.decode(record.substring(2), true, decoded);
+                    if (decoded.size() != 1) {
+                        throw corrupt(file, valid, "is malformed");
+                    }
+                    listener.put(op, decoded.get(0));
+                }
+                valid += Integer.BYTES + length;
+            }
+        } finally {
+            engine.destroy();
+        }
+        return valid;
+    }
+
+    /**
+     * Builds the associated data a record is sealed with.
+     *
+     * @param snapshotId snapshot id of the vault the journal belongs to.
+     * @param offset position of the record in the file.
+     * @return associated data of the record.
+     */
+    private static byte[] recordData(long snapshotId, long offset) {
+        return ByteBuffer.allocate(2 * Long.BYTES).putLong(snapshotId).putLong(offset).array();
+    }
+
+    /**
+     * Builds the error for a damaged record.
+     *
+     * @param file journal file.
+     * @param offset position of the record in the file.
+     * @param reason what is wrong with the record.
+     * @return the error.
+     */
+    private static IOException corrupt(File file, long offset, String reason) {
+        return new IOException("Journal record at byte " + offset + " of " + file + " " + reason);
+    }
+}
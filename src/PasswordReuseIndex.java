@@ -0,0 +1,106 @@
+
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * PasswordReuseIndex class.
+ *
+ * <p>
+ * Counts how many entries use each password, so checking a password for
+ * reuse is a single hash lookup instead of a scan of all entries. Passwords
+ * are not kept in the index: each one is replaced by its HMAC-SHA256 under a
+ * random key that only exists in memory for the lifetime of the index, so the
+ * index holds nothing that can be compared with anything outside this
+ * process.
+ * </p>
+ *
+ * @author Luke Halpenny & Andrej Gorochov
+ * @version 1.0
+ */
+public final class PasswordReuseIndex {
+
+    private static final String MAC_TYPE = "HmacSHA256";
+    private static final int SESSION_KEY_BYTES = 32;
+
+    private final Mac mac;
+    private final HashMap<String, Integer> counts;
+
+    /**
+     * Creates an empty index with a fresh session key.
+     */
+    public PasswordReuseIndex() {
+        byte[] sessionKey = new byte[SESSION_KEY_BYTES];
+        new SecureRandom().nextBytes(sessionKey);
+        try {
+            this.mac = Mac.getInstance(MAC_TYPE);
+            this.mac.init(new SecretKeySpec(sessionKey, MAC_TYPE));
+        } catch (NoSuchAlgorithmException | InvalidKeyException e) {
+            throw new CipherException(e.getMessage());
+        } finally {
+            Arrays.fill(sessionKey, (byte) 0);
+        }
+        this.counts = new HashMap<>();
+    }
+
+    /**
+     * Records an entry using a password.
+     *
+     * @param password password of the entry.
+     */
+    public void add(String password) {
+        String fingerprint = fingerprint(password);
+        Integer count = this.counts.get(fingerprint);
+        this.counts.put(fingerprint, count == null ? 1 : count + 1);
+    }
+
+    /**
+     * Records that an entry no longer uses a password.
+     *
+     * @param password password the entry used.
+     */
+    public void remove(String password) {
+        String fingerprint = fingerprint(password);
+        Integer count = this.counts.get(fingerprint);
+        if (count == null) {
+            return;
+        }
+        if (count <= 1) {
+            this.counts.remove(fingerprint);
+        } else {
+            this.counts.put(fingerprint, count - 1);
+        }
+    }
+
+    /**
+     * Gets the number of entries using a password.
+     *
+     * @param password password to look up.
+     * @return number of entries using it.
+     */
+    public int count(String password) {
+        Integer count = this.counts.get(fingerprint(password));
+        return count == null ? 0 : count;
+    }
+
+    /**
+     * Computes the keyed fingerprint of a password.
+     *
+     * @param password password to fingerprint.
+     * @return base64 HMAC of the password.
+     */
+    private String fingerprint(String password) {
+        byte[] passwordBytes = password.getBytes(StandardCharsets.UTF_8);
+        try {
+            return Base64.getEncoder().encodeToString(this.mac.doFinal(passwordBytes));
+        } finally {
+            Arrays.fill(passwordBytes, (byte) 0);
+        }
+    }
+}
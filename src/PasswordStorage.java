@@ -1,19 +1,30 @@
 
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.time.LocalDateTime;
-import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
-import java.util.NoSuchElementException;
-import java.util.Scanner;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
 
 /**
  * PasswordStorage class.
  *
  * <p>
- * Class used to deal with and store StoredPasswords.
+ * Class used to deal with and store StoredPasswords. Entries are indexed
+ * by id in an IntObjectMap, so looking up, editing and removing an entry
+ * doesn't depend on the number of entries. A separate list of slots keeps the
+ * order entries were added in for listing; removed entries leave an empty
+ * slot behind that is dropped the next time the list is needed. Reuse of
+ * passwords is counted as entries change (see PasswordReuseIndex), and
+ * titles and websites are kept in trigram indexes (see TrigramIndex) so
+ * searching them doesn't scan every entry. Their words are also kept in a 
+ * BKTree for typo-tolerant searches, and website hostnames in a 
+ * HostnameTrie to find entries by domain. SortedViews keep the entries 
+ * ordered by last update, title and website for sorted listings, and an 
+ * AccessSketch counts how often each entry is used.
  * </p>
  * 
  * @author Luke Halpenny & Andrej Gorochov
@@ -21,13 +32,59 @@ import java.util.Scanner;
  */
 public class PasswordStorage {
 
-    private ArrayList<StoredPassword> userPasswords;
+    // The journal is folded into a new snapshot once it is larger than both
+    // of these.
+    public static final long MIN_COMPACTION_BYTES = 64 * 1024;
+    public static final double COMPACTION_RATIO = 0.5;
+    // Queries scan all entries rather than use a range of updatedView that 
+    // holds more than 1 / RANGE_SCAN_FRACTION of them.
+    public static final int RANGE_SCAN_FRACTION = 8;
+
+    private IntObjectMap<Slot> passwordsById;
+    private ArrayList<Slot> passwordSlots;
+    private int removedSlots;
+    private List<StoredPassword> passwordsView;
+    private PasswordReuseIndex reuseIndex;
+    private TrigramIndex titleIndex;
+    private TrigramIndex websiteIndex;
+    private BKTree fuzzyIndex;
+    private HostnameTrie hostIndex;
+    private SortedView<LocalDateTime> updatedView;
+    private SortedView<String> titleView;
+    private SortedView<String> websiteView;
+    private AccessSketch usage;
+    private boolean usageChanged;
+    private long nextSequence;
+    private PasswordJournal journal;
+    private boolean journalFailed;
+    private boolean journalDamaged;
+    private long snapshotBytes;
+    private long snapshotId;
 
     /**
      * Default constructor for PasswordStorage.
      */
     public PasswordStorage() {
-        this.userPasswords = new ArrayList<>();
+        this.passwordsById = new IntObjectMap<>();
+        this.passwordSlots = new ArrayList<>();
+        this.removedSlots = 0;
+        this.passwordsView = null;
+        this.reuseIndex = new PasswordReuseIndex();
+        this.titleIndex = new TrigramIndex();
+        this.websiteIndex = new TrigramIndex();
+        this.fuzzyIndex = new BKTree();
+        this.hostIndex = new HostnameTrie();
+        this.updatedView = new SortedView<>();
+        this.titleView = new SortedView<>();
+        this.websiteView = new SortedView<>();
+        this.usage = new AccessSketch();
+        this.usageChanged = false;
+        this.nextSequence = 0;
+        this.journal = null;
+        this.journalFailed = false;
+        this.journalDamaged = false;
+        this.snapshotId = VaultFile.NO_SNAPSHOT_ID;
+        this.snapshotBytes = 0;
     }
 
     /**
@@ -39,7 +96,9 @@ public class PasswordStorage {
      * @param password password of the new password entry
      */
     public void addNewPassword(String title, String website, String password) {
-        this.userPasswords.add(new StoredPassword(title, website, password));
+        StoredPassword userPassword = new StoredPassword(title, website, password);
+        putStoredPassword(userPassword);
+        journal(PasswordJournal.OP_ADD, userPassword);
     }
 
     /**
@@ -52,6 +111,10 @@ public class PasswordStorage {
         StoredPassword userPassword = findStoredPassword(id);
         if (userPassword != null) {
             userPassword.setTitle(newTitle);
+            this.titleIndex.put(id, userPassword.getTitle());
+            this.fuzzyIndex.put(id, userPassword.getTitle(), userPassword.getWebsite());
+            putSortedViews(userPassword);
+            journal(PasswordJournal.OP_TITLE, userPassword);
             return true;
         }
         return false;
@@ -67,6 +130,11 @@ public class PasswordStorage {
         StoredPassword userPassword = findStoredPassword(id);
         if (userPassword != null) {
             userPassword.setWebsite(newWebsite);
+            this.websiteIndex.put(id, userPassword.getWebsite());
+            this.fuzzyIndex.put(id, userPassword.getTitle(), userPassword.getWebsite());
+            this.hostIndex.put(id, userPassword.getHost());
+            putSortedViews(userPassword);
+            journal(PasswordJournal.OP_WEBSITE, userPassword);
             return true;
         }
         return false;
@@ -81,7 +149,12 @@ public class PasswordStorage {
     public boolean editPasswordPassword(int id, String newPassword) {
         StoredPassword userPassword = findStoredPassword(id);
         if (userPassword != null) {
+            String oldPassword = userPassword.getPassword();
             userPassword.setPassword(newPassword);
+            this.reuseIndex.remove(oldPassword);
+            this.reuseIndex.add(newPassword);
+            putSortedViews(userPassword);
+            journal(PasswordJournal.OP_PASSWORD, userPassword);
             return true;
         }
         return false;
@@ -98,7 +171,7 @@ public class PasswordStorage {
     public StoredPassword getPasswordDetails(int id) {
         StoredPassword userPassword = findStoredPassword(id);
         if (userPassword != null) {
-            return new StoredPassword(userPassword.getId(), userPassword.getTitle(), userPassword.getWebsite(), userPassword.getPassword());
+            return userPassword.copy();
         }
         return null;
     }
@@ -123,8 +196,9 @@ public class PasswordStorage {
      * present.
      */
     public int getLatestPasswordId() {
-        if (this.userPasswords.size() > 0) {
-            return this.userPasswords.get(this.userPasswords.size() - 1).getId();
+        StoredPassword userPassword = findLatestPassword();
+        if (userPassword != null) {
+            return userPassword.getId();
         }
         return -1;
     }
@@ -133,8 +207,10 @@ public class PasswordStorage {
      * Removes the last added StoredPassword.
      */
     public void removeLatestPassword() {
-        if (this.userPasswords.size() > 0) {
-            this.userPasswords.remove(this.userPasswords.size() - 1);
+        StoredPassword userPassword = findLatestPassword();
+        if (userPassword != null) {
+            removeStoredPassword(userPassword.getId());
+            journalRemove(userPassword.getId());
         }
     }
 
@@ -144,29 +220,36 @@ public class PasswordStorage {
      * @return true if found and removed, false if not found/not removed.
      */
     public boolean removePassword(int id) {
-        int i = 0;
-        boolean isRemoved = false;
-        while (!isRemoved && i < this.userPasswords.size()) {
-            if (this.userPasswords.get(i).getId() == id) {
-                this.userPasswords.remove(i);
-                isRemoved = true;
-            }
-            i++;
+        if (removeStoredPassword(id)) {
+            journalRemove(id);
+            return true;
         }
-        return isRemoved;
+        return false;
     }
 
     /**
-     * Gets the entire list of StoredPasswords.
-     * @return ArrayList of stored password.
+     * Gets the entire list of StoredPasswords, in the order they were added.
+     * The list can't be modified and is reused until entries are added or
+     * removed.
+     * @return unmodifiable list of stored passwords.
      */
-    public ArrayList<StoredPassword> getUserPasswords() {
-        return this.userPasswords;
+    public List<StoredPassword> getUserPasswords() {
+        if (this.passwordsView == null) {
+            compactSlots();
+            StoredPassword[] entries = new StoredPassword[this.passwordSlots.size()];
+            for (int i = 0; i < entries.length; i++) {
+                entries[i] = this.passwordSlots.get(i).entry;
+            }
+            this.passwordsView = Collections.unmodifiableList(Arrays.asList(entries));
+        }
+        return this.passwordsView;
     }
 
     /**
      * Gets a list of StoredPasswords containing the searchString of the 
-     * specified filter.
+     * specified filter, ignoring case, in the order they were added. Title 
+     * and website searches of at least TrigramIndex.GRAM_LENGTH characters 
+     * are answered from the trigram indexes, anything else scans all entries.
      * @param searchString string used to search for entries.
      * @param filter PasswordSearchFilter that gets the required property to 
      * search for.
@@ -174,8 +257,12 @@ public class PasswordStorage {
      * none are found.
      */
     public ArrayList<StoredPassword> getUserPasswords(String searchString, PasswordSearchFilter filter) {
+        TrigramIndex index = indexFor(filter, searchString);
+        if (index != null) {
+            return findIndexed(index.search(searchString));
+        }
         ArrayList<StoredPassword> passwords = new ArrayList<>();
-        for (StoredPassword userPassword : this.userPasswords) {
+        for (StoredPassword userPassword : getUserPasswords()) {
             if (filter.getProperty(userPassword).toLowerCase().contains(searchString.toLowerCase())) {
                 passwords.add(userPassword);
             }
@@ -183,6 +270,310 @@ public class PasswordStorage {
         return passwords;
     }
 
+    /**
+     * Counts a use of an entry, e.g. viewing its details or revealing its 
+     * password.
+     * @param id id of the entry used.
+     */
+    public void recordAccess(int id) {
+        if (this.passwordsById.containsKey(id)) {
+            this.usage.record(id);
+            this.usageChanged = true;
+        }
+    }
+
+    /**
+     * Gets the entire list of StoredPasswords, most used first (see 
+     * AccessSketch). Entries used equally often, including all that were 
+     * never used, stay in the order they were added. The order is worked out
+     * a page at a time as the list is read (see UsageOrder), so only the
+     * pages shown are ordered.
+     * @param pageSize number of entries read at a time.
+     * @return list of stored passwords, valid until entries are added or
+     * removed.
+     */
+    public UsageOrder getUserPasswordsByUsage(int pageSize) {
+        return new UsageOrder(getUserPasswords(), this.usage, pageSize);
+    }
+
+    /**
+     * Gets the StoredPasswords used most often, selected with a bounded 
+     * min-heap so the cost is O(n log limit).
+     * @param limit most entries to get.
+     * @return up to limit entries that have been used, most used first.
+     */
+    public ArrayList<StoredPassword> getMostUsedPasswords(int limit) {
+        final List<StoredPassword> entries = getUserPasswords();
+        final int[] counts = new int[entries.size()];
+        Comparator<Integer> leastUsedFirst = new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                int byCount = Integer.compare(counts[a], counts[b]);
+                return byCount != 0 ? byCount : Integer.compare(b, a);
+            }
+        };
+        PriorityQueue<Integer> mostUsed = new PriorityQueue<>(Math.max(1, Math.min(limit, counts.length)), leastUsedFirst);
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = this.usage.estimate(entries.get(i).getId());
+            if (counts[i] == 0) {
+                continue;
+            }
+            if (mostUsed.size() < limit) {
+                mostUsed.add(i);
+            } else if (leastUsedFirst.compare(i, mostUsed.peek()) > 0) {
+                mostUsed.poll();
+                mostUsed.add(i);
+            }
+        }
+        StoredPassword[] passwords = new StoredPassword[mostUsed.size()];
+        for (int i = passwords.length - 1; i >= 0; i--) {
+            passwords[i] = entries.get(mostUsed.poll());
+        }
+        return new ArrayList<>(Arrays.asList(passwords));
+    }
+
+    /**
+     * Gets the StoredPasswords containing the searchString of the specified 
+     * filter, ignoring case, best matches first (see RankedSearch).
+     * @param searchString string used to search for entries.
+     * @param filter PasswordSearchFilter that gets the required property to 
+     * search for.
+     * @return the results, to be read a page at a time.
+     */
+    public RankedSearch getRankedPasswords(String searchString, PasswordSearchFilter filter) {
+        return new RankedSearch(getUserPasswords(searchString, filter), searchString, filter, this.usage, LocalDateTime.now());
+    }
+
+    /**
+     * Gets a list of StoredPasswords matching a query, in the order they were 
+     * added. The query's plan decides which index supplies the candidates 
+     * (see VaultQuery.plan); each candidate is then checked against the whole
+     * query. Without a usable index all entries are checked.
+     * @param query parsed query.
+     * @return a list of matching StoredPasswords. Empty if none are found.
+     */
+    public ArrayList<StoredPassword> getUserPasswords(VaultQuery query) {
+        int[] candidates = query.plan(this);
+        List<StoredPassword> entries = candidates == null ? getUserPasswords() : findIndexed(candidates);
+        ArrayList<StoredPassword> passwords = new ArrayList<>();
+        for (StoredPassword userPassword : entries) {
+            if (query.matches(userPassword, this)) {
+                passwords.add(userPassword);
+            }
+        }
+        return passwords;
+    }
+
+    /**
+     * Gets the trigram index that can answer a search.
+     * @param filter filter of the search.
+     * @param searchString string searched for.
+     * @return the index, or null if the filter has no index or the string is 
+     * too short for one.
+     */
+    private TrigramIndex indexFor(PasswordSearchFilter filter, String searchString) {
+        if (searchString.toLowerCase().length() < TrigramIndex.GRAM_LENGTH) {
+            return null;
+        }
+        if (filter instanceof TitleSearchFilter) {
+            return this.titleIndex;
+        } else if (filter instanceof WebsiteSearchFilter) {
+            return this.websiteIndex;
+        }
+        return null;
+    }
+
+    /**
+     * Estimates how many entries an indexed search would find, for planning 
+     * queries.
+     * @param filter filter of the search.
+     * @param searchString string searched for.
+     * @return an upper bound, or VaultQuery.UNINDEXED if no index can answer 
+     * the search.
+     */
+    int estimateIndexed(PasswordSearchFilter filter, String searchString) {
+        TrigramIndex index = indexFor(filter, searchString);
+        return index == null ? VaultQuery.UNINDEXED : index.estimate(searchString);
+    }
+
+    /**
+     * Gets the ids an indexed search finds, for running queries.
+     * @param filter filter of the search, see estimateIndexed.
+     * @param searchString string searched for.
+     * @return ids of the matching entries in ascending order.
+     */
+    int[] findIndexedIds(PasswordSearchFilter filter, String searchString) {
+        return indexFor(filter, searchString).search(searchString);
+    }
+
+    /**
+     * Gets the ids of the entries on a domain or its subdomains, for running 
+     * queries.
+     * @param host lowercase domain.
+     * @return ids of the entries, in no particular order.
+     */
+    int[] findIdsOnDomain(String host) {
+        return this.hostIndex.findUnder(host);
+    }
+
+    /**
+     * Gets the StoredPasswords that were updated longest ago.
+     * @param limit most entries to get.
+     * @return up to limit entries, least recently updated first.
+     */
+    public ArrayList<StoredPassword> getOldestPasswords(int limit) {
+        return this.updatedView.first(limit);
+    }
+
+    /**
+     * Gets the most recently updated StoredPasswords.
+     * @param limit most entries to get.
+     * @return up to limit entries, most recently updated first.
+     */
+    public ArrayList<StoredPassword> getNewestPasswords(int limit) {
+        return this.updatedView.last(limit);
+    }
+
+    /**
+     * Gets StoredPasswords in alphabetical order of their title, ignoring 
+     * case.
+     * @param limit most entries to get.
+     * @return up to limit entries, sorted by title.
+     */
+    public ArrayList<StoredPassword> getPasswordsByTitle(int limit) {
+        return this.titleView.first(limit);
+    }
+
+    /**
+     * Gets StoredPasswords in alphabetical order of their website's 
+     * hostname, or of the website itself if it has none, ignoring case.
+     * @param limit most entries to get.
+     * @return up to limit entries, sorted by website.
+     */
+    public ArrayList<StoredPassword> getPasswordsByWebsite(int limit) {
+        return this.websiteView.first(limit);
+    }
+
+    /**
+     * Gets the StoredPasswords last updated within a period.
+     * @param from start of the period, or null for no start.
+     * @param to end of the period, not included, or null for no end.
+     * @return the entries, least recently updated first.
+     */
+    public ArrayList<StoredPassword> getPasswordsUpdatedBetween(LocalDateTime from, LocalDateTime to) {
+        return this.updatedView.range(from, to);
+    }
+
+    /**
+     * Estimates how many entries were last updated within a period, for 
+     * planning queries.
+     * @param from start of the period, or null for no start.
+     * @param to end of the period, not included, or null for no end.
+     * @return the number of entries, or VaultQuery.UNINDEXED if the period 
+     * holds too many of them for the range to be worth using.
+     */
+    int estimateUpdatedBetween(LocalDateTime from, LocalDateTime to) {
+        int limit = this.passwordsById.size() / RANGE_SCAN_FRACTION;
+        int count = this.updatedView.count(from, to, limit + 1);
+        return count > limit ? VaultQuery.UNINDEXED : count;
+    }
+
+    /**
+     * Gets the ids of the entries last updated within a period, for running 
+     * queries.
+     * @param from start of the period, or null for no start.
+     * @param to end of the period, not included, or null for no end.
+     * @return ids of the entries in ascending order.
+     */
+    int[] findIdsUpdatedBetween(LocalDateTime from, LocalDateTime to) {
+        int[] ids = this.updatedView.rangeIds(from, to);
+        Arrays.sort(ids);
+        return ids;
+    }
+
+    /**
+     * Gets a list of StoredPasswords whose title and website contain every 
+     * word of the searchString, allowing for typos (see BKTree.search). 
+     * Closest matches come first, ties in the order they were added.
+     * @param searchString words to search for.
+     * @param maxDistance typos allowed per word, between 0 and 
+     * BKTree.MAX_DISTANCE.
+     * @return a list of matching StoredPasswords. Empty if none are found.
+     */
+    public ArrayList<StoredPassword> getUserPasswordsFuzzy(String searchString, int maxDistance) {
+        final ArrayList<BKTree.Match> matches = this.fuzzyIndex.search(searchString, maxDistance);
+        final IntObjectMap<Slot> slots = this.passwordsById;
+        matches.sort(new Comparator<BKTree.Match>() {
+            @Override
+            public int compare(BKTree.Match a, BKTree.Match b) {
+                int byDistance = Integer.compare(a.getDistance(), b.getDistance());
+                if (byDistance != 0) {
+                    return byDistance;
+                }
+                return Slot.BY_SEQUENCE.compare(slots.get(a.getId()), slots.get(b.getId()));
+            }
+        });
+        ArrayList<StoredPassword> passwords = new ArrayList<>(matches.size());
+        for (BKTree.Match match : matches) {
+            passwords.add(slots.get(match.getId()).entry);
+        }
+        return passwords;
+    }
+
+    /**
+     * Gets a list of StoredPasswords whose website is on the specified domain 
+     * or any of its subdomains, in the order they were added. Searching for 
+     * example.com finds example.com, login.example.com and so on.
+     * @param domain domain to search for. A scheme, port or leading "*." is 
+     * ignored.
+     * @return a list of StoredPasswords on the domain. Empty if none are found
+     * or the domain isn't a valid hostname.
+     */
+    public ArrayList<StoredPassword> getUserPasswordsOnDomain(String domain) {
+        String trimmed = domain.trim();
+        if (trimmed.startsWith("*.")) {
+            trimmed = trimmed.substring(2);
+        }
+        String host = StoredPassword.parseHost(trimmed);
+        if (host == null) {
+            return new ArrayList<>();
+        }
+        return findIndexed(this.hostIndex.findUnder(host));
+    }
+
+    /**
+     * Gets the registrable domain of a website (see PublicSuffixList), e.g.
+     * example.com for https://login.example.com.
+     * @param website website to get the domain of.
+     * @return the registrable domain, or null if the website isn't valid or
+     * its top-level domain isn't covered by the list.
+     */
+    public static String getRegistrableDomain(String website) {
+        String host = StoredPassword.parseHost(website);
+        if (host == null) {
+            return null;
+        }
+        return PublicSuffixList.getDefault().getRegistrableDomain(host);
+    }
+
+    /**
+     * Looks up the entries found in an index, in the order they were added.
+     * @param ids ids of the entries.
+     * @return list of the entries.
+     */
+    private ArrayList<StoredPassword> findIndexed(int[] ids) {
+        ArrayList<Slot> slots = new ArrayList<>(ids.length);
+        for (int id : ids) {
+            slots.add(this.passwordsById.get(id));
+        }
+        slots.sort(Slot.BY_SEQUENCE);
+        ArrayList<StoredPassword> passwords = new ArrayList<>(slots.size());
+        for (Slot slot : slots) {
+            passwords.add(slot.entry);
+        }
+        return passwords;
+    }
+
     /**
      * Finds the specified StoredPassword by id.
      * @param id id of the StoredPassword which is being searched for.
@@ -190,26 +581,118 @@ public class PasswordStorage {
      * returned.
      */
     private StoredPassword findStoredPassword(int id) {
-        for (StoredPassword userPassword : this.userPasswords) {
-            if (userPassword.getId() == id) {
+        Slot slot = this.passwordsById.get(id);
+        if (slot != null) {
+            return slot.entry;
+        }
+        return null;
+    }
+
+    /**
+     * Finds the last added StoredPassword that hasn't been removed.
+     * @return null if there are no entries, otherwise the latest entry.
+     */
+    private StoredPassword findLatestPassword() {
+        for (int i = this.passwordSlots.size() - 1; i >= 0; i--) {
+            StoredPassword userPassword = this.passwordSlots.get(i).entry;
+            if (userPassword != null) {
                 return userPassword;
             }
         }
         return null;
     }
 
+    /**
+     * Adds an entry after all others, or replaces the entry with the same id 
+     * in its place.
+     * @param userPassword entry to be stored.
+     */
+    private void putStoredPassword(StoredPassword userPassword) {
+        Slot slot = this.passwordsById.get(userPassword.getId());
+        if (slot == null) {
+            slot = new Slot();
+            slot.sequence = this.nextSequence++;
+            this.passwordSlots.add(slot);
+            this.passwordsById.put(userPassword.getId(), slot);
+        } else {
+            this.reuseIndex.remove(slot.entry.getPassword());
+        }
+        slot.entry = userPassword;
+        this.reuseIndex.add(userPassword.getPassword());
+        this.titleIndex.put(userPassword.getId(), userPassword.getTitle());
+        this.websiteIndex.put(userPassword.getId(), userPassword.getWebsite());
+        this.fuzzyIndex.put(userPassword.getId(), userPassword.getTitle(), userPassword.getWebsite());
+        this.hostIndex.put(userPassword.getId(), userPassword.getHost());
+        putSortedViews(userPassword);
+        this.passwordsView = null;
+    }
+
+    /**
+     * Moves an entry to its place in the sorted views after it changed. Every
+     * change updates the entry's lastUpdated, so it always moves in 
+     * updatedView.
+     * @param userPassword entry that changed.
+     */
+    private void putSortedViews(StoredPassword userPassword) {
+        this.updatedView.put(userPassword, userPassword.getLastUpdated());
+        this.titleView.put(userPassword, Utilities.foldCase(userPassword.getTitle()));
+        String host = userPassword.getHost();
+        this.websiteView.put(userPassword, host != null ? host : Utilities.foldCase(userPassword.getWebsite()));
+    }
+
+    /**
+     * Removes an entry from the index and empties its slot. Empty slots are 
+     * dropped once they outnumber the entries, or when the list is needed.
+     * @param id id of the entry to be removed.
+     * @return true if found and removed, false if not found.
+     */
+    private boolean removeStoredPassword(int id) {
+        Slot slot = this.passwordsById.remove(id);
+        if (slot == null) {
+            return false;
+        }
+        this.reuseIndex.remove(slot.entry.getPassword());
+        this.titleIndex.remove(id);
+        this.websiteIndex.remove(id);
+        this.fuzzyIndex.remove(id);
+        this.hostIndex.remove(id);
+        this.updatedView.remove(id);
+        this.titleView.remove(id);
+        this.websiteView.remove(id);
+        slot.entry = null;
+        this.removedSlots++;
+        this.passwordsView = null;
+        if (this.removedSlots > this.passwordsById.size()) {
+            compactSlots();
+        }
+        return true;
+    }
+
+    /**
+     * Drops empty slots, keeping the order of the others.
+     */
+    private void compactSlots() {
+        if (this.removedSlots == 0) {
+            return;
+        }
+        int kept = 0;
+        for (int i = 0; i < this.passwordSlots.size(); i++) {
+            Slot slot = this.passwordSlots.get(i);
+            if (slot.entry != null) {
+                this.passwordSlots.set(kept++, slot);
+            }
+        }
+        this.passwordSlots.subList(kept, this.passwordSlots.size()).clear();
+        this.removedSlots = 0;
+    }
+
     /**
      * Checks whether the specified password is used in any of the entries.
      * @param password password to check for.
      * @return true if password has been used in at least one of the entries.
      */
     public boolean isPasswordUsed(String password) {
-        for (StoredPassword userPassword : this.userPasswords) {
-            if (userPassword.getPassword().equals(password)) {
-                return true;
-            }
-        }
-        return false;
+        return this.reuseIndex.count(password) >= 1;
     }
 
     /**
@@ -218,76 +701,256 @@ public class PasswordStorage {
      * @return true if the password has been used in at least two entries.
      */
     public boolean isDuplicate(String password) {
-        int count = 0;
-        for (StoredPassword userPassword : this.userPasswords) {
-            if (userPassword.getPassword().equals(password)) {
-                count++;
-                if(count >= 2) {
-                    return true;
-                }
+        return this.reuseIndex.count(password) >= 2;
+    }
+
+    /**
+     * Gets all entries that fail the current title, website or password 
+     * checks, e.g. passwords that have since been added to the common list.
+     * @return list of invalid StoredPasswords. Empty if all are valid.
+     */
+    public ArrayList<StoredPassword> auditPasswords() {
+        ArrayList<StoredPassword> invalid = new ArrayList<>();
+        for (StoredPassword userPassword : getUserPasswords()) {
+            if (userPassword.getValidationError() != null) {
+                invalid.add(userPassword);
             }
         }
-        return false;
+        return invalid;
+    }
+
+    /**
+     * Records a change to an entry in the journal, if one is open. If the 
+     * record can't be written the next commit writes a full snapshot instead.
+     * @param op journal operation.
+     * @param userPassword entry after the change.
+     */
+    private void journal(char op, StoredPassword userPassword) {
+        if (this.journal != null && !this.journalFailed) {
+            try {
+                this.journal.append(op, userPassword);
+            } catch (IOException | CipherException e) {
+                this.journalFailed = true;
+            }
+        }
+    }
+
+    /**
+     * Records the removal of an entry in the journal, if one is open.
+     * @param id id of the removed entry.
+     */
+    private void journalRemove(int id) {
+        if (this.journal != null && !this.journalFailed) {
+            try {
+                this.journal.appendRemove(id);
+            } catch (IOException | CipherException e) {
+                this.journalFailed = true;
+            }
+        }
+    }
+
+    /**
+     * Persists all changes made since the last commit. Normally only the
+     * journal records of those changes are written and forced to disk, so
+     * the cost doesn't depend on the vault size. A full snapshot is written
+     * instead if there is no journal yet, a journal write failed, or the
+     * journal has grown past the compaction threshold. Nothing is written if
+     * the journal was found damaged on read, as a snapshot would replace the
+     * records it still holds.
+     * @param filePath path of the vault file.
+     * @param key key to be used to encrypt the changes.
+     * @return true if no exception occurred while writing out.
+     */
+    public boolean commitChanges(String filePath, String key) {
+        if (this.journalDamaged) {
+            return false;
+        }
+        writeUsage(filePath, key);
+        if (this.journal == null || this.journalFailed || needsCompaction()) {
+            return readPasswordsOut(filePath, key);
+        }
+        try {
+            this.journal.sync();
+        } catch (IOException e) {
+            return readPasswordsOut(filePath, key);
+        }
+        return true;
+    }
+
+    /**
+     * Saves the usage counts next to the vault file if they changed. Usage 
+     * only orders listings, so failing to save it is not an error.
+     * @param filePath path of the vault file.
+     * @param key key to be used to encrypt the counts.
+     */
+    private void writeUsage(String filePath, String key) {
+        if (!this.usageChanged) {
+            return;
+        }
+        try {
+            this.usage.write(AccessSketch.forVault(filePath), key);
+            this.usageChanged = false;
+        } catch (IOException | CipherException ignored) {
+        }
+    }
+
+    /**
+     * Checks whether the journal has grown enough to be folded into a new 
+     * snapshot.
+     * @return true if the journal passed the compaction threshold.
+     */
+    private boolean needsCompaction() {
+        long journalBytes = this.journal.length();
+        return journalBytes > MIN_COMPACTION_BYTES && journalBytes > this.snapshotBytes * COMPACTION_RATIO;
+    }
+
+    /**
+     * Opens a new empty journal next to the vault file, closing the old one.
+     * @param filePath path of the vault file.
+     * @param key key to be used to encrypt journal records.
+     * @param validLength length of the existing journal to keep, 0 to start
+     * a new journal for the current snapshot.
+     */
+    private void openJournal(String filePath, String key, long validLength) {
+        closeJournal();
+        try {
+            this.journal = new PasswordJournal(PasswordJournal.forVault(filePath), key, this.snapshotId, validLength);
+            this.journalFailed = false;
+        } catch (IOException e) {
+            this.journal = null;
+        }
+    }
+
+    /**
+     * Flushes and closes the journal, if one is open. Changes made after 
+     * this are only persisted by the next full snapshot.
+     */
+    public void closeJournal() {
+        if (this.journal != null) {
+            try {
+                this.journal.close();
+            } catch (IOException ignored) {
+            }
+            this.journal = null;
+        }
     }
 
     /**
      * Encrypts using AES and the specified key, and writes all 
-     * storedPasswords into the specified file in filePath in CSV format.
+     * storedPasswords into the specified file in CSV format, split into 
+     * independently encrypted frames (see VaultFile). The journal is then 
+     * emptied, as the snapshot holds all of its changes. If that is cut 
+     * short by a crash, the journal left behind still has the old snapshot 
+     * id and is skipped on the next read. Nothing is written 
+     * if the journal was found damaged on read.
      * @param filePath path of where to write the passwords to.
      * @param key key to be used to encrypt the string in file.
      * @return true if no exception occurred while writing out.
      */
     public boolean readPasswordsOut(String filePath, String key) {
-        StringBuilder allStoredPasswords = new StringBuilder();
-        for (StoredPassword userPassword : this.userPasswords) {
-            allStoredPasswords.append(userPassword.toCSVLine()).append("\n");
+        if (this.journalDamaged) {
+            return false;
         }
-        allStoredPasswords = new StringBuilder(Cipher.encryptString(allStoredPasswords.toString(), key));
-        try (FileWriter fileInput = new FileWriter(new File(filePath))) {
-            fileInput.write(allStoredPasswords.toString());
-        } catch (IOException e) {
+        File file = new File(filePath);
+        try {
+            this.snapshotId = VaultFile.write(file, getUserPasswords(), key);
+        } catch (IOException | CipherException e) {
             return false;
         }
+        this.snapshotBytes = file.length();
+        openJournal(filePath, key, 0);
         return true;
     }
 
     /**
-     * Reads specified text file and decrypts it and adds each entry to the 
-     * password storage. If there is an error with an entry, it skips it 
-     * and goes on to the next one.
+     * Reads specified vault file and decrypts it and adds each entry to the 
+     * password storage, then replays the changes recorded in its journal. 
+     * Both the framed and the legacy single line formats are read. If there 
+     * is an error with an entry, it skips it and goes on to the next one. 
+     * Entries of authenticated content, the current vault format and the 
+     * journal, are not re-validated, use auditPasswords to check them 
+     * against the current rules. Entries of older unauthenticated formats 
+     * are validated and skipped if invalid (see VaultFile.read). A journal with a damaged record fails the read and 
+     * is left untouched, and nothing is written back to the vault until it 
+     * is read successfully, so the records after the damage aren't lost.
      * @param filePath path of where to read the password from.
      * @param key key to be used to decrypt the string in file.
      * @return true if file was found, encrypted string was decrypted
      * and it successfully read in.
      */
     public boolean readPasswordsIn(String filePath, String key) {
-
         File file = new File(filePath);
-        try (
-                Scanner fileIn = new Scanner(file);
-                Scanner source = new Scanner(Cipher.decryptString(fileIn.nextLine(), key))
-        ) {
-            source.useDelimiter("[,\n]");
-            int passwordId;
-            String title, website, password;
-            LocalDateTime lastUpdated;
-            while (source.hasNextLine() && source.hasNext()) {
-                try {
-                    passwordId = source.nextInt();
-                    title = source.next().replaceAll("&#44;", ",").replaceAll("&#10;", "\n").replaceAll("&#13;", "\r");
-                    website = source.next().replaceAll("&#44;", ",").replaceAll("&#10;", "\n").replaceAll("&#13;", "\r");
-                    password = source.next().replaceAll("&#44;", ",").replaceAll("&#10;", "\n").replaceAll("&#13;", "\r");
-                    lastUpdated = LocalDateTime.parse(source.next().replaceAll("&#44;", ",").replaceAll("&#10;", "\n").replaceAll("&#13;", "\r"));
-                    this.userPasswords.add(new StoredPassword(passwordId, title, website, password, lastUpdated));
-                } catch (NoSuchElementException | IllegalArgumentException | DateTimeParseException e) {
-                    if (source.hasNextLine()) {
-                        source.nextLine();
-                    }
-                }
+        long journalBytes;
+        try {
+            ArrayList<StoredPassword> entries = new ArrayList<>();
+            this.snapshotId = VaultFile.read(file, key, entries);
+            for (StoredPassword userPassword : entries) {
+                putStoredPassword(userPassword);
             }
-        } catch (FileNotFoundException | NoSuchElementException | IllegalArgumentException | CipherException e) {
+        } catch (IOException | IllegalArgumentException | CipherException e) {
+            return false;
+        }
+        try {
+            journalBytes = PasswordJournal.replay(PasswordJournal.forVault(filePath), key, this.snapshotId, new JournalReplay());
+        } catch (IOException | IllegalArgumentException | CipherException e) {
+            this.journalDamaged = true;
             return false;
         }
+        this.journalDamaged = false;
+        this.snapshotBytes = file.length();
+        openJournal(filePath, key, journalBytes);
+        readUsage(filePath, key);
         return true;
     }
+
+    /**
+     * Loads the usage counts saved next to the vault file. Missing or 
+     * unreadable counts start again from zero.
+     * @param filePath path of the vault file.
+     * @param key key to be used to decrypt the counts.
+     */
+    private void readUsage(String filePath, String key) {
+        File file = AccessSketch.forVault(filePath);
+        if (!file.exists()) {
+            return;
+        }
+        try {
+            this.usage = AccessSketch.read(file, key);
+        } catch (IOException | CipherException ignored) {
+        }
+    }
+
+    /**
+     * Applies replayed journal records to the stored passwords.
+     */
+    private class JournalReplay implements PasswordJournal.Listener {
+
+        @Override
+        public void put(char op, StoredPassword entry) {
+            putStoredPassword(entry);
+        }
+
+        @Override
+        public void remove(int id) {
+            removeStoredPassword(id);
+        }
+    }
+
+    /**
+     * Position of an entry in the order entries were added in. The entry is 
+     * null once it has been removed; the sequence number orders slots 
+     * without depending on where they are in the list.
+     */
+    private static class Slot {
+
+        static final Comparator<Slot> BY_SEQUENCE = new Comparator<Slot>() {
+            @Override
+            public int compare(Slot a, Slot b) {
+                return Long.compare(a.sequence, b.sequence);
+            }
+        };
+
+        StoredPassword entry;
+        long sequence;
+    }
 }
@@ -0,0 +1,94 @@
+
+import java.security.NoSuchAlgorithmException;
+import java.security.spec.InvalidKeySpecException;
+import java.util.Properties;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+/**
+ * Pbkdf2Function class.
+ *
+ * <p>
+ * PBKDF2 key derivation through a JCE SecretKeyFactory, such as the default
+ * PBKDF2WithHmacSHA512. Its cost is the iteration count alone.
+ * </p>
+ *
+ * @author Luke Halpenny & Andrej Gorochov
+ * @version 1.0
+ */
+public class Pbkdf2Function implements KeyDerivationFunction {
+
+    public static final String KEY_ITERATIONS = "kdfIterations";
+
+    private final String algorithm;
+    private final int iterations;
+
+    /**
+     * @param algorithm SecretKeyFactory algorithm.
+     * @param iterations number of iterations.
+     * @throws PasswordException if the algorithm is null or the iteration count isn't positive.
+     */
+    public Pbkdf2Function(String algorithm, int iterations) {
+        if (algorithm == null) {
+            throw new PasswordException(Password.ERROR_BAD_ALGORITHM);
+        }
+        if (iterations < 1) {
+            throw new PasswordException(Password.ERR_BAD_ITERATIONS);
+        }
+        this.algorithm = algorithm;
+        this.iterations = iterations;
+    }
+
+    /**
+     * Reads the parameters stored by writeParameters. Missing parameters take
+     * the values used before they were stored.
+     *
+     * @param properties properties to read.
+     * @return the function, or null if a parameter is malformed.
+     */
+    public static Pbkdf2Function readParameters(Properties properties) {
+        String algorithm = properties.getProperty(KEY_ALGORITHM, Password.KEY_FACTORY_TYPE);
+        int iterations = Utilities.parsePositiveInt(properties.getProperty(KEY_ITERATIONS), Password.ITERATIONS);
+        return iterations > 0 ? new Pbkdf2Function(algorithm, iterations) : null;
+    }
+
+    /**
+     * @return number of iterations.
+     */
+    public int getIterations() {
+        return this.iterations;
+    }
+
+    @Override
+    public String getAlgorithm() {
+        return this.algorithm;
+    }
+
+    @Override
+    public byte[] derive(char[] password, byte[] salt, int keyBytes) {
+        try {
+            SecretKeyFactory factory = SecretKeyFactory.getInstance(this.algorithm);
+            PBEKeySpec spec = new PBEKeySpec(password, salt, this.iterations, keyBytes * Cipher.BITS_PER_BYTE);
+            try {
+                return factory.generateSecret(spec).getEncoded();
+            } finally {
+                spec.clearPassword();
+            }
+        } catch (NoSuchAlgorithmException e) {
+            throw new PasswordException(Password.ERROR_BAD_ALGORITHM);
+        } catch (InvalidKeySpecException e) {
+            throw new PasswordException(Password.ERROR_BAD_SPEC);
+        }
+    }
+
+    @Override
+    public boolean isBelowPolicy() {
+        return !Password.KEY_FACTORY_TYPE.equals(this.algorithm) || this.iterations < Password.MIN_ITERATIONS;
+    }
+
+    @Override
+    public void writeParameters(Properties properties) {
+        properties.setProperty(KEY_ALGORITHM, this.algorithm);
+        properties.setProperty(KEY_ITERATIONS, Integer.toString(this.iterations));
+    }
+}
@@ -0,0 +1,192 @@
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.InputStream;
+import java.util.HashSet;
+import java.util.Scanner;
+
+/**
+ * PublicSuffixList class.
+ *
+ * <p>
+ * Finds the registrable domain of a hostname: the part a single owner
+ * controls, one label more than its public suffix. Both login.example.com
+ * and www.example.com belong to example.com, while alice.github.io and
+ * bob.github.io are different sites. The rules are read once from
+ * PUBLIC_SUFFIX_PATH into hash sets, so a lookup only hashes each suffix of
+ * the hostname.
+ * </p>
+ *
+ * <p>
+ * The shipped rules are a subset of the Public Suffix List. Rather than
+ * guess with the list's default "*" rule, which would make co.th the
+ * registrable domain of shop.co.th, a hostname under a top-level domain
+ * that no rule covers has no registrable domain.
+ * </p>
+ *
+ * @author Luke Halpenny & Andrej Gorochov
+ * @version 1.0
+ */
+public final class PublicSuffixList {
+
+    public static final String PUBLIC_SUFFIX_PATH = "/resources/public_suffix.txt";
+
+    private final HashSet<String> rules;
+    private final HashSet<String> wildcards;
+    private final HashSet<String> exceptions;
+
+    /**
+     * Creates an empty list, under which no hostname has a registrable
+     * domain.
+     */
+    public PublicSuffixList() {
+        this.rules = new HashSet<>();
+        this.wildcards = new HashSet<>();
+        this.exceptions = new HashSet<>();
+    }
+
+    /**
+     * Gets the list shipped with the application, reading it on first use.
+     * If the list can't be found no hostname has a registrable domain.
+     *
+     * @return the shared list.
+     */
+    public static PublicSuffixList getDefault() {
+        return DefaultHolder.LIST;
+    }
+
+    /**
+     * Lazily reads the shipped list the first time it is needed.
+     */
+    private static class DefaultHolder {
+
+        static final PublicSuffixList LIST = readDefault();
+
+        /**
+         * Reads the list from the classpath if available and from the
+         * working directory otherwise.
+         *
+         * @return the list, empty if it can't be found.
+         */
+        private static PublicSuffixList readDefault() {
+            PublicSuffixList list = new PublicSuffixList();
+            InputStream stream = PublicSuffixList.class.getResourceAsStream(PUBLIC_SUFFIX_PATH);
+            if (stream != null) {
+                try (Scanner scanner = new Scanner(stream, "UTF-8")) {
+                    list.addRules(scanner);
+                }
+            } else {
+                try (Scanner scanner = new Scanner(new File("." + PUBLIC_SUFFIX_PATH), "UTF-8")) {
+                    list.addRules(scanner);
+                } catch (FileNotFoundException ignored) {
+                }
+            }
+            return list;
+        }
+    }
+
+    /**
+     * Adds rules in the Public Suffix List format, one per line. Blank lines
+     * and lines starting with // are skipped.
+     *
+     * @param scanner scanner over the rules.
+     */
+    public void addRules(Scanner scanner) {
+        while (scanner.hasNextLine()) {
+            addRule(scanner.nextLine());
+        }
+    }
+
+    /**
+     * Adds a rule: a suffix such as co.uk, a wildcard such as *.ck matching
+     * any label under ck, or an exception such as !www.ck to a wildcard.
+     *
+     * @param line rule to add. Anything after the first whitespace is ignored.
+     */
+    public void addRule(String line) {
+        String rule = line.trim();
+        if (rule.isEmpty() || rule.startsWith("//")) {
+            return;
+        }
+        int end = 0;
+        while (end < rule.length() && !Character.isWhitespace(rule.charAt(end))) {
+            end++;
+        }
+        rule = rule.substring(0, end).toLowerCase();
+        if (rule.startsWith("!")) {
+            this.exceptions.add(rule.substring(1));
+        } else if (rule.startsWith("*.")) {
+            this.wildcards.add(rule.substring(2));
+        } else {
+            this.rules.add(rule);
+        }
+    }
+
+    /**
+     * Gets the registrable domain of a hostname. The longest matching rule
+     * decides the public suffix, an exception taking precedence, and the
+     * registrable domain is the suffix with the label before it.
+     *
+     * @param host lowercase hostname, see StoredPassword.getHost.
+     * @return the registrable domain, the hostname itself if it is a public
+     *         suffix or an IPv4 address, or null if no rule covers it.
+     */
+    public String getRegistrableDomain(String host) {
+        String[] labels = host.split("\\.");
+        if (isIpAddress(labels)) {
+            return host;
+        }
+        int suffixLabels = 0;
+        int start = 0;
+        for (int i = 0; i < labels.length; i++) {
+            String suffix = host.substring(start);
+            if (this.exceptions.contains(suffix)) {
+                suffixLabels = labels.length - i - 1;
+                break;
+            }
+            if (this.rules.contains(suffix)) {
+                suffixLabels = labels.length - i;
+                break;
+            }
+            if (i + 1 < labels.length && this.wildcards.contains(host.substring(start + labels[i].length() + 1))) {
+                suffixLabels = labels.length - i;
+                break;
+            }
+            start += labels[i].length() + 1;
+        }
+        if (suffixLabels == 0) {
+            return null;
+        }
+        if (suffixLabels >= labels.length) {
+            return host;
+        }
+        int domainStart = 0;
+        for (int i = 0; i < labels.length - suffixLabels - 1; i++) {
+            domainStart += labels[i].length() + 1;
+        }
+        return host.substring(domainStart);
+    }
+
+    /**
+     * Checks whether hostname labels form an IPv4 address.
+     *
+     * @param labels labels of the hostname.
+     * @return true if there are four labels of only digits.
+     */
+    private static boolean isIpAddress(String[] labels) {
+        if (labels.length != 4) {
+            return false;
+        }
+        for (String label : labels) {
+            if (label.isEmpty() || label.length() > 3) {
+                return false;
+            }
+            for (int i = 0; i < label.length(); i++) {
+                if (!Character.isDigit(label.charAt(i))) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,178 @@
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * RankedSearch class.
+ *
+ * <p>
+ * Results of a search ordered by relevance and read a page at a time. How
+ * the property matches the search decides the order first: an exact match,
+ * then a prefix, then a match at the start of a word, then anywhere else.
+ * Within each of these, entries that are used more often (see AccessSketch)
+ * and were updated more recently come first, and equal scores keep the order
+ * the entries were added in.
+ * </p>
+ *
+ * <p>
+ * Pages are selected rather than sorted: each page keeps the best pageSize
+ * entries ranked after the previous page in a bounded min-heap, so a page
+ * costs O(n log pageSize) and results that are never looked at are never
+ * ordered.
+ * </p>
+ *
+ * @author Luke Halpenny & Andrej Gorochov
+ * @version 1.0
+ */
+public final class RankedSearch {
+
+    public static final double SCORE_EXACT = 3;
+    public static final double SCORE_PREFIX = 2;
+    public static final double SCORE_WORD = 1;
+    public static final double SCORE_SUBSTRING = 0;
+    // Recency and usage together add less than the gap between two kinds of
+    // match. Recency halves after RECENCY_DAYS, usage is half way at
+    // USAGE_HALF_COUNT uses.
+    public static final double RECENCY_WEIGHT = 0.5;
+    public static final double RECENCY_DAYS = 30;
+    public static final double USAGE_WEIGHT = 0.49;
+    public static final int USAGE_HALF_COUNT = 4;
+
+    private final StoredPassword[] entries;
+    private final double[] scores;
+    private final Comparator<Integer> worstFirst;
+    private int returned;
+    private int last;
+
+    /**
+     * Scores the matches of a search.
+     *
+     * @param matches entries matching the search, in the order they were added.
+     * @param searchString string searched for.
+     * @param filter filter of the searched property.
+     * @param usage counts of how often entries are used.
+     * @param now time to measure recency from.
+     */
+    RankedSearch(List<StoredPassword> matches, String searchString, PasswordSearchFilter filter, AccessSketch usage,
+                 LocalDateTime now) {
+        this.entries = matches.toArray(new StoredPassword[0]);
+        this.scores = new double[this.entries.length];
+        String query = searchString.toLowerCase();
+        for (int i = 0; i < this.entries.length; i++) {
+            this.scores[i] = matchScore(filter.getProperty(this.entries[i]).toLowerCase(), query)
+                    + RECENCY_WEIGHT * recency(this.entries[i].getLastUpdated(), now)
+                    + USAGE_WEIGHT * frequency(usage.estimate(this.entries[i].getId()));
+        }
+        final double[] scores = this.scores;
+        this.worstFirst = new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                int byScore = Double.compare(scores[a], scores[b]);
+                return byScore != 0 ? byScore : Integer.compare(b, a);
+            }
+        };
+        this.returned = 0;
+        this.last = -1;
+    }
+
+    /**
+     * @return number of results.
+     */
+    public int size() {
+        return this.entries.length;
+    }
+
+    /**
+     * @return true if some results haven't been returned by nextPage yet.
+     */
+    public boolean hasNext() {
+        return this.returned < this.entries.length;
+    }
+
+    /**
+     * Gets the next best results.
+     *
+     * @param pageSize most results to get.
+     * @return up to pageSize results, best first. Empty once all results have
+     *         been returned.
+     */
+    public ArrayList<StoredPassword> nextPage(int pageSize) {
+        int size = Math.min(pageSize, this.entries.length - this.returned);
+        ArrayList<StoredPassword> page = new ArrayList<>(Math.max(size, 0));
+        if (size <= 0) {
+            return page;
+        }
+        PriorityQueue<Integer> best = new PriorityQueue<>(size, this.worstFirst);
+        for (int i = 0; i < this.entries.length; i++) {
+            if (this.last >= 0 && this.worstFirst.compare(i, this.last) >= 0) {
+                continue;
+            }
+            if (best.size() < size) {
+                best.add(i);
+            } else if (this.worstFirst.compare(i, best.peek()) > 0) {
+                best.poll();
+                best.add(i);
+            }
+        }
+        int[] order = new int[best.size()];
+        for (int i = order.length - 1; i >= 0; i--) {
+            order[i] = best.poll();
+        }
+        for (int i : order) {
+            page.add(this.entries[i]);
+        }
+        this.last = order[order.length - 1];
+        this.returned += order.length;
+        return page;
+    }
+
+    /**
+     * Scores how a property matches a search.
+     *
+     * @param property lowercase property of an entry.
+     * @param query lowercase string searched for.
+     * @return SCORE_EXACT, SCORE_PREFIX, SCORE_WORD if the query starts a
+     *         word of the property, or SCORE_SUBSTRING otherwise.
+     */
+    static double matchScore(String property, String query) {
+        if (property.equals(query)) {
+            return SCORE_EXACT;
+        }
+        if (property.startsWith(query)) {
+            return SCORE_PREFIX;
+        }
+        for (int i = property.indexOf(query, 1); i > 0; i = property.indexOf(query, i + 1)) {
+            if (!Character.isLetterOrDigit(property.charAt(i - 1))) {
+                return SCORE_WORD;
+            }
+        }
+        return SCORE_SUBSTRING;
+    }
+
+    /**
+     * Scores how often an entry is used.
+     *
+     * @param count uses of the entry.
+     * @return 0 for an unused entry, rising towards 1 and reaching 0.5 at
+     *         USAGE_HALF_COUNT uses.
+     */
+    static double frequency(int count) {
+        return count / (double) (count + USAGE_HALF_COUNT);
+    }
+
+    /**
+     * Scores how recently an entry was updated.
+     *
+     * @param lastUpdated time the entry was last updated.
+     * @param now time to measure from.
+     * @return 1 for an entry updated now, halving every RECENCY_DAYS.
+     */
+    static double recency(LocalDateTime lastUpdated, LocalDateTime now) {
+        double days = Math.max(0, ChronoUnit.MINUTES.between(lastUpdated, now)) / (24.0 * 60);
+        return Math.pow(0.5, days / RECENCY_DAYS);
+    }
+}
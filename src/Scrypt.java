@@ -0,0 +1,410 @@
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Scrypt class.
+ *
+ * <p>
+ * Pure Java scrypt (RFC 7914), a memory-hard key derivation function. Each
+ * lane fills and then reads back a table of 128 * blockSize * memoryCost
+ * bytes in an order that depends on the password, so an attacker can't trade
+ * the memory for extra hardware cheaply the way they can with PBKDF2. The
+ * memory cost also sets the time cost: both scale with memoryCost *
+ * blockSize. Lanes are independent and are run in parallel on the common
+ * ForkJoinPool, so extra lanes multiply the attacker's work while the wall
+ * clock time on a machine with that many free cores stays close to one lane.
+ * </p>
+ *
+ * <p>
+ * New hashes use a single lane, so unlocking costs the same on any host, and
+ * a memory cost calibrated like PBKDF2's iterations (see
+ * Password.TARGET_MILLIS). Scrypt is only used for new hashes if the
+ * saps.kdf system property is set to scrypt (see Password.getDefaultKdf).
+ * </p>
+ *
+ * @author Luke Halpenny & Andrej Gorochov
+ * @version 1.0
+ */
+public class Scrypt implements KeyDerivationFunction {
+
+    public static final String ALGORITHM = "scrypt";
+    public static final String KEY_MEMORY_COST = "kdfMemoryCost";
+    public static final String KEY_BLOCK_SIZE = "kdfBlockSize";
+    public static final String KEY_LANES = "kdfLanes";
+    public static final int DEFAULT_BLOCK_SIZE = 8;
+    public static final int DEFAULT_LANES = 1;
+    // Cost policy. Hashes cheaper than this are redone on login. 16 MiB with
+    // the default block size.
+    public static final int MIN_MEMORY_COST = 1 << 14;
+    // 1 GiB with the default block size.
+    public static final int MAX_MEMORY_COST = 1 << 20;
+    public static final int MIN_BLOCK_SIZE = 8;
+    private static final String MAC_TYPE = "HmacSHA256";
+    private static final int HASH_BYTES = 32;
+    // 32-bit words in a 64 byte Salsa20 block.
+    private static final int BLOCK_WORDS = 16;
+
+    // Parameters picked by withDefaults, null until it is first called.
+    private static volatile Scrypt calibrated = null;
+
+    private final int memoryCost;
+    private final int blockSize;
+    private final int lanes;
+
+    /**
+     * @param memoryCost number of blocks in each lane's table, N in RFC 7914,
+     *                   a power of two greater than 1.
+     * @param blockSize block size factor, r in RFC 7914.
+     * @param lanes number of lanes, p in RFC 7914.
+     * @throws PasswordException if a parameter is out of range.
+     */
+    public Scrypt(int memoryCost, int blockSize, int lanes) {
+        if (memoryCost < 2 || Integer.bitCount(memoryCost) != 1
+                || blockSize < 1 || lanes < 1
+                || (long) blockSize * lanes >= 1 << 30
+                || (long) 128 * blockSize * memoryCost > Integer.MAX_VALUE) {
+            throw new PasswordException(Password.ERROR_BAD_SPEC);
+        }
+        this.memoryCost = memoryCost;
+        this.blockSize = blockSize;
+        this.lanes = lanes;
+    }
+
+    /**
+     * Gets scrypt with the default block size and lanes, and the memory cost
+     * that makes a derivation take about Password.TARGET_MILLIS on this host
+     * (see calibrate). The host is only measured once; later calls return the
+     * same parameters.
+     *
+     * @return scrypt with the default parameters for this host.
+     */
+    public static Scrypt withDefaults() {
+        Scrypt scrypt = calibrated;
+        if (scrypt == null) {
+            scrypt = new Scrypt(calibrate(Password.TARGET_MILLIS), DEFAULT_BLOCK_SIZE, DEFAULT_LANES);
+            calibrated = scrypt;
+        }
+        return scrypt;
+    }
+
+    /**
+     * Measures how long a derivation at MIN_MEMORY_COST takes on this host
+     * and doubles the memory cost while the time stays within targetMillis.
+     * The memory cost is kept between MIN_MEMORY_COST and MAX_MEMORY_COST,
+     * and a lane's table never takes more than half the heap. The fastest of
+     * Password.CALIBRATION_RUNS runs is used.
+     *
+     * @param targetMillis the time a derivation should take.
+     * @return calibrated memory cost.
+     */
+    public static int calibrate(long targetMillis) {
+        Scrypt probe = new Scrypt(MIN_MEMORY_COST, DEFAULT_BLOCK_SIZE, DEFAULT_LANES);
+        char[] probePassword = "calibration probe".toCharArray();
+        byte[] probeSalt = new byte[Password.SALT_BYTES];
+        long fastestNanos = Long.MAX_VALUE;
+        for (int run = 0; run < Password.CALIBRATION_RUNS; run++) {
+            long start = System.nanoTime();
+            probe.derive(probePassword, probeSalt, HASH_BYTES);
+            fastestNanos = Math.min(fastestNanos, System.nanoTime() - start);
+        }
+        long maxTableBytes = Runtime.getRuntime().maxMemory() / 2;
+        long targetNanos = targetMillis * 1_000_000L;
+        int memoryCost = MIN_MEMORY_COST;
+        while (memoryCost < MAX_MEMORY_COST && fastestNanos * 2 <= targetNanos
+                && 128L * DEFAULT_BLOCK_SIZE * memoryCost * 2 <= maxTableBytes) {
+            memoryCost *= 2;
+            fastestNanos *= 2;
+        }
+        return memoryCost;
+    }
+
+    /**
+     * Reads the parameters stored by writeParameters.
+     *
+     * @param properties properties to read.
+     * @return the function, or null if a parameter is missing or malformed.
+     */
+    public static Scrypt readParameters(Properties properties) {
+        int memoryCost = Utilities.parsePositiveInt(properties.getProperty(KEY_MEMORY_COST), -1);
+        int blockSize = Utilities.parsePositiveInt(properties.getProperty(KEY_BLOCK_SIZE), -1);
+        int lanes = Utilities.parsePositiveInt(properties.getProperty(KEY_LANES), -1);
+        try {
+            return new Scrypt(memoryCost, blockSize, lanes);
+        } catch (PasswordException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return number of blocks in each lane's table.
+     */
+    public int getMemoryCost() {
+        return this.memoryCost;
+    }
+
+    /**
+     * @return block size factor.
+     */
+    public int getBlockSize() {
+        return this.blockSize;
+    }
+
+    /**
+     * @return number of lanes.
+     */
+    public int getLanes() {
+        return this.lanes;
+    }
+
+    @Override
+    public String getAlgorithm() {
+        return ALGORITHM;
+    }
+
+    @Override
+    public byte[] derive(char[] password, byte[] salt, int keyBytes) {
+        ByteBuffer encoded = StandardCharsets.UTF_8.encode(CharBuffer.wrap(password));
+        byte[] passwordBytes = new byte[encoded.remaining()];
+        encoded.get(passwordBytes);
+        Arrays.fill(encoded.array(), (byte) 0);
+        int laneBytes = 128 * this.blockSize;
+        byte[] lanesIn = null;
+        try {
+            lanesIn = pbkdf2Once(passwordBytes, salt, laneBytes * this.lanes);
+            List<Lane> tasks = new ArrayList<>(this.lanes);
+            for (int i = 0; i < this.lanes; i++) {
+                tasks.add(new Lane(lanesIn, i * laneBytes, this.blockSize, this.memoryCost));
+            }
+            if (tasks.size() == 1) {
+                tasks.get(0).invoke();
+            } else {
+                ForkJoinPool.commonPool().invoke(new Lanes(tasks));
+            }
+            return pbkdf2Once(passwordBytes, lanesIn, keyBytes);
+        } finally {
+            Arrays.fill(passwordBytes, (byte) 0);
+            if (lanesIn != null) {
+                Arrays.fill(lanesIn, (byte) 0);
+            }
+        }
+    }
+
+    @Override
+    public boolean isBelowPolicy() {
+        return this.memoryCost < MIN_MEMORY_COST || this.blockSize < MIN_BLOCK_SIZE;
+    }
+
+    @Override
+    public void writeParameters(Properties properties) {
+        properties.setProperty(KEY_ALGORITHM, ALGORITHM);
+        properties.setProperty(KEY_MEMORY_COST, Integer.toString(this.memoryCost));
+        properties.setProperty(KEY_BLOCK_SIZE, Integer.toString(this.blockSize));
+        properties.setProperty(KEY_LANES, Integer.toString(this.lanes));
+    }
+
+    /**
+     * PBKDF2-HMAC-SHA256 with a single iteration, as scrypt uses it.
+     *
+     * @param password password bytes.
+     * @param salt salt bytes.
+     * @param length number of bytes to output.
+     * @return derived bytes.
+     */
+    private static byte[] pbkdf2Once(byte[] password, byte[] salt, int length) {
+        Mac mac;
+        try {
+            mac = Mac.getInstance(MAC_TYPE);
+            mac.init(new SecretKeySpec(password, MAC_TYPE));
+        } catch (NoSuchAlgorithmException | InvalidKeyException | IllegalArgumentException e) {
+            throw new PasswordException(Password.ERROR_BAD_SPEC);
+        }
+        byte[] output = new byte[length];
+        byte[] counter = new byte[Integer.BYTES];
+        for (int block = 1, written = 0; written < length; block++) {
+            mac.update(salt);
+            counter[0] = (byte) (block >>> 24);
+            counter[1] = (byte) (block >>> 16);
+            counter[2] = (byte) (block >>> 8);
+            counter[3] = (byte) block;
+            mac.update(counter);
+            byte[] hash = mac.doFinal();
+            int count = Math.min(HASH_BYTES, length - written);
+            System.arraycopy(hash, 0, output, written, count);
+            written += count;
+        }
+        return output;
+    }
+
+    /**
+     * Runs all lanes and waits for them.
+     */
+    private static final class Lanes extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List<Lane> lanes;
+
+        Lanes(List<Lane> lanes) {
+            this.lanes = lanes;
+        }
+
+        @Override
+        protected void compute() {
+            invokeAll(this.lanes);
+        }
+    }
+
+    /**
+     * Mixes one lane in place: ROMix in RFC 7914.
+     */
+    private static final class Lane extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final byte[] data;
+        private final int offset;
+        private final int blockSize;
+        private final int memoryCost;
+
+        Lane(byte[] data, int offset, int blockSize, int memoryCost) {
+            this.data = data;
+            this.offset = offset;
+            this.blockSize = blockSize;
+            this.memoryCost = memoryCost;
+        }
+
+        @Override
+        protected void compute() {
+            int words = 2 * this.blockSize * BLOCK_WORDS;
+            int[] x = new int[words];
+            int[] y = new int[words];
+            int[] scratch = new int[BLOCK_WORDS];
+            int[] table = new int[words * this.memoryCost];
+            for (int i = 0; i < words; i++) {
+                x[i] = readLittleEndian(this.data, this.offset + i * Integer.BYTES);
+            }
+            for (int i = 0; i < this.memoryCost; i++) {
+                System.arraycopy(x, 0, table, i * words, words);
+                blockMix(x, y, scratch, this.blockSize);
+                int[] swap = x;
+                x = y;
+                y = swap;
+            }
+            int mask = this.memoryCost - 1;
+            for (int i = 0; i < this.memoryCost; i++) {
+                int start = (x[words - BLOCK_WORDS] & mask) * words;
+                for (int k = 0; k < words; k++) {
+                    x[k] ^= table[start + k];
+                }
+                blockMix(x, y, scratch, this.blockSize);
+                int[] swap = x;
+                x = y;
+                y = swap;
+            }
+            for (int i = 0; i < words; i++) {
+                writeLittleEndian(this.data, this.offset + i * Integer.BYTES, x[i]);
+            }
+            Arrays.fill(table, 0);
+            Arrays.fill(y, 0);
+        }
+    }
+
+    /**
+     * BlockMix with Salsa20/8 from RFC 7914.
+     *
+     * @param in 2 * blockSize input blocks.
+     * @param out 2 * blockSize output blocks, even ones first.
+     * @param scratch one block of working space.
+     * @param blockSize block size factor.
+     */
+    private static void blockMix(int[] in, int[] out, int[] scratch, int blockSize) {
+        System.arraycopy(in, (2 * blockSize - 1) * BLOCK_WORDS, scratch, 0, BLOCK_WORDS);
+        for (int i = 0; i < 2 * blockSize; i++) {
+            int base = i * BLOCK_WORDS;
+            for (int k = 0; k < BLOCK_WORDS; k++) {
+                scratch[k] ^= in[base + k];
+            }
+            salsa8(scratch);
+            int target = ((i & 1) * blockSize + (i >>> 1)) * BLOCK_WORDS;
+            System.arraycopy(scratch, 0, out, target, BLOCK_WORDS);
+        }
+    }
+
+    /**
+     * Salsa20/8 core, applied to a block in place.
+     *
+     * @param b block of 16 words.
+     */
+    private static void salsa8(int[] b) {
+        int x0 = b[0], x1 = b[1], x2 = b[2], x3 = b[3];
+        int x4 = b[4], x5 = b[5], x6 = b[6], x7 = b[7];
+        int x8 = b[8], x9 = b[9], x10 = b[10], x11 = b[11];
+        int x12 = b[12], x13 = b[13], x14 = b[14], x15 = b[15];
+        for (int round = 0; round < 8; round += 2) {
+            // Columns
+            x4 ^= Integer.rotateLeft(x0 + x12, 7);
+            x8 ^= Integer.rotateLeft(x4 + x0, 9);
+            x12 ^= Integer.rotateLeft(x8 + x4, 13);
+            x0 ^= Integer.rotateLeft(x12 + x8, 18);
+            x9 ^= Integer.rotateLeft(x5 + x1, 7);
+            x13 ^= Integer.rotateLeft(x9 + x5, 9);
+            x1 ^= Integer.rotateLeft(x13 + x9, 13);
+            x5 ^= Integer.rotateLeft(x1 + x13, 18);
+            x14 ^= Integer.rotateLeft(x10 + x6, 7);
+            x2 ^= Integer.rotateLeft(x14 + x10, 9);
+            x6 ^= Integer.rotateLeft(x2 + x14, 13);
+            x10 ^= Integer.rotateLeft(x6 + x2, 18);
+            x3 ^= Integer.rotateLeft(x15 + x11, 7);
+            x7 ^= Integer.rotateLeft(x3 + x15, 9);
+            x11 ^= Integer.rotateLeft(x7 + x3, 13);
+            x15 ^= Integer.rotateLeft(x11 + x7, 18);
+            // Rows
+            x1 ^= Integer.rotateLeft(x0 + x3, 7);
+            x2 ^= Integer.rotateLeft(x1 + x0, 9);
+            x3 ^= Integer.rotateLeft(x2 + x1, 13);
+            x0 ^= Integer.rotateLeft(x3 + x2, 18);
+            x6 ^= Integer.rotateLeft(x5 + x4, 7);
+            x7 ^= Integer.rotateLeft(x6 + x5, 9);
+            x4 ^= Integer.rotateLeft(x7 + x6, 13);
+            x5 ^= Integer.rotateLeft(x4 + x7, 18);
+            x11 ^= Integer.rotateLeft(x10 + x9, 7);
+            x8 ^= Integer.rotateLeft(x11 + x10, 9);
+            x9 ^= Integer.rotateLeft(x8 + x11, 13);
+            x10 ^= Integer.rotateLeft(x9 + x8, 18);
+            x12 ^= Integer.rotateLeft(x15 + x14, 7);
+            x13 ^= Integer.rotateLeft(x12 + x15, 9);
+            x14 ^= Integer.rotateLeft(x13 + x12, 13);
+            x15 ^= Integer.rotateLeft(x14 + x13, 18);
+        }
+        b[0] += x0; b[1] += x1; b[2] += x2; b[3] += x3;
+        b[4] += x4; b[5] += x5; b[6] += x6; b[7] += x7;
+        b[8] += x8; b[9] += x9; b[10] += x10; b[11] += x11;
+        b[12] += x12; b[13] += x13; b[14] += x14; b[15] += x15;
+    }
+
+    private static int readLittleEndian(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xff)
+                | (bytes[offset + 1] & 0xff) << 8
+                | (bytes[offset + 2] & 0xff) << 16
+                | (bytes[offset + 3] & 0xff) << 24;
+    }
+
+    private static void writeLittleEndian(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) value;
+        bytes[offset + 1] = (byte) (value >>> 8);
+        bytes[offset + 2] = (byte) (value >>> 16);
+        bytes[offset + 3] = (byte) (value >>> 24);
+    }
+}
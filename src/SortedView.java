@@ -0,0 +1,188 @@
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * SortedView class.
+ *
+ * <p>
+ * Entries ordered by a key, kept in a red-black tree (TreeMap) that is
+ * updated as entries change instead of being sorted for every listing. The
+ * first or last k entries and the entries between two keys are read in
+ * O(log n + k). Entries with equal keys are ordered by id.
+ * </p>
+ *
+ * @param <K> type of the sort key.
+ * @author Luke Halpenny & Andrej Gorochov
+ * @version 1.0
+ */
+public final class SortedView<K extends Comparable<? super K>> {
+
+    private final TreeMap<Key<K>, StoredPassword> entries;
+    private final IntObjectMap<Key<K>> keys;
+
+    /**
+     * Creates an empty view.
+     */
+    public SortedView() {
+        this.entries = new TreeMap<>();
+        this.keys = new IntObjectMap<>();
+    }
+
+    /**
+     * @return number of entries in the view.
+     */
+    public int size() {
+        return this.entries.size();
+    }
+
+    /**
+     * Adds an entry under a key, moving it if it is already in the view.
+     *
+     * @param entry entry to add.
+     * @param key key to sort it by.
+     */
+    public void put(StoredPassword entry, K key) {
+        remove(entry.getId());
+        Key<K> sortKey = new Key<>(key, entry.getId());
+        this.entries.put(sortKey, entry);
+        this.keys.put(entry.getId(), sortKey);
+    }
+
+    /**
+     * Removes an entry.
+     *
+     * @param id id of the entry.
+     */
+    public void remove(int id) {
+        Key<K> sortKey = this.keys.remove(id);
+        if (sortKey != null) {
+            this.entries.remove(sortKey);
+        }
+    }
+
+    /**
+     * Gets the entries with the smallest keys.
+     *
+     * @param limit most entries to get.
+     * @return up to limit entries, smallest key first.
+     */
+    public ArrayList<StoredPassword> first(int limit) {
+        return take(this.entries, limit);
+    }
+
+    /**
+     * Gets the entries with the largest keys.
+     *
+     * @param limit most entries to get.
+     * @return up to limit entries, largest key first.
+     */
+    public ArrayList<StoredPassword> last(int limit) {
+        return take(this.entries.descendingMap(), limit);
+    }
+
+    /**
+     * Gets the entries with keys from one key up to another.
+     *
+     * @param from smallest key included, or null for no lower bound.
+     * @param to first key no longer included, or null for no upper bound.
+     * @return the entries, smallest key first.
+     */
+    public ArrayList<StoredPassword> range(K from, K to) {
+        return take(subMap(from, to), Integer.MAX_VALUE);
+    }
+
+    /**
+     * Counts the entries with keys from one key up to another, stopping at
+     * a limit so that counting a large range stays cheap.
+     *
+     * @param from smallest key included, or null for no lower bound.
+     * @param to first key no longer included, or null for no upper bound.
+     * @param limit largest count needed.
+     * @return number of entries, at most limit.
+     */
+    public int count(K from, K to, int limit) {
+        int count = 0;
+        Iterator<Key<K>> it = subMap(from, to).keySet().iterator();
+        while (count < limit && it.hasNext()) {
+            it.next();
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Gets the ids of the entries with keys from one key up to another.
+     *
+     * @param from smallest key included, or null for no lower bound.
+     * @param to first key no longer included, or null for no upper bound.
+     * @return the ids, in key order.
+     */
+    public int[] rangeIds(K from, K to) {
+        NavigableMap<Key<K>, StoredPassword> range = subMap(from, to);
+        int[] ids = new int[range.size()];
+        int count = 0;
+        for (Key<K> sortKey : range.keySet()) {
+            ids[count++] = sortKey.id;
+        }
+        return ids;
+    }
+
+    /**
+     * Gets the part of the tree between two keys.
+     *
+     * @param from smallest key included, or null for no lower bound.
+     * @param to first key no longer included, or null for no upper bound.
+     * @return view of the part of the tree.
+     */
+    private NavigableMap<Key<K>, StoredPassword> subMap(K from, K to) {
+        NavigableMap<Key<K>, StoredPassword> range = this.entries;
+        if (from != null) {
+            range = range.tailMap(new Key<>(from, Integer.MIN_VALUE), true);
+        }
+        if (to != null) {
+            range = range.headMap(new Key<>(to, Integer.MIN_VALUE), false);
+        }
+        return range;
+    }
+
+    /**
+     * Copies entries from the start of a map.
+     *
+     * @param map map to copy from.
+     * @param limit most entries to copy.
+     * @return the entries in map order.
+     */
+    private ArrayList<StoredPassword> take(NavigableMap<Key<K>, StoredPassword> map, int limit) {
+        ArrayList<StoredPassword> taken = new ArrayList<>(Math.min(limit, this.entries.size()));
+        Iterator<StoredPassword> it = map.values().iterator();
+        while (taken.size() < limit && it.hasNext()) {
+            taken.add(it.next());
+        }
+        return taken;
+    }
+
+    /**
+     * Sort key with the entry id to tell apart entries with equal keys.
+     *
+     * @param <K> type of the sort key.
+     */
+    private static final class Key<K extends Comparable<? super K>> implements Comparable<Key<K>> {
+
+        final K value;
+        final int id;
+
+        Key(K value, int id) {
+            this.value = value;
+            this.id = id;
+        }
+
+        @Override
+        public int compareTo(Key<K> other) {
+            int byValue = this.value.compareTo(other.value);
+            return byValue != 0 ? byValue : Integer.compare(this.id, other.id);
+        }
+    }
+}
@@ -2,6 +2,7 @@
 import java.security.SecureRandom;
 import java.io.FileNotFoundException;
 import java.time.LocalDateTime;
+import java.util.Locale;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -19,10 +20,13 @@ public final class StoredPassword
 {
 
     public final static int MIN_PASSWORD_LENGTH = 8;
+    private static final Pattern URL_PATTERN = Pattern.compile("^(https?://)?([a-zA-Z0-9.-]+)(:[0-9]{1,4})?$");
+    private static final Pattern LINE_BREAK_PATTERN = Pattern.compile("[\n\r]");
     private static int totalIds = 0;
     private int id;
     private String title;
     private String website;
+    private String host;
     private String password;
     private LocalDateTime lastUpdated;
 
@@ -235,6 +239,96 @@ public final class StoredPassword
         this.setLastUpdated();
     }
 
+    /**
+     * Empty constructor used by fromTrustedVault, fields are set directly.
+     */
+    private StoredPassword()
+    {
+    }
+
+    /**
+     * Copy constructor used by copy, fields were already checked when the
+     * original was created.
+     * @param other StoredPassword to copy.
+     */
+    private StoredPassword(StoredPassword other)
+    {
+        this.id = other.id;
+        this.title = other.title;
+        this.website = other.website;
+        this.host = other.host;
+        this.password = other.password;
+        this.lastUpdated = other.lastUpdated;
+    }
+
+    /**
+     * Creates a copy of the StoredPassword, so that changes to the copy are
+     * not made to the original.
+     * @return the copy.
+     */
+    public StoredPassword copy()
+    {
+        return new StoredPassword(this);
+    }
+
+    /**
+     * Creates a StoredPassword from decrypted vault content without running 
+     * the title, website and password checks, since the content was validated 
+     * when it was written. Only use this for data read back from the vault
+     * or generated by the program itself, anything entered by the user must
+     * go through the validating constructors. Use copy to copy an existing
+     * entry, and getValidationError to audit entries loaded this way.
+     * @param id id of the StoredPassword created.
+     * @param title title of the StoredPassword created.
+     * @param website website of the StoredPassword created.
+     * @param password password of the StoredPassword created.
+     * @param lastUpdated lastUpdatedDate.
+     * @return the StoredPassword holding the passed in fields.
+     */
+    public static StoredPassword fromTrustedVault(int id, String title, String website, String password, LocalDateTime lastUpdated)
+    {
+        if (title == null || website == null || password == null || lastUpdated == null)
+        {
+            throw new IllegalArgumentException("Stored fields can not be null.");
+        }
+        validateId(id);
+        if (id > totalIds)
+        {
+            totalIds = id;
+        }
+        StoredPassword storedPassword = new StoredPassword();
+        storedPassword.id = id;
+        storedPassword.title = title;
+        storedPassword.website = website;
+        storedPassword.host = parseHost(website);
+        storedPassword.password = password;
+        storedPassword.lastUpdated = lastUpdated;
+        return storedPassword;
+    }
+
+    /**
+     * Runs all the field checks against the StoredPassword.
+     * @return null if all fields are valid, otherwise the reason the first 
+     * invalid field failed.
+     */
+    public String getValidationError()
+    {
+        try
+        {
+            if (!validateTitle(this.title).equals(this.title))
+            {
+                throw new IllegalArgumentException("Title contains line breaks or surrounding whitespace.");
+            }
+            validateWebsite(this.website);
+            validatePassword(this.password);
+        }
+        catch (IllegalArgumentException | PasswordException e)
+        {
+            return e.getMessage();
+        }
+        return null;
+    }
+
     /**
      * Gets the StoredPassword id.
      * @return id of the StoredPassword object.
@@ -336,9 +430,8 @@ public final class StoredPassword
         {
             throw new IllegalArgumentException("Website cannot be null.");
         }
-        website = website.replaceAll("[\n\r]", "").trim();
-        Pattern urlRegex = Pattern.compile("^(https?://)?([a-zA-Z0-9.-]+)(:[0-9]{1,4})?$");
-        Matcher matcher = urlRegex.matcher(website);
+        website = LINE_BREAK_PATTERN.matcher(website).replaceAll("").trim();
+        Matcher matcher = URL_PATTERN.matcher(website);
         if (!matcher.matches())
         {
             throw new IllegalArgumentException("Invalid URL.");
@@ -348,7 +441,7 @@ public final class StoredPassword
         {
             throw new IllegalArgumentException("Invalid URL. Can't have a dot at the start of site hostname.");
         }
-        if (hostname.matches("(\\.){2,}"))
+        if (hostname.contains(".."))
         {
             throw new IllegalArgumentException("Invalid URL. Can't have 2 consecutive dots in the hostname.");
         }
@@ -371,9 +464,42 @@ public final class StoredPassword
         }
         validateWebsite(website);
         this.website = website;
+        this.host = parseHost(website);
         this.setLastUpdated();
     }
 
+    /**
+     * Gets the hostname of the StoredPassword's website, lowercased and 
+     * without scheme or port, e.g. "login.example.com" for 
+     * "https://Login.Example.com:8443".
+     * @return hostname, or null if the website couldn't be parsed.
+     */
+    public String getHost()
+    {
+        return this.host;
+    }
+
+    /**
+     * Parses the hostname out of a website in the form validateWebsite 
+     * accepts.
+     * @param website website to be parsed.
+     * @return lowercased hostname, or null if the website isn't valid.
+     */
+    public static String parseHost(String website)
+    {
+        Matcher matcher = URL_PATTERN.matcher(LINE_BREAK_PATTERN.matcher(website).replaceAll("").trim());
+        if (!matcher.matches())
+        {
+            return null;
+        }
+        String hostname = matcher.group(2);
+        if (hostname.startsWith(".") || hostname.endsWith(".") || hostname.contains(".."))
+        {
+            return null;
+        }
+        return hostname.toLowerCase(Locale.ROOT);
+    }
+
     /**
      * Gets String of the StoredPassword's password.
      * @return StoredPassword's password.
@@ -461,11 +587,9 @@ public final class StoredPassword
      */
     public String toCSVLine()
     {
-        String sanitizedTitle = this.getTitle().replaceAll(",", "&#44;").replaceAll("\n", "&#10;").replaceAll("\r", "&#13;");
-        String sanitizedWebsite = this.getWebsite().replaceAll(",", "&#44;").replaceAll("\n", "&#10;").replaceAll("\r", "&#13;");
-        String sanitizedPassword = this.getPassword().replaceAll(",", "&#44;").replaceAll("\n", "&#10;").replaceAll("\r", "&#13;");
-        String sanitizedLastUpdated = this.getLastUpdated().toString().replaceAll(",", "&#44;").replaceAll("\n", "&#10;").replaceAll("\r", "&#13;");
-        return this.getId() + "," + sanitizedTitle + "," + sanitizedWebsite + "," + sanitizedPassword + "," + sanitizedLastUpdated;
+        StringBuilder line = new StringBuilder();
+        CSVCodec.appendEntry(line, this);
+        return line.toString();
     }
 
 }
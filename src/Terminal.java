@@ -2,6 +2,7 @@ import java.io.*;
 import java.util.ArrayList;
 import java.util.Properties;
 import java.util.Scanner;
+import java.util.regex.Pattern;
 
 /**
  * Terminal class.
@@ -26,6 +27,8 @@ public class Terminal {
     public static final String COLOR_CYAN = "\u001B[38;5;14m";
     public static final String COLOR_WHITE = "\u001B[38;5;15m";
     public static final String COLOR_RESET = "\u001B[0m";
+    // Colour codes removed from output when the terminal doesn't support them.
+    private static final Pattern COLOR_PATTERN = Pattern.compile("\u001B\\[38;5;[0-9]+m");
 
     /**
      * Returns an ArrayList of ANSI-Color compatible terminals.
@@ -271,7 +274,7 @@ public class Terminal {
      */
     public void info(String text) {
         if (!this.supportsAnsi) {
-            text = text.replaceAll("\u001B\\[38;5;[0-9]+m", "");
+            text = COLOR_PATTERN.matcher(text).replaceAll("");
         }
         this.outputWriter.print(text);
         this.outputWriter.flush();
@@ -283,7 +286,7 @@ public class Terminal {
      */
     public void warn(String text) {
         if (!this.supportsAnsi) {
-            text = text.replaceAll("\u001B\\[38;5;[0-9]+m", "");
+            text = COLOR_PATTERN.matcher(text).replaceAll("");
             text = "[Warning] " + text;
         } else {
             text = COLOR_YELLOW + "[Warning] " + text + COLOR_RESET;
@@ -298,7 +301,7 @@ public class Terminal {
      */
     public void error(String text) {
         if (!this.supportsAnsi) {
-            text = text.replaceAll("\u001B\\[38;5;[0-9]+m", "");
+            text = COLOR_PATTERN.matcher(text).replaceAll("");
             text = "[Error] " + text;
         } else {
             text = COLOR_RED + "[Error] " + text + COLOR_RESET;
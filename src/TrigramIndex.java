@@ -0,0 +1,236 @@
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+
+/**
+ * TrigramIndex class.
+ *
+ * <p>
+ * Inverted index for case-insensitive substring search over one property of
+ * the entries. Every run of three characters (trigram) of the lowercased
+ * property points to a sorted list of the ids of the entries containing it.
+ * A query of three or more characters can only match entries that contain
+ * all of its trigrams, so intersecting their lists, smallest first, gives a
+ * short list of candidates that are then checked with the same lowercased
+ * contains test a full scan would use. Shorter queries have no trigrams; the
+ * caller has to scan for those.
+ * </p>
+ *
+ * @author Luke Halpenny & Andrej Gorochov
+ * @version 1.0
+ */
+public final class TrigramIndex {
+
+    public static final int GRAM_LENGTH = 3;
+    private static final int[] NO_IDS = new int[0];
+
+    private final IntObjectMap<String> values;
+    private final HashMap<Long, Postings> postings;
+
+    /**
+     * Creates an empty index.
+     */
+    public TrigramIndex() {
+        this.values = new IntObjectMap<>();
+        this.postings = new HashMap<>();
+    }
+
+    /**
+     * Indexes the property of an entry, replacing its previous value.
+     *
+     * @param id id of the entry.
+     * @param value property of the entry.
+     */
+    public void put(int id, String value) {
+        remove(id);
+        String folded = value.toLowerCase();
+        this.values.put(id, folded);
+        for (int i = 0; i + GRAM_LENGTH <= folded.length(); i++) {
+            Long gram = gram(folded, i);
+            Postings list = this.postings.get(gram);
+            if (list == null) {
+                list = new Postings();
+                this.postings.put(gram, list);
+            }
+            list.add(id);
+        }
+    }
+
+    /**
+     * Removes an entry from the index.
+     *
+     * @param id id of the entry.
+     */
+    public void remove(int id) {
+        String folded = this.values.remove(id);
+        if (folded == null) {
+            return;
+        }
+        for (int i = 0; i + GRAM_LENGTH <= folded.length(); i++) {
+            Long gram = gram(folded, i);
+            Postings list = this.postings.get(gram);
+            if (list != null && list.remove(id) && list.size == 0) {
+                this.postings.remove(gram);
+            }
+        }
+    }
+
+    /**
+     * Finds the entries whose property contains the query, ignoring case.
+     *
+     * @param query text to search for, at least GRAM_LENGTH characters once
+     *              lowercased.
+     * @return ids of the matching entries in ascending order.
+     * @throws IllegalArgumentException if the query is too short.
+     */
+    public int[] search(String query) {
+        String folded = query.toLowerCase();
+        if (folded.length() < GRAM_LENGTH) {
+            throw new IllegalArgumentException("Query is shorter than " + GRAM_LENGTH + " characters.");
+        }
+        Postings[] lists = new Postings[folded.length() - GRAM_LENGTH + 1];
+        for (int i = 0; i < lists.length; i++) {
+            lists[i] = this.postings.get(gram(folded, i));
+            if (lists[i] == null) {
+                return NO_IDS;
+            }
+        }
+        Arrays.sort(lists, Postings.BY_SIZE);
+        int[] candidates = Arrays.copyOf(lists[0].ids, lists[0].size);
+        int count = candidates.length;
+        for (int i = 1; i < lists.length && count > 0; i++) {
+            count = lists[i].retainAll(candidates, count);
+        }
+        int matches = 0;
+        for (int i = 0; i < count; i++) {
+            if (this.values.get(candidates[i]).contains(folded)) {
+                candidates[matches++] = candidates[i];
+            }
+        }
+        return Arrays.copyOf(candidates, matches);
+    }
+
+    /**
+     * Gets an upper bound of the number of entries search would find,
+     * without intersecting anything: the length of the shortest list of the
+     * query's trigrams.
+     *
+     * @param query text to search for, at least GRAM_LENGTH characters once
+     *              lowercased.
+     * @return the upper bound.
+     */
+    public int estimate(String query) {
+        String folded = query.toLowerCase();
+        int best = this.values.size();
+        for (int i = 0; i + GRAM_LENGTH <= folded.length(); i++) {
+            Postings list = this.postings.get(gram(folded, i));
+            if (list == null) {
+                return 0;
+            }
+            best = Math.min(best, list.size);
+        }
+        return best;
+    }
+
+    /**
+     * Packs the trigram starting at an index into a key.
+     *
+     * @param s string to take the trigram from.
+     * @param start index of its first character.
+     * @return the three characters as one number.
+     */
+    private static Long gram(String s, int start) {
+        return ((long) s.charAt(start) << 32) | ((long) s.charAt(start + 1) << 16) | s.charAt(start + 2);
+    }
+
+    /**
+     * Sorted list of the ids of the entries containing one trigram. A
+     * property containing the trigram more than once is listed once.
+     */
+    private static final class Postings {
+
+        static final Comparator<Postings> BY_SIZE = new Comparator<Postings>() {
+            @Override
+            public int compare(Postings a, Postings b) {
+                return Integer.compare(a.size, b.size);
+            }
+        };
+
+        int[] ids = new int[2];
+        int size;
+
+        /**
+         * Adds an id, keeping the list sorted. Ids are usually added in
+         * ascending order, which only appends.
+         *
+         * @param id id to add.
+         */
+        void add(int id) {
+            if (this.size > 0 && this.ids[this.size - 1] >= id) {
+                int at = Arrays.binarySearch(this.ids, 0, this.size, id);
+                if (at >= 0) {
+                    return;
+                }
+                insert(-at - 1, id);
+            } else {
+                insert(this.size, id);
+            }
+        }
+
+        /**
+         * Removes an id.
+         *
+         * @param id id to remove.
+         * @return true if the id was listed.
+         */
+        boolean remove(int id) {
+            int at = Arrays.binarySearch(this.ids, 0, this.size, id);
+            if (at < 0) {
+                return false;
+            }
+            System.arraycopy(this.ids, at + 1, this.ids, at, this.size - at - 1);
+            this.size--;
+            return true;
+        }
+
+        /**
+         * Keeps the candidates that are also in this list. Candidates are
+         * looked up by binary search in the part of the list not yet passed,
+         * which is cheap as this list is at least as long as the candidates.
+         *
+         * @param candidates sorted ids, compacted in place.
+         * @param count number of candidates.
+         * @return number of candidates kept.
+         */
+        int retainAll(int[] candidates, int count) {
+            int kept = 0;
+            int from = 0;
+            for (int i = 0; i < count && from < this.size; i++) {
+                int at = Arrays.binarySearch(this.ids, from, this.size, candidates[i]);
+                if (at >= 0) {
+                    candidates[kept++] = candidates[i];
+                    from = at + 1;
+                } else {
+                    from = -at - 1;
+                }
+            }
+            return kept;
+        }
+
+        /**
+         * Inserts an id at a position, growing the list if needed.
+         *
+         * @param at position to insert at.
+         * @param id id to insert.
+         */
+        private void insert(int at, int id) {
+            if (this.size == this.ids.length) {
+                this.ids = Arrays.copyOf(this.ids, this.size * 2);
+            }
+            System.arraycopy(this.ids, at, this.ids, at + 1, this.size - at);
+            this.ids[at] = id;
+            this.size++;
+        }
+    }
+}
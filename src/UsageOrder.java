@@ -0,0 +1,135 @@
+
+import java.util.AbstractList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * UsageOrder class.
+ *
+ * <p>
+ * Entries ordered by how often they are used (see AccessSketch), most used
+ * first, without sorting them. Entries that were used come first, then the
+ * ones never used in the order they were added, and entries used equally
+ * often keep the order they were added in. The list is read a page at a
+ * time: the used entries up to the end of a page are picked with a bounded
+ * min-heap and the unused ones are found in a single pass, so a page ending
+ * at position k costs O(n log k) time and O(k) memory, and pages that are
+ * never shown are never ordered.
+ * </p>
+ *
+ * <p>
+ * The counts are copied when the list is made, so it keeps the same order
+ * while entries shown from it are counted as used.
+ * </p>
+ *
+ * @author Luke Halpenny & Andrej Gorochov
+ * @version 1.0
+ */
+public final class UsageOrder extends AbstractList<StoredPassword> {
+
+    private final List<StoredPassword> entries;
+    private final AccessSketch usage;
+    private final int pageSize;
+    private final int used;
+    private final Comparator<Integer> worstFirst;
+    private StoredPassword[] page;
+    private int pageStart;
+
+    /**
+     * Orders entries by usage.
+     *
+     * @param entries entries in the order they were added. The list must not
+     *                change while this one is used.
+     * @param usage counts of how often entries are used.
+     * @param pageSize number of entries picked at once.
+     */
+    UsageOrder(List<StoredPassword> entries, AccessSketch usage, int pageSize) {
+        this.entries = entries;
+        this.usage = new AccessSketch(usage);
+        this.pageSize = Math.max(1, pageSize);
+        int used = 0;
+        for (StoredPassword entry : entries) {
+            if (this.usage.estimate(entry.getId()) > 0) {
+                used++;
+            }
+        }
+        this.used = used;
+        final AccessSketch counts = this.usage;
+        final List<StoredPassword> list = entries;
+        this.worstFirst = new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                int byCount = Integer.compare(counts.estimate(list.get(a).getId()), counts.estimate(list.get(b).getId()));
+                return byCount != 0 ? byCount : Integer.compare(b, a);
+            }
+        };
+        this.page = new StoredPassword[0];
+        this.pageStart = 0;
+    }
+
+    @Override
+    public int size() {
+        return this.entries.size();
+    }
+
+    @Override
+    public StoredPassword get(int index) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+        }
+        if (index < this.pageStart || index >= this.pageStart + this.page.length) {
+            loadPage(index - index % this.pageSize);
+        }
+        return this.page[index - this.pageStart];
+    }
+
+    /**
+     * Picks the entries of the page starting at an index.
+     *
+     * @param start index of the first entry of the page.
+     */
+    private void loadPage(int start) {
+        int end = Math.min(size(), start + this.pageSize);
+        StoredPassword[] picked = new StoredPassword[end - start];
+        if (start < this.used) {
+            // The used entries ranked up to the end of the page, least used
+            // on top so it is the one dropped when a more used one is found.
+            int keep = Math.min(end, this.used);
+            PriorityQueue<Integer> best = new PriorityQueue<>(keep, this.worstFirst);
+            for (int i = 0; i < this.entries.size(); i++) {
+                if (this.usage.estimate(this.entries.get(i).getId()) == 0) {
+                    continue;
+                }
+                if (best.size() < keep) {
+                    best.add(i);
+                } else if (this.worstFirst.compare(i, best.peek()) > 0) {
+                    best.poll();
+                    best.add(i);
+                }
+            }
+            for (int rank = keep - 1; rank >= start; rank--) {
+                picked[rank - start] = this.entries.get(best.poll());
+            }
+        }
+        if (end > this.used) {
+            // Unused entries keep the order they were added in, so the ones
+            // for this page are found by counting them.
+            int skip = Math.max(0, start - this.used);
+            int count = Math.max(start, this.used) - start;
+            for (int i = 0; i < this.entries.size() && count < picked.length; i++) {
+                StoredPassword entry = this.entries.get(i);
+                if (this.usage.estimate(entry.getId()) != 0) {
+                    continue;
+                }
+                if (skip > 0) {
+                    skip--;
+                } else {
+                    picked[count++] = entry;
+                }
+            }
+        }
+        this.page = picked;
+        this.pageStart = start;
+    }
+}
@@ -0,0 +1,367 @@
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * UserRecord class.
+ *
+ * <p>
+ * The contents of user.txt: the salt and verifier used to check the master
+ * password, and the vault's data-encryption key wrapped under a
+ * key-encryption key derived from the master password, along with a
+ * key-check value. The verifier and key-encryption key come from a single
+ * derivation (see KeySchedule), whose key derivation function, cost
+ * parameters and key size are stored too (see KeyDerivationFunction). The
+ * vault is encrypted with the data-encryption key, so changing the master
+ * password only has to re-wrap that key.
+ * </p>
+ *
+ * <p>
+ * Records without a key schedule check the master password against a hash
+ * with one salt and derive the key-encryption key with another, costing two
+ * derivations per unlock. They are still read, and are moved to a key
+ * schedule by setMasterPassword on the next login.
+ * </p>
+ *
+ * <p>
+ * New master passwords are hashed with Password.getDefaultKdf. A record
+ * keeps the function it was hashed with when its master password is set
+ * again, unless the user asks for another one with the saps.kdf system
+ * property (see Password.getRequestedKdfAlgorithm). Records hashed with
+ * a function other than the requested one, or more cheaply than Password's
+ * cost policy allows, are rehashed on the next login. Records without
+ * stored parameters were hashed with PBKDF2 at Password's original
+ * defaults.
+ * </p>
+ *
+ * <p>
+ * The file is stored in properties format. Files written before the wrapped
+ * key was introduced hold only the master salt, master hash and decrypt salt
+ * on three lines, and are still read; their vault key is the key-encryption
+ * key itself until the record is next written.
+ * </p>
+ *
+ * @author Luke Halpenny & Andrej Gorochov
+ * @version 1.0
+ */
+public class UserRecord {
+
+    public static final int VERSION = 2;
+    private static final String KEY_VERSION = "version";
+    private static final String KEY_MASTER_SALT = "masterSalt";
+    private static final String KEY_MASTER_HASH = "masterHash";
+    private static final String KEY_DECRYPT_SALT = "decryptSalt";
+    private static final String KEY_WRAPPED_KEY = "wrappedKey";
+    private static final String KEY_KEY_CHECK = "keyCheck";
+    private static final String KEY_SCHEME = "kdfScheme";
+    private static final String KEY_KEY_SIZE = "kdfKeySize";
+
+    private String masterSalt;
+    private String masterHash;
+    private String decryptSalt;
+    private String wrappedKey;
+    private String keyCheck;
+    private String scheme;
+    // Null if the stored parameters were unreadable.
+    private KeyDerivationFunction kdf;
+    private int keySize;
+
+    /**
+     * Creates an empty record.
+     */
+    public UserRecord() {
+        this.masterSalt = null;
+        this.masterHash = null;
+        this.decryptSalt = null;
+        this.wrappedKey = null;
+        this.keyCheck = null;
+        this.scheme = null;
+        this.kdf = new Pbkdf2Function(Password.KEY_FACTORY_TYPE, Password.ITERATIONS);
+        this.keySize = Password.KEY_SIZE;
+    }
+
+    /**
+     * Reads a record from a file, in either the properties or the legacy
+     * three line format. Missing fields are left null.
+     *
+     * @param file file to read.
+     * @return the read record.
+     * @throws FileNotFoundException if the file doesn't exist.
+     * @throws IOException if the file can't be read.
+     */
+    public static UserRecord read(File file) throws IOException {
+        if (!file.isFile()) {
+            throw new FileNotFoundException(file.getPath());
+        }
+        UserRecord record = new UserRecord();
+        Properties properties = new Properties();
+        try (Reader reader = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        }
+        if (properties.getProperty(KEY_VERSION) != null) {
+            record.masterSalt = properties.getProperty(KEY_MASTER_SALT);
+            record.masterHash = properties.getProperty(KEY_MASTER_HASH);
+            record.decryptSalt = properties.getProperty(KEY_DECRYPT_SALT);
+            record.wrappedKey = properties.getProperty(KEY_WRAPPED_KEY);
+            record.keyCheck = properties.getProperty(KEY_KEY_CHECK);
+            record.scheme = properties.getProperty(KEY_SCHEME);
+            record.kdf = readKdf(properties);
+            record.keySize = Utilities.parsePositiveInt(properties.getProperty(KEY_KEY_SIZE), record.keySize);
+        } else {
+            List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+            record.masterSalt = lines.size() > 0 ? lines.get(0) : null;
+            record.masterHash = lines.size() > 1 ? lines.get(1) : null;
+            record.decryptSalt = lines.size() > 2 ? lines.get(2) : null;
+        }
+        return record;
+    }
+
+    /**
+     * Writes the record to a file atomically (see AtomicFile).
+     *
+     * @param file file to write.
+     * @throws IOException if the file can't be written.
+     */
+    public void write(File file) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty(KEY_VERSION, Integer.toString(VERSION));
+        setIfPresent(properties, KEY_MASTER_SALT, this.masterSalt);
+        setIfPresent(properties, KEY_MASTER_HASH, this.masterHash);
+        setIfPresent(properties, KEY_DECRYPT_SALT, this.decryptSalt);
+        setIfPresent(properties, KEY_WRAPPED_KEY, this.wrappedKey);
+        setIfPresent(properties, KEY_KEY_CHECK, this.keyCheck);
+        setIfPresent(properties, KEY_SCHEME, this.scheme);
+        if (this.kdf != null) {
+            this.kdf.writeParameters(properties);
+        }
+        properties.setProperty(KEY_KEY_SIZE, Integer.toString(this.keySize));
+        ByteArrayOutputStream contents = new ByteArrayOutputStream();
+        try (Writer writer = new OutputStreamWriter(contents, StandardCharsets.UTF_8)) {
+            properties.store(writer, "Super Amazing Password Manager user record");
+        }
+        AtomicFile.write(file, contents.toByteArray());
+    }
+
+    /**
+     * Sets a property if the value isn't null.
+     *
+     * @param properties properties to set.
+     * @param key property key.
+     * @param value property value, may be null.
+     */
+    private static void setIfPresent(Properties properties, String key, String value) {
+        if (value != null) {
+            properties.setProperty(key, value);
+        }
+    }
+
+    /**
+     * Reads the key derivation function named in the properties.
+     *
+     * @param properties properties to read.
+     * @return the function, or null if its parameters are malformed.
+     */
+    private static KeyDerivationFunction readKdf(Properties properties) {
+        if (Scrypt.ALGORITHM.equals(properties.getProperty(KeyDerivationFunction.KEY_ALGORITHM))) {
+            return Scrypt.readParameters(properties);
+        }
+        return Pbkdf2Function.readParameters(properties);
+    }
+
+    /**
+     * Checks whether the fields needed to log in were read.
+     *
+     * @return true if the master salt and master hash are set, along with
+     *         the decrypt salt for records without a key schedule.
+     */
+    public boolean isComplete() {
+        return this.masterSalt != null && this.masterHash != null
+                && (this.hasKeySchedule() || this.decryptSalt != null)
+                && this.kdf != null && this.keySize > 0 && this.keySize % Cipher.BITS_PER_BYTE == 0;
+    }
+
+    /**
+     * Checks whether the master password is checked and the key-encryption
+     * key derived with a single derivation.
+     *
+     * @return true if the record uses KeySchedule.
+     */
+    public boolean hasKeySchedule() {
+        return KeySchedule.SCHEME.equals(this.scheme);
+    }
+
+    /**
+     * Checks whether the master password should be set again after the next
+     * successful unlock, because the record doesn't use a key schedule, uses
+     * a different function than the user asked for with the saps.kdf system
+     * property or was hashed more cheaply than the cost policy allows. With
+     * no function asked for, the record's own function is kept.
+     *
+     * @return true if the record should be rehashed.
+     */
+    public boolean needsRehash() {
+        String requested = Password.getRequestedKdfAlgorithm();
+        return !this.hasKeySchedule()
+                || (requested != null && !this.kdf.getAlgorithm().equals(requested))
+                || Password.isBelowPolicy(this.kdf, this.keySize);
+    }
+
+    /**
+     * Checks a master password and derives the key-encryption key from it.
+     *
+     * @param masterPassword the master password to check.
+     * @return base64 key-encryption key, or null if the password is wrong.
+     * @throws IllegalArgumentException if the password is not a valid master password.
+     */
+    public String unlock(String masterPassword) {
+        if (this.hasKeySchedule()) {
+            KeySchedule keys = KeySchedule.derive(new Password(masterPassword, this.masterSalt,
+                    this.kdf, this.keySize));
+            try {
+                return keys.matchesVerifier(this.masterHash) ? keys.getKeyEncryptionKey() : null;
+            } finally {
+                keys.destroy();
+            }
+        }
+        if (!new Password(masterPassword, this.masterSalt).matchesHash(this.masterHash)) {
+            return null;
+        }
+        return new Password(masterPassword, this.decryptSalt).generateHash();
+    }
+
+    /**
+     * Sets a new master password: picks a new salt, derives a key schedule
+     * from it at the calibrated cost and the default key size, and wraps the
+     * vault key under the new key-encryption key. The function is the one
+     * asked for with the saps.kdf system property, else the record's own if
+     * it has a key schedule, else Password.getDefaultKdf.
+     *
+     * @param masterPassword the new master password.
+     * @param vaultKey base64 data-encryption key of the vault.
+     * @throws IllegalArgumentException if the password is not a valid master password.
+     */
+    public void setMasterPassword(String masterPassword, String vaultKey) {
+        String salt = Password.generateRandomSalt();
+        String algorithm = Password.getRequestedKdfAlgorithm();
+        if (algorithm == null) {
+            algorithm = this.hasKeySchedule() ? this.kdf.getAlgorithm() : Password.getDefaultKdfAlgorithm();
+        }
+        Password pass = new Password(masterPassword, salt, Password.getKdf(algorithm), Password.KEY_SIZE);
+        KeySchedule keys = KeySchedule.derive(pass);
+        try {
+            this.wrapKey(vaultKey, keys.getKeyEncryptionKey());
+            this.masterSalt = salt;
+            this.masterHash = keys.getVerifier();
+            this.decryptSalt = null;
+            this.scheme = KeySchedule.SCHEME;
+            this.kdf = pass.getKdf();
+            this.keySize = pass.getKeySize();
+        } finally {
+            keys.destroy();
+        }
+    }
+
+    /**
+     * Checks whether the record holds a wrapped vault key.
+     *
+     * @return true if the record has a wrapped key and key-check value.
+     */
+    public boolean hasWrappedKey() {
+        return this.wrappedKey != null && this.keyCheck != null;
+    }
+
+    /**
+     * Wraps a vault key under a key-encryption key and stores it in the
+     * record along with its key-check value.
+     *
+     * @param vaultKey base64 data-encryption key of the vault.
+     * @param keyEncryptionKey base64 key derived from the master password.
+     */
+    public void wrapKey(String vaultKey, String keyEncryptionKey) {
+        this.wrappedKey = Cipher.encryptString(vaultKey, keyEncryptionKey);
+        this.keyCheck = Cipher.keyCheckValue(vaultKey);
+    }
+
+    /**
+     * Unwraps the vault key stored in the record.
+     *
+     * @param keyEncryptionKey base64 key derived from the master password.
+     * @return base64 data-encryption key of the vault.
+     * @throws CipherException if the key-encryption key is wrong.
+     */
+    public String unwrapKey(String keyEncryptionKey) {
+        String vaultKey = Cipher.decryptString(this.wrappedKey, keyEncryptionKey);
+        if (!Cipher.keyCheckValue(vaultKey).equals(this.keyCheck)) {
+            throw new CipherException(Cipher.PREPEND_DECRYPT + Cipher.BAD_KEY_CHECK);
+        }
+        return vaultKey;
+    }
+
+    /**
+     * @return salt used to hash the master password for checking.
+     */
+    public String getMasterSalt() {
+        return this.masterSalt;
+    }
+
+    /**
+     * @param masterSalt salt used to hash the master password for checking.
+     */
+    public void setMasterSalt(String masterSalt) {
+        this.masterSalt = masterSalt;
+    }
+
+    /**
+     * @return hash the master password is checked against.
+     */
+    public String getMasterHash() {
+        return this.masterHash;
+    }
+
+    /**
+     * @param masterHash hash the master password is checked against.
+     */
+    public void setMasterHash(String masterHash) {
+        this.masterHash = masterHash;
+    }
+
+    /**
+     * @return salt used to derive the key-encryption key.
+     */
+    public String getDecryptSalt() {
+        return this.decryptSalt;
+    }
+
+    /**
+     * @param decryptSalt salt used to derive the key-encryption key.
+     */
+    public void setDecryptSalt(String decryptSalt) {
+        this.decryptSalt = decryptSalt;
+    }
+
+    /**
+     * @return key derivation function of the master password hash, or null
+     *         if its stored parameters were unreadable.
+     */
+    public KeyDerivationFunction getKdf() {
+        return this.kdf;
+    }
+
+    /**
+     * @return key size in bits of the master password hash.
+     */
+    public int getKeySize() {
+        return this.keySize;
+    }
+}
@@ -1,9 +1,13 @@
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.InputStream;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.InputMismatchException;
 import java.util.Scanner;
+import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -20,6 +24,10 @@ import java.util.regex.Pattern;
 public class Utilities {
 
     public static final String COMMON_PASSWORDS_PATH = "/resources/common.txt";
+    public static final String COMMON_CORPUS_PATH = "/resources/common.bin";
+    public static final String COMMON_FILTER_PATH = "/resources/common.bloom";
+
+    private static volatile Set<String> commonPasswords;
 
     /**
      * Prints available menu options with a menu title bordered by the specified
@@ -50,9 +58,7 @@ public class Utilities {
      * @param amount   amount of times for the string to be repeated.
      */
     public static void printString(Terminal terminal, String s, int amount) {
-        for (int i = 0; i < amount; ++i) {
-            terminal.info(s);
-        }
+        terminal.info(s.repeat(amount));
     }
 
     /**
@@ -152,36 +158,173 @@ public class Utilities {
     }
 
     /**
-     * Checks password against a list of common passwords
+     * Checks password against a list of common passwords. If a Bloom filter
+     * (see CommonPasswordFilter) is present next to the plain-text list, it is
+     * checked first and a miss returns false without the exact lookup. If a
+     * memory-mapped corpus (see CommonPasswordCorpus) is present next to the
+     * plain-text list it is searched instead, which allows for very large
+     * lists. Otherwise the plain-text list is read once and kept in memory as
+     * a case-folded hash set, so every check after the first is a single hash
+     * lookup with no file access.
      *
      * @param password Password to check
      * @return whether the password turns up on a list of common passwords
+     * @throws FileNotFoundException if the common password list can't be found
      */
     public static boolean isCommonPassword(String password) throws FileNotFoundException {
+        CommonPasswordFilter filter = FilterHolder.FILTER;
+        if (filter != null && !filter.mightContain(password)) {
+            return false;
+        }
+        CommonPasswordCorpus corpus = CorpusHolder.CORPUS;
+        if (corpus != null) {
+            return corpus.contains(password);
+        }
+        return getCommonPasswords().contains(foldCase(password));
+    }
+
+    /**
+     * Lazily loads the common password Bloom filter the first time it is
+     * needed.
+     */
+    private static class FilterHolder {
+
+        static final CommonPasswordFilter FILTER = readCommonFilter();
+
+        /**
+         * Reads the common password filter if one is present.
+         *
+         * @return the filter, or null if there is no usable filter.
+         */
+        private static CommonPasswordFilter readCommonFilter() {
+            File filterFile = new File("." + COMMON_FILTER_PATH);
+            if (!filterFile.isFile()) {
+                return null;
+            }
+            try {
+                return CommonPasswordFilter.read(filterFile);
+            } catch (IOException e) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Lazily opens the common password corpus the first time it is needed.
+     */
+    private static class CorpusHolder {
+
+        static final CommonPasswordCorpus CORPUS = openCommonCorpus();
+
+        /**
+         * Maps the common password corpus if one is present.
+         *
+         * @return the mapped corpus, or null if there is no usable corpus.
+         */
+        private static CommonPasswordCorpus openCommonCorpus() {
+            File corpusFile = new File("." + COMMON_CORPUS_PATH);
+            if (!corpusFile.isFile()) {
+                return null;
+            }
+            try {
+                return new CommonPasswordCorpus(corpusFile);
+            } catch (IOException e) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Folds the case of a string the same way String.equalsIgnoreCase compares
+     * characters, so that two strings are equal ignoring case exactly when
+     * their folded forms are equal.
+     *
+     * @param s string to fold
+     * @return case-folded copy of the string
+     */
+    public static String foldCase(String s) {
+        char[] chars = s.toCharArray();
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = Character.toLowerCase(Character.toUpperCase(chars[i]));
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Parses a positive integer setting.
+     *
+     * @param value setting value, may be null
+     * @param defaultValue value to use if the setting is missing
+     * @return the parsed value, or -1 if it isn't a positive integer
+     */
+    public static int parsePositiveInt(String value, int defaultValue) {
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            int parsed = Integer.parseInt(value.trim());
+            return parsed > 0 ? parsed : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Gets the set of case-folded common passwords, loading it on first use.
+     * The set is never modified after it is published, so concurrent lookups
+     * are safe.
+     *
+     * @return unmodifiable set of case-folded common passwords
+     * @throws FileNotFoundException if the common password list can't be found
+     */
+    private static Set<String> getCommonPasswords() throws FileNotFoundException {
+        Set<String> passwords = commonPasswords;
+        if (passwords == null) {
+            synchronized (Utilities.class) {
+                passwords = commonPasswords;
+                if (passwords == null) {
+                    passwords = loadCommonPasswords();
+                    commonPasswords = passwords;
+                }
+            }
+        }
+        return passwords;
+    }
+
+    /**
+     * Reads the common password list, from the classpath if available and
+     * from the working directory otherwise.
+     *
+     * @return unmodifiable set of case-folded common passwords
+     * @throws FileNotFoundException if the common password list can't be found
+     */
+    private static Set<String> loadCommonPasswords() throws FileNotFoundException {
         InputStream fileStream = Utilities.class.getClassLoader().getResourceAsStream(COMMON_PASSWORDS_PATH);
         if (fileStream != null) {
             try (Scanner scanner = new Scanner(fileStream)) {
-                while (scanner.hasNextLine()) {
-                    String common = scanner.nextLine();
-                    if (password.equalsIgnoreCase(common)) {
-                        return true;
-                    }
-                }
-                return false;
+                return readCommonPasswords(scanner);
             }
         } else {
             File fileObj = new File("." + COMMON_PASSWORDS_PATH);
             try (Scanner scanner = new Scanner(fileObj)) {
-                while (scanner.hasNextLine()) {
-                    String common = scanner.nextLine();
-                    if (password.equalsIgnoreCase(common)) {
-                        return true;
-                    }
-                }
-                return false;
+                return readCommonPasswords(scanner);
             } catch (FileNotFoundException e) {
                 throw new FileNotFoundException("Cannot find common password list");
             }
         }
     }
+
+    /**
+     * Reads every line of the scanner into a case-folded set.
+     *
+     * @param scanner scanner over the common password list
+     * @return unmodifiable set of case-folded common passwords
+     */
+    private static Set<String> readCommonPasswords(Scanner scanner) {
+        HashSet<String> passwords = new HashSet<>();
+        while (scanner.hasNextLine()) {
+            passwords.add(foldCase(scanner.nextLine()));
+        }
+        return Collections.unmodifiableSet(passwords);
+    }
 }
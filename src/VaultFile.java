@@ -0,0 +1,480 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Scanner;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * VaultFile class.
+ *
+ * <p>
+ * Reads and writes the encrypted password vault. The vault is written as a
+ * header followed by length-prefixed frames, each holding a group of CSV lines
+ * (see CSVCodec) encrypted independently, and a zero length frame marking the
+ * end. The header holds a key-check value (see Cipher.keyCheckValue), so a
+ * wrong key is rejected before any frame is decrypted, and a random snapshot
+ * id that is new for every write. The journal of changes made since (see
+ * PasswordJournal) records the id of the snapshot it belongs to, so a journal
+ * left behind by an older snapshot is never replayed over a newer one.
+ * </p>
+ *
+ * <p>
+ * Frames are sealed with AES-GCM (see CipherEngine.seal) with the frame's
+ * index and whether it is the last frame as associated data, so frames can't
+ * be reordered, dropped or cut off at the end without the read failing. As
+ * frames don't depend on each other, a batch of them is encrypted or
+ * decrypted in parallel on a shared ForkJoinPool and then written or parsed
+ * in order. The number of threads defaults to the number of processors and
+ * can be set with the saps.cryptoThreads system property or setParallelism.
+ * Memory use is bounded by the batch size no matter how large the vault is.
+ * </p>
+ *
+ * <p>
+ * Vaults written in the legacy format, a single line of base64
+ * iv|ciphertext, AES-CBC framed vaults (versions 1 and 2) and AES-GCM framed
+ * vaults without a snapshot id (version 3) can still be read; they are
+ * rewritten in the current format on the next save.
+ * </p>
+ *
+ * @author Luke Halpenny & Andrej Gorochov
+ * @version 1.0
+ */
+public final class VaultFile {
+
+    // Starts with a byte outside the base64 alphabet so it can't be mistaken
+    // for a legacy vault.
+    public static final int MAGIC = 0x89534150;
+    public static final int VERSION = 4;
+    private static final int VERSION_NO_SNAPSHOT_ID = 3;
+    private static final int VERSION_CBC = 2;
+    private static final int VERSION_NO_KEY_CHECK = 1;
+    public static final String PARALLELISM_PROPERTY = "saps.cryptoThreads";
+    // Frames are closed at the first line end after this many chars.
+    public static final int FRAME_CHARS = 64 * 1024;
+    // Frames handed to the pool at once, per thread.
+    private static final int FRAMES_PER_THREAD = 4;
+    private static final int MAX_FRAME_BYTES = 16 * 1024 * 1024;
+    private static final int BUFFER_BYTES = 64 * 1024;
+
+    // Snapshot id of vaults that don't store one.
+    public static final long NO_SNAPSHOT_ID = 0;
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private static int parallelism = defaultParallelism();
+    private static ForkJoinPool pool = null;
+
+    /**
+     * Static utility class, not to be instantiated.
+     */
+    private VaultFile() {
+    }
+
+    /**
+     * Gets the thread count from the saps.cryptoThreads system property,
+     * falling back to the number of processors.
+     *
+     * @return default number of threads.
+     */
+    private static int defaultParallelism() {
+        int processors = Runtime.getRuntime().availableProcessors();
+        Integer threads = Integer.getInteger(PARALLELISM_PROPERTY, processors);
+        return threads < 1 ? processors : threads;
+    }
+
+    /**
+     * Sets the number of threads frames are encrypted and decrypted on. A
+     * value of 1 does all the work on the calling thread.
+     *
+     * @param threads number of threads.
+     * @throws IllegalArgumentException if threads is less than 1.
+     */
+    public static synchronized void setParallelism(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Thread count must be at least 1");
+        }
+        if (threads != parallelism && pool != null) {
+            pool.shutdown();
+            pool = null;
+        }
+        parallelism = threads;
+    }
+
+    /**
+     * Gets the number of threads frames are encrypted and decrypted on.
+     *
+     * @return number of threads.
+     */
+    public static synchronized int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Gets the shared pool, creating it on first use.
+     *
+     * @return the pool, or null if the work is done on the calling thread.
+     */
+    private static synchronized ForkJoinPool getPool() {
+        if (parallelism == 1) {
+            return null;
+        }
+        if (pool == null) {
+            pool = new ForkJoinPool(parallelism);
+        }
+        return pool;
+    }
+
+    /**
+     * Gets the number of frames handed to the pool at once.
+     *
+     * @return batch size in frames.
+     */
+    private static int getBatchFrames() {
+        return getParallelism() * FRAMES_PER_THREAD;
+    }
+
+    /**
+     * Encrypts and writes entries to the vault file in the framed format. The
+     * file is replaced atomically (see AtomicFile), so a failed write leaves
+     * the previous vault intact.
+     *
+     * @param file file to write to.
+     * @param entries entries to write, in order.
+     * @param key base64 key to encrypt with.
+     * @return snapshot id of the new vault, never NO_SNAPSHOT_ID.
+     * @throws IOException if the file can't be written.
+     * @throws CipherException if the key can't be used.
+     */
+    public static long write(File file, Iterable<StoredPassword> entries, String key) throws IOException {
+        long snapshotId = NO_SNAPSHOT_ID;
+        while (snapshotId == NO_SNAPSHOT_ID) {
+            snapshotId = RANDOM.nextLong();
+        }
+        CipherEngine engine = new CipherEngine(key);
+        AtomicFile target = new AtomicFile(file);
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(target.startWrite(), BUFFER_BYTES));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.write(engine.keyCheckBytes());
+            out.writeLong(snapshotId);
+            int batchFrames = getBatchFrames();
+            // The last frame is only known once the entries run out, so one
+            // frame is always held back from the batch.
+            List<byte[]> pending = new ArrayList<>(batchFrames + 1);
+            StringBuilder frame = new StringBuilder(FRAME_CHARS + 1024);
+            long index = 0;
+            for (StoredPassword entry : entries) {
+                CSVCodec.appendEntry(frame, entry);
+                frame.append('\n');
+                if (frame.length() >= FRAME_CHARS) {
+                    pending.add(frame.toString().getBytes(StandardCharsets.UTF_8));
+                    frame.setLength(0);
+                    if (pending.size() > batchFrames) {
+                        index = writeFrames(out, engine, pending, pending.size() - 1, index, false);
+                    }
+                }
+            }
+            if (frame.length() > 0 || pending.isEmpty()) {
+                pending.add(frame.toString().getBytes(StandardCharsets.UTF_8));
+            }
+            writeFrames(out, engine, pending, pending.size(), index, true);
+            out.writeInt(0);
+            out.flush();
+            target.commit();
+        } finally {
+            target.abort();
+            engine.destroy();
+        }
+        return snapshotId;
+    }
+
+    /**
+     * Seals the first frames of the pending list in parallel, writes them in
+     * order and removes them from the list.
+     *
+     * @param out stream to write to.
+     * @param engine engine to encrypt with.
+     * @param pending plaintext frames waiting to be written.
+     * @param count number of frames to write.
+     * @param index index of the first frame to write.
+     * @param endsVault whether the last frame written is the last of the vault.
+     * @return index of the next frame.
+     * @throws IOException if the frames can't be written.
+     */
+    private static long writeFrames(DataOutputStream out, CipherEngine engine, List<byte[]> pending,
+                                    int count, long index, boolean endsVault) throws IOException {
+        List<SealFrame> tasks = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            tasks.add(new SealFrame(engine, pending.get(i), index + i, endsVault && i == count - 1));
+        }
+        for (byte[] sealed : runAll(tasks)) {
+            out.writeInt(sealed.length);
+            out.write(sealed);
+        }
+        pending.subList(0, count).clear();
+        return index + count;
+    }
+
+    /**
+     * Reads and decrypts the vault file, in any of the framed formats or the
+     * legacy format, and adds its entries to the list. Malformed lines are
+     * skipped. Entries of the AES-CBC and legacy formats, which aren't
+     * authenticated, are validated like user input (see CSVCodec.decode). Nothing is added unless the whole file was read successfully.
+     *
+     * @param file file to read from.
+     * @param key base64 key to decrypt with.
+     * @param out list the entries are added to.
+     * @return snapshot id of the vault, NO_SNAPSHOT_ID if its format has none.
+     * @throws IOException if the file can't be read or is truncated.
+     * @throws CipherException if a frame can't be decrypted.
+     */
+    public static long read(File file, String key, List<StoredPassword> out) throws IOException {
+        List<StoredPassword> entries = new ArrayList<>();
+        long snapshotId = NO_SNAPSHOT_ID;
+        CipherEngine engine = new CipherEngine(key);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_BYTES))) {
+            in.mark(Integer.BYTES);
+            int magic;
+            try {
+                magic = in.readInt();
+            } catch (EOFException e) {
+                magic = 0;
+            }
+            if (magic != MAGIC) {
+                in.reset();
+                readLegacy(in, engine, entries);
+            } else {
+                int version = in.readInt();
+                if (version != VERSION && version != VERSION_NO_SNAPSHOT_ID && version != VERSION_CBC
+                        && version != VERSION_NO_KEY_CHECK) {
+                    throw new IOException("Unsupported vault version " + version);
+                }
+                if (version != VERSION_NO_KEY_CHECK) {
+                    byte[] keyCheck = new byte[Cipher.KEY_CHECK_BYTES];
+                    in.readFully(keyCheck);
+                    if (!MessageDigest.isEqual(keyCheck, engine.keyCheckBytes())) {
+                        throw new CipherException(Cipher.PREPEND_DECRYPT + Cipher.BAD_KEY_CHECK);
+                    }
+                }
+                if (version == VERSION) {
+                    snapshotId = in.readLong();
+                }
+                if (version == VERSION || version == VERSION_NO_SNAPSHOT_ID) {
+                    readFrames(in, engine, entries);
+                } else {
+                    readCbcFrames(in, engine, entries);
+                }
+            }
+        } finally {
+            engine.destroy();
+        }
+        out.addAll(entries);
+        return snapshotId;
+    }
+
+    /**
+     * Reads the AES-GCM frames of a vault, decrypting a batch of them in
+     * parallel and parsing them in order.
+     *
+     * @param in stream positioned at the first frame.
+     * @param engine engine to decrypt with.
+     * @param out list the entries are added to.
+     * @throws IOException if the file can't be read or is truncated.
+     */
+    private static void readFrames(DataInputStream in, CipherEngine engine, List<StoredPassword> out) throws IOException {
+        int batchFrames = getBatchFrames();
+        List<OpenFrame> tasks = new ArrayList<>(batchFrames);
+        long index = 0;
+        int length = readFrameLength(in);
+        if (length == 0) {
+            throw new IOException("Vault has no frames");
+        }
+        while (length != 0) {
+            tasks.clear();
+            while (length != 0 && tasks.size() < batchFrames) {
+                byte[] sealed = new byte[length];
+                in.readFully(sealed);
+                // Read ahead to find out whether this is the last frame.
+                length = readFrameLength(in);
+                tasks.add(new OpenFrame(engine, sealed, index++, length == 0));
+            }
+            for (String text : runAll(tasks)) {
+                CSVCodec.decode(text, true, out);
+            }
+        }
+    }
+
+    /**
+     * Reads the AES-CBC frames of a version 1 or 2 vault.
+     *
+     * @param in stream positioned at the first frame.
+     * @param engine engine to decrypt with.
+     * @param out list the entries are added to.
+     * @throws IOException if the file can't be read or is truncated.
+     */
+    private static void readCbcFrames(DataInputStream in, CipherEngine engine, List<StoredPassword> out) throws IOException {
+        byte[] buffer = new byte[0];
+        int length;
+        while ((length = readFrameLength(in)) != 0) {
+            if (buffer.length < length) {
+                buffer = new byte[length];
+            }
+            in.readFully(buffer, 0, length);
+            int plaintextLength = engine.decryptInPlace(buffer, 0, length);
+            CSVCodec.decode(new String(buffer, 0, plaintextLength, StandardCharsets.UTF_8), false, out);
+        }
+    }
+
+    /**
+     * Reads a vault written as a single base64 iv|ciphertext line.
+     *
+     * @param in stream positioned at the start of the file.
+     * @param engine engine to decrypt with.
+     * @param out list the entries are added to.
+     * @throws IOException if the file is empty.
+     */
+    private static void readLegacy(DataInputStream in, CipherEngine engine, List<StoredPassword> out) throws IOException {
+        Scanner fileIn = new Scanner(in, StandardCharsets.UTF_8);
+        if (!fileIn.hasNextLine()) {
+            throw new EOFException("Empty vault file");
+        }
+        CSVCodec.decode(engine.decryptString(fileIn.nextLine()), false, out);
+    }
+
+    /**
+     * Reads and checks the length prefix of a frame.
+     *
+     * @param in stream positioned at a frame.
+     * @return length of the frame, 0 at the end of the vault.
+     * @throws IOException if the length is out of range or missing.
+     */
+    private static int readFrameLength(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > MAX_FRAME_BYTES) {
+            throw new IOException("Corrupt vault frame");
+        }
+        return length;
+    }
+
+    /**
+     * Builds the associated data a frame is sealed with.
+     *
+     * @param index index of the frame in the vault.
+     * @param last whether it is the last frame.
+     * @return associated data of the frame.
+     */
+    private static byte[] frameData(long index, boolean last) {
+        return ByteBuffer.allocate(Long.BYTES + 1).putLong(index).put((byte) (last ? 1 : 0)).array();
+    }
+
+    /**
+     * Runs frame tasks on the pool, or on the calling thread if there is only
+     * one task or one thread.
+     *
+     * @param tasks tasks to run.
+     * @param <T> result type.
+     * @return results in the order of the tasks.
+     * @throws IOException if the calling thread is interrupted.
+     * @throws CipherException if a frame can't be encrypted or decrypted.
+     */
+    private static <T> List<T> runAll(List<? extends FrameTask<T>> tasks) throws IOException {
+        List<T> results = new ArrayList<>(tasks.size());
+        ForkJoinPool executor = tasks.size() > 1 ? getPool() : null;
+        if (executor == null) {
+            for (FrameTask<T> task : tasks) {
+                results.add(task.call());
+            }
+            return results;
+        }
+        try {
+            for (Future<T> result : executor.invokeAll(tasks)) {
+                results.add(result.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while processing vault frames");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+        return results;
+    }
+
+    /**
+     * Work on a single frame, run by runAll.
+     *
+     * @param <T> result type.
+     */
+    private abstract static class FrameTask<T> implements Callable<T> {
+
+        protected final CipherEngine engine;
+        protected final byte[] associatedData;
+
+        /**
+         * @param engine engine to use.
+         * @param index index of the frame in the vault.
+         * @param last whether it is the last frame.
+         */
+        FrameTask(CipherEngine engine, long index, boolean last) {
+            this.engine = engine;
+            this.associatedData = frameData(index, last);
+        }
+
+        @Override
+        public abstract T call();
+    }
+
+    /**
+     * Seals a plaintext frame.
+     */
+    private static final class SealFrame extends FrameTask<byte[]> {
+
+        private final byte[] plaintext;
+
+        SealFrame(CipherEngine engine, byte[] plaintext, long index, boolean last) {
+            super(engine, index, last);
+            this.plaintext = plaintext;
+        }
+
+        @Override
+        public byte[] call() {
+            return this.engine.seal(this.plaintext, 0, this.plaintext.length, this.associatedData);
+        }
+    }
+
+    /**
+     * Opens a sealed frame in place and decodes its text.
+     */
+    private static final class OpenFrame extends FrameTask<String> {
+
+        private final byte[] sealed;
+
+        OpenFrame(CipherEngine engine, byte[] sealed, long index, boolean last) {
+            super(engine, index, last);
+            this.sealed = sealed;
+        }
+
+        @Override
+        public String call() {
+            int length = this.engine.openInPlace(this.sealed, 0, this.sealed.length, this.associatedData);
+            return new String(this.sealed, 0, length, StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * VaultLock class.
+ *
+ * <p>
+ * Keeps a second process from opening a password store that is already open,
+ * so an interactive session and an agent never both write to the vault and
+ * its journal. The lock is an exclusive FileChannel lock on a file next to
+ * the vault (see forVault) rather than on the vault or journal themselves,
+ * as both are replaced by new files when a snapshot is written. The lock is
+ * held until the process exits, when the operating system releases it, so a
+ * crashed session never leaves the store locked.
+ * </p>
+ *
+ * @author Luke Halpenny & Andrej Gorochov
+ * @version 1.0
+ */
+public final class VaultLock {
+
+    public static final String FILE_SUFFIX = ".lock";
+
+    // Held open for as long as the lock is, since closing it releases it.
+    private final FileChannel channel;
+
+    /**
+     * @param channel open channel of the locked file.
+     */
+    private VaultLock(FileChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * Gets the lock file of a vault.
+     *
+     * @param vaultPath path of the vault file.
+     * @return the lock file.
+     */
+    public static File forVault(String vaultPath) {
+        return new File(vaultPath + FILE_SUFFIX);
+    }
+
+    /**
+     * Locks a vault without waiting.
+     *
+     * @param vaultPath path of the vault file.
+     * @return the lock, or null if another session holds it.
+     * @throws IOException if the lock file can't be opened.
+     */
+    public static VaultLock tryAcquire(String vaultPath) throws IOException {
+        FileChannel channel = FileChannel.open(forVault(vaultPath).toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileLock lock;
+        try {
+            lock = channel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            lock = null;
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        if (lock == null) {
+            channel.close();
+            return null;
+        }
+        return new VaultLock(channel);
+    }
+}
@@ -0,0 +1,794 @@
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * VaultQuery class.
+ *
+ * <p>
+ * Search over several properties of the entries at once, written as a line
+ * of text and parsed into a tree of predicates, e.g.
+ * {@code website:github title:work updated<2025-01-01 reused:true}.
+ * </p>
+ *
+ * <p>
+ * Terms next to each other must all match, OR between terms needs either to
+ * match, and NOT or a leading - negates a term. Parentheses group terms. A
+ * term is one of:
+ * </p>
+ * <ul>
+ * <li>title:text, website:text: the title or website contains the text,
+ * ignoring case (see PasswordSearchFilter).</li>
+ * <li>domain:example.com: the website is on the domain or a subdomain.</li>
+ * <li>id=5, id&lt;5, id&gt;=5 and so on: compares the id.</li>
+ * <li>updated&lt;2025-01-01, updated&gt;=..., updated:2025-01-01: compares
+ * the date the entry was last updated.</li>
+ * <li>reused:true, reused:false: whether the password is used by another
+ * entry.</li>
+ * <li>text on its own: the title or the website contains the text.</li>
+ * </ul>
+ * <p>
+ * Text with spaces can be put in double quotes.
+ * </p>
+ *
+ * <p>
+ * The query is planned against the indexes of a PasswordStorage (see
+ * plan): of the terms that must all match, the one whose index promises the
+ * fewest entries supplies the candidates, and the whole query is then checked
+ * against each candidate, cheapest terms first. Only queries without any
+ * usable index scan all entries.
+ * </p>
+ *
+ * @author Luke Halpenny & Andrej Gorochov
+ * @version 1.0
+ */
+public final class VaultQuery {
+
+    /**
+     * Estimate of a predicate that no index can answer.
+     */
+    static final int UNINDEXED = Integer.MAX_VALUE;
+
+    private static final String ERR_SYNTAX = "Invalid query: ";
+
+    private final String text;
+    private final Predicate root;
+
+    /**
+     * @param text text of the query.
+     * @param root parsed predicate tree.
+     */
+    private VaultQuery(String text, Predicate root) {
+        this.text = text;
+        this.root = root;
+    }
+
+    /**
+     * Parses a query.
+     *
+     * @param text text of the query.
+     * @return the parsed query.
+     * @throws IllegalArgumentException if the query is invalid or empty.
+     */
+    public static VaultQuery parse(String text) {
+        Parser parser = new Parser(text);
+        Predicate root = parser.parseOr();
+        parser.skipSpaces();
+        if (!parser.atEnd()) {
+            throw new IllegalArgumentException(ERR_SYNTAX + "unexpected '" + text.charAt(parser.pos) + "' at " + (parser.pos + 1));
+        }
+        return new VaultQuery(text, root);
+    }
+
+    /**
+     * Checks whether an entry matches the query.
+     *
+     * @param entry entry to check.
+     * @param storage storage holding the entry.
+     * @return true if it matches.
+     */
+    public boolean matches(StoredPassword entry, PasswordStorage storage) {
+        return this.root.matches(entry, storage);
+    }
+
+    /**
+     * Picks the index that narrows the search down the most and gets the
+     * candidates from it. Every match is among the candidates, but not
+     * every candidate has to match.
+     *
+     * @param storage storage to plan against.
+     * @return ids of the candidates in ascending order, or null if all
+     *         entries have to be checked.
+     */
+    public int[] plan(PasswordStorage storage) {
+        if (this.root.estimate(storage) == UNINDEXED) {
+            return null;
+        }
+        return this.root.candidates(storage);
+    }
+
+    @Override
+    public String toString() {
+        return this.text;
+    }
+
+    /**
+     * Node of the predicate tree.
+     */
+    abstract static class Predicate {
+
+        /**
+         * @param entry entry to check.
+         * @param storage storage holding the entry.
+         * @return true if the entry matches.
+         */
+        abstract boolean matches(StoredPassword entry, PasswordStorage storage);
+
+        /**
+         * Estimates how many candidates the indexes would give.
+         *
+         * @param storage storage to plan against.
+         * @return an upper bound of the candidates, or UNINDEXED.
+         */
+        int estimate(PasswordStorage storage) {
+            return UNINDEXED;
+        }
+
+        /**
+         * Gets the candidates from the indexes. Only called if estimate
+         * isn't UNINDEXED.
+         *
+         * @param storage storage to plan against.
+         * @return ids of the candidates in ascending order.
+         */
+        int[] candidates(PasswordStorage storage) {
+            throw new IllegalStateException("Predicate has no index.");
+        }
+
+        /**
+         * @return rough cost of calling matches, used to check cheap
+         *         predicates first.
+         */
+        int cost() {
+            return 1;
+        }
+    }
+
+    /**
+     * Sorts predicates so the cheapest are checked first.
+     *
+     * @param children predicates to sort.
+     * @return sorted copy.
+     */
+    private static Predicate[] byCost(Predicate[] children) {
+        Predicate[] sorted = children.clone();
+        Arrays.sort(sorted, new Comparator<Predicate>() {
+            @Override
+            public int compare(Predicate a, Predicate b) {
+                return Integer.compare(a.cost(), b.cost());
+            }
+        });
+        return sorted;
+    }
+
+    /**
+     * Sums the costs of predicates.
+     *
+     * @param children predicates.
+     * @return total cost.
+     */
+    private static int totalCost(Predicate[] children) {
+        int total = 0;
+        for (Predicate child : children) {
+            total += child.cost();
+        }
+        return total;
+    }
+
+    /**
+     * All children must match. The most selective child supplies the
+     * candidates.
+     */
+    static final class And extends Predicate {
+
+        private final Predicate[] children;
+
+        And(Predicate[] children) {
+            this.children = byCost(children);
+        }
+
+        @Override
+        int cost() {
+            return totalCost(this.children);
+        }
+
+        @Override
+        boolean matches(StoredPassword entry, PasswordStorage storage) {
+            for (Predicate child : this.children) {
+                if (!child.matches(entry, storage)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        int estimate(PasswordStorage storage) {
+            int best = UNINDEXED;
+            for (Predicate child : this.children) {
+                best = Math.min(best, child.estimate(storage));
+            }
+            return best;
+        }
+
+        @Override
+        int[] candidates(PasswordStorage storage) {
+            Predicate best = null;
+            int bestEstimate = UNINDEXED;
+            for (Predicate child : this.children) {
+                int estimate = child.estimate(storage);
+                if (estimate < bestEstimate) {
+                    best = child;
+                    bestEstimate = estimate;
+                }
+            }
+            return best.candidates(storage);
+        }
+    }
+
+    /**
+     * At least one child must match. Indexed only if every child is.
+     */
+    static final class Or extends Predicate {
+
+        private final Predicate[] children;
+
+        Or(Predicate[] children) {
+            this.children = byCost(children);
+        }
+
+        @Override
+        int cost() {
+            return totalCost(this.children);
+        }
+
+        @Override
+        boolean matches(StoredPassword entry, PasswordStorage storage) {
+            for (Predicate child : this.children) {
+                if (child.matches(entry, storage)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        int estimate(PasswordStorage storage) {
+            long total = 0;
+            for (Predicate child : this.children) {
+                int estimate = child.estimate(storage);
+                if (estimate == UNINDEXED) {
+                    return UNINDEXED;
+                }
+                total += estimate;
+            }
+            return (int) Math.min(total, UNINDEXED - 1);
+        }
+
+        @Override
+        int[] candidates(PasswordStorage storage) {
+            int[] union = new int[0];
+            for (Predicate child : this.children) {
+                union = union(union, child.candidates(storage));
+            }
+            return union;
+        }
+
+        /**
+         * Merges two sorted id lists.
+         *
+         * @param a sorted ids.
+         * @param b sorted ids.
+         * @return sorted ids in either list, each once.
+         */
+        private static int[] union(int[] a, int[] b) {
+            int[] merged = new int[a.length + b.length];
+            int i = 0;
+            int j = 0;
+            int count = 0;
+            while (i < a.length || j < b.length) {
+                int next;
+                if (j == b.length || (i < a.length && a[i] < b[j])) {
+                    next = a[i++];
+                } else if (i == a.length || b[j] < a[i]) {
+                    next = b[j++];
+                } else {
+                    next = a[i++];
+                    j++;
+                }
+                merged[count++] = next;
+            }
+            return Arrays.copyOf(merged, count);
+        }
+    }
+
+    /**
+     * The child must not match. Never indexed.
+     */
+    static final class Not extends Predicate {
+
+        private final Predicate child;
+
+        Not(Predicate child) {
+            this.child = child;
+        }
+
+        @Override
+        int cost() {
+            return this.child.cost();
+        }
+
+        @Override
+        boolean matches(StoredPassword entry, PasswordStorage storage) {
+            return !this.child.matches(entry, storage);
+        }
+    }
+
+    /**
+     * The property a PasswordSearchFilter gets contains the text, ignoring
+     * case, as in PasswordStorage.getUserPasswords(String,
+     * PasswordSearchFilter). Indexed if the storage has an index for the
+     * filter.
+     */
+    static final class FilterContains extends Predicate {
+
+        private final PasswordSearchFilter filter;
+        private final String folded;
+
+        FilterContains(PasswordSearchFilter filter, String searchString) {
+            this.filter = filter;
+            this.folded = searchString.toLowerCase();
+        }
+
+        @Override
+        boolean matches(StoredPassword entry, PasswordStorage storage) {
+            return this.filter.getProperty(entry).toLowerCase().contains(this.folded);
+        }
+
+        @Override
+        int cost() {
+            return 4;
+        }
+
+        @Override
+        int estimate(PasswordStorage storage) {
+            return storage.estimateIndexed(this.filter, this.folded);
+        }
+
+        @Override
+        int[] candidates(PasswordStorage storage) {
+            return storage.findIndexedIds(this.filter, this.folded);
+        }
+    }
+
+    /**
+     * The website is on a domain or one of its subdomains.
+     */
+    static final class OnDomain extends Predicate {
+
+        private final String domain;
+
+        OnDomain(String domain) {
+            this.domain = domain;
+        }
+
+        @Override
+        boolean matches(StoredPassword entry, PasswordStorage storage) {
+            String host = entry.getHost();
+            return host != null && (host.equals(this.domain) || host.endsWith("." + this.domain));
+        }
+
+        @Override
+        int estimate(PasswordStorage storage) {
+            return storage.findIdsOnDomain(this.domain).length;
+        }
+
+        @Override
+        int[] candidates(PasswordStorage storage) {
+            int[] ids = storage.findIdsOnDomain(this.domain);
+            Arrays.sort(ids);
+            return ids;
+        }
+    }
+
+    /**
+     * Compares the id. Equality is answered from the id index.
+     */
+    static final class IdCompare extends Predicate {
+
+        private final String op;
+        private final int id;
+
+        IdCompare(String op, int id) {
+            this.op = op;
+            this.id = id;
+        }
+
+        @Override
+        boolean matches(StoredPassword entry, PasswordStorage storage) {
+            return compare(Integer.compare(entry.getId(), this.id), this.op);
+        }
+
+        @Override
+        int estimate(PasswordStorage storage) {
+            return isEquality(this.op) ? 1 : UNINDEXED;
+        }
+
+        @Override
+        int[] candidates(PasswordStorage storage) {
+            return storage.getPassword(this.id) != null ? new int[] {this.id} : new int[0];
+        }
+    }
+
+    /**
+     * Compares the time the entry was last updated. Equality means the same
+     * day. Each comparison is a period of time, looked up in the storage's
+     * entries sorted by last update.
+     */
+    static final class UpdatedCompare extends Predicate {
+
+        private final LocalDateTime from;
+        private final LocalDateTime to;
+
+        UpdatedCompare(String op, LocalDate date) {
+            LocalDateTime start = date.atStartOfDay();
+            LocalDateTime end = date.plusDays(1).atStartOfDay();
+            switch (op) {
+                case "<":
+                    this.from = null;
+                    this.to = start;
+                    break;
+                case "<=":
+                    this.from = null;
+                    this.to = end;
+                    break;
+                case ">":
+                    this.from = end;
+                    this.to = null;
+                    break;
+                case ">=":
+                    this.from = start;
+                    this.to = null;
+                    break;
+                default:
+                    this.from = start;
+                    this.to = end;
+                    break;
+            }
+        }
+
+        @Override
+        boolean matches(StoredPassword entry, PasswordStorage storage) {
+            LocalDateTime updated = entry.getLastUpdated();
+            return (this.from == null || !updated.isBefore(this.from))
+                    && (this.to == null || updated.isBefore(this.to));
+        }
+
+        @Override
+        int estimate(PasswordStorage storage) {
+            return storage.estimateUpdatedBetween(this.from, this.to);
+        }
+
+        @Override
+        int[] candidates(PasswordStorage storage) {
+            return storage.findIdsUpdatedBetween(this.from, this.to);
+        }
+    }
+
+    /**
+     * Whether the password is used by another entry as well.
+     */
+    static final class Reused extends Predicate {
+
+        private final boolean reused;
+
+        Reused(boolean reused) {
+            this.reused = reused;
+        }
+
+        @Override
+        boolean matches(StoredPassword entry, PasswordStorage storage) {
+            return storage.isDuplicate(entry.getPassword()) == this.reused;
+        }
+
+        @Override
+        int cost() {
+            return 16;
+        }
+    }
+
+    /**
+     * @param op comparison operator.
+     * @return true for the operators meaning equality.
+     */
+    private static boolean isEquality(String op) {
+        return op.equals("=") || op.equals(":");
+    }
+
+    /**
+     * Applies a comparison operator to the result of a compare method.
+     *
+     * @param comparison negative, zero or positive.
+     * @param op comparison operator.
+     * @return true if the comparison holds.
+     */
+    private static boolean compare(int comparison, String op) {
+        switch (op) {
+            case "<":
+                return comparison < 0;
+            case "<=":
+                return comparison <= 0;
+            case ">":
+                return comparison > 0;
+            case ">=":
+                return comparison >= 0;
+            default:
+                return comparison == 0;
+        }
+    }
+
+    /**
+     * Recursive descent parser for the query syntax.
+     */
+    private static final class Parser {
+
+        private final String text;
+        private int pos;
+
+        Parser(String text) {
+            this.text = text;
+            this.pos = 0;
+        }
+
+        /**
+         * Parses terms separated by OR.
+         *
+         * @return the predicate.
+         */
+        Predicate parseOr() {
+            ArrayList<Predicate> children = new ArrayList<>();
+            children.add(parseAnd());
+            while (consumeKeyword("OR")) {
+                children.add(parseAnd());
+            }
+            return children.size() == 1 ? children.get(0) : new Or(children.toArray(new Predicate[0]));
+        }
+
+        /**
+         * Parses terms next to each other, optionally separated by AND.
+         *
+         * @return the predicate.
+         */
+        Predicate parseAnd() {
+            ArrayList<Predicate> children = new ArrayList<>();
+            while (true) {
+                skipSpaces();
+                if (atEnd() || peek() == ')' || peekKeyword("OR")) {
+                    break;
+                }
+                consumeKeyword("AND");
+                children.add(parseUnary());
+            }
+            if (children.isEmpty()) {
+                throw new IllegalArgumentException(ERR_SYNTAX + "expected a search term at " + (this.pos + 1));
+            }
+            return children.size() == 1 ? children.get(0) : new And(children.toArray(new Predicate[0]));
+        }
+
+        /**
+         * Parses a negated, grouped or single term.
+         *
+         * @return the predicate.
+         */
+        Predicate parseUnary() {
+            skipSpaces();
+            if (atEnd()) {
+                throw new IllegalArgumentException(ERR_SYNTAX + "expected a search term at " + (this.pos + 1));
+            }
+            if (peek() == '-') {
+                this.pos++;
+                return new Not(parseUnary());
+            }
+            if (consumeKeyword("NOT")) {
+                return new Not(parseUnary());
+            }
+            if (peek() == '(') {
+                this.pos++;
+                Predicate group = parseOr();
+                skipSpaces();
+                if (atEnd() || peek() != ')') {
+                    throw new IllegalArgumentException(ERR_SYNTAX + "missing ')'");
+                }
+                this.pos++;
+                return group;
+            }
+            return parseTerm();
+        }
+
+        /**
+         * Parses a field comparison, or text matching title or website.
+         *
+         * @return the predicate.
+         */
+        Predicate parseTerm() {
+            int start = this.pos;
+            while (!atEnd() && Character.isLetter(peek())) {
+                this.pos++;
+            }
+            String field = this.text.substring(start, this.pos).toLowerCase();
+            String op = readOperator();
+            if (op == null || !isField(field)) {
+                this.pos = start;
+                String value = readValue();
+                return new Or(new Predicate[] {
+                    new FilterContains(new TitleSearchFilter(), value),
+                    new FilterContains(new WebsiteSearchFilter(), value)
+                });
+            }
+            String value = readValue();
+            switch (field) {
+                case "title":
+                    return new FilterContains(new TitleSearchFilter(), requireContains(field, op, value));
+                case "website":
+                    return new FilterContains(new WebsiteSearchFilter(), requireContains(field, op, value));
+                case "domain": {
+                    String host = StoredPassword.parseHost(requireContains(field, op, value));
+                    if (host == null) {
+                        throw new IllegalArgumentException(ERR_SYNTAX + "'" + value + "' is not a domain");
+                    }
+                    return new OnDomain(host);
+                }
+                case "id":
+                    try {
+                        return new IdCompare(op, Integer.parseInt(value));
+                    } catch (NumberFormatException e) {
+                        throw new IllegalArgumentException(ERR_SYNTAX + "'" + value + "' is not an id");
+                    }
+                case "updated":
+                    try {
+                        return new UpdatedCompare(op, LocalDate.parse(value));
+                    } catch (DateTimeParseException e) {
+                        throw new IllegalArgumentException(ERR_SYNTAX + "'" + value + "' is not a date like 2025-01-31");
+                    }
+                default:
+                    if (!isEquality(op) || !(value.equalsIgnoreCase("true") || value.equalsIgnoreCase("false"))) {
+                        throw new IllegalArgumentException(ERR_SYNTAX + "use reused:true or reused:false");
+                    }
+                    return new Reused(value.equalsIgnoreCase("true"));
+            }
+        }
+
+        /**
+         * @param field lowercase field name.
+         * @return true if the name is a known field.
+         */
+        private static boolean isField(String field) {
+            return field.equals("title") || field.equals("website") || field.equals("domain")
+                    || field.equals("id") || field.equals("updated") || field.equals("reused");
+        }
+
+        /**
+         * Checks that a text field is used with a contains operator.
+         *
+         * @param field field name.
+         * @param op operator used.
+         * @param value value of the term.
+         * @return the value.
+         */
+        private static String requireContains(String field, String op, String value) {
+            if (!isEquality(op)) {
+                throw new IllegalArgumentException(ERR_SYNTAX + field + " can only be used with ':'");
+            }
+            if (value.isEmpty()) {
+                throw new IllegalArgumentException(ERR_SYNTAX + field + " needs a value");
+            }
+            return value;
+        }
+
+        /**
+         * Reads a comparison operator, if there is one.
+         *
+         * @return the operator, or null.
+         */
+        private String readOperator() {
+            if (atEnd()) {
+                return null;
+            }
+            char c = peek();
+            if (c == ':' || c == '=') {
+                this.pos++;
+                return String.valueOf(c);
+            }
+            if (c == '<' || c == '>') {
+                this.pos++;
+                if (!atEnd() && peek() == '=') {
+                    this.pos++;
+                    return c + "=";
+                }
+                return String.valueOf(c);
+            }
+            return null;
+        }
+
+        /**
+         * Reads a value in double quotes, or up to the next space or
+         * parenthesis.
+         *
+         * @return the value.
+         */
+        private String readValue() {
+            if (!atEnd() && peek() == '"') {
+                int close = this.text.indexOf('"', this.pos + 1);
+                if (close < 0) {
+                    throw new IllegalArgumentException(ERR_SYNTAX + "missing closing '\"'");
+                }
+                String value = this.text.substring(this.pos + 1, close);
+                this.pos = close + 1;
+                return value;
+            }
+            int start = this.pos;
+            while (!atEnd() && !Character.isWhitespace(peek()) && peek() != '(' && peek() != ')') {
+                this.pos++;
+            }
+            if (start == this.pos) {
+                throw new IllegalArgumentException(ERR_SYNTAX + "expected a value at " + (start + 1));
+            }
+            return this.text.substring(start, this.pos);
+        }
+
+        /**
+         * Consumes a keyword if it comes next.
+         *
+         * @param keyword upper case keyword.
+         * @return true if it was consumed.
+         */
+        private boolean consumeKeyword(String keyword) {
+            skipSpaces();
+            if (peekKeyword(keyword)) {
+                this.pos += keyword.length();
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * Checks whether a keyword comes next, as a word of its own.
+         *
+         * @param keyword upper case keyword.
+         * @return true if it does.
+         */
+        private boolean peekKeyword(String keyword) {
+            int end = this.pos + keyword.length();
+            return this.text.startsWith(keyword, this.pos)
+                    && (end == this.text.length() || Character.isWhitespace(this.text.charAt(end)) || this.text.charAt(end) == '(');
+        }
+
+        void skipSpaces() {
+            while (!atEnd() && Character.isWhitespace(peek())) {
+                this.pos++;
+            }
+        }
+
+        boolean atEnd() {
+            return this.pos >= this.text.length();
+        }
+
+        private char peek() {
+            return this.text.charAt(this.pos);
+        }
+    }
+}
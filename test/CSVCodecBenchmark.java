@@ -0,0 +1,179 @@
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Scanner;
+
+/**
+ * CSVCodecBenchmark class.
+ *
+ * <p>
+ * Compares CSVCodec with the vault format code it replaced: the encoder that
+ * escaped each field of StoredPassword.toCSVLine with replaceAll, and the
+ * decoder in PasswordStorage.readPasswordsIn that split the payload with a
+ * Scanner on [,\n] and unescaped each field with replaceAll. Synthetic
+ * entries, some with fields that need escaping, are encoded into one payload
+ * and decoded again by both, and the throughput of each is printed. The
+ * fastest of several rounds is reported, so the first rounds warm up the
+ * JIT. Both encoders must produce the same bytes and both decoders the same
+ * entries, or the benchmark fails. Run with the application classes on the
+ * classpath.
+ * </p>
+ *
+ * @author Luke Halpenny & Andrej Gorochov
+ * @version 1.0
+ */
+public class CSVCodecBenchmark {
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param args optional number of entries (200000 if missing) and rounds
+     *             (5 if missing).
+     */
+    public static void main(String[] args) {
+        if (args.length > 2) {
+            System.err.println("Usage: java CSVCodecBenchmark [entries] [rounds]");
+            System.exit(1);
+        }
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        LocalDateTime now = LocalDateTime.now();
+        List<StoredPassword> entries = new ArrayList<>(count);
+        for (int id = 1; id <= count; id++) {
+            String title = id % 10 == 0 ? "Shop, account " + id : "Title number " + id;
+            entries.add(new StoredPassword(id, title, "https://site" + id + ".example.com",
+                    "Zq#9vLm2!pX" + id, now));
+        }
+        long[] fastest = new long[5];
+        Arrays.fill(fastest, Long.MAX_VALUE);
+        String payload = "";
+        for (int round = 0; round < rounds; round++) {
+            long start = System.nanoTime();
+            String oldPayload = encodeOld(entries);
+            fastest[0] = Math.min(fastest[0], System.nanoTime() - start);
+
+            start = System.nanoTime();
+            StringBuilder out = new StringBuilder(payload.length() + 16);
+            for (StoredPassword entry : entries) {
+                CSVCodec.appendEntry(out, entry);
+                out.append('\n');
+            }
+            payload = out.toString();
+            fastest[1] = Math.min(fastest[1], System.nanoTime() - start);
+            if (!Arrays.equals(oldPayload.getBytes(StandardCharsets.UTF_8), payload.getBytes(StandardCharsets.UTF_8))) {
+                throw new IllegalStateException("CSVCodec encodes differently from toCSVLine");
+            }
+
+            start = System.nanoTime();
+            List<StoredPassword> oldDecoded = decodeOld(payload);
+            fastest[2] = Math.min(fastest[2], System.nanoTime() - start);
+
+            List<StoredPassword> decoded = new ArrayList<>(count);
+            start = System.nanoTime();
+            int skipped = CSVCodec.decode(payload, false, decoded);
+            fastest[3] = Math.min(fastest[3], System.nanoTime() - start);
+            checkSame(entries, oldDecoded, "Scanner decoder");
+            checkSame(entries, decoded, "CSVCodec.decode");
+            if (skipped != 0) {
+                throw new IllegalStateException("CSVCodec.decode skipped " + skipped + " lines");
+            }
+
+            decoded = new ArrayList<>(count);
+            start = System.nanoTime();
+            CSVCodec.decode(payload, true, decoded);
+            fastest[4] = Math.min(fastest[4], System.nanoTime() - start);
+            checkSame(entries, decoded, "CSVCodec.decode of authenticated content");
+        }
+        double mebichars = payload.length() / (double) (1 << 20);
+        System.out.printf("%d entries, %.1f Mi chars, identical output%n", count, mebichars);
+        String[] names = {
+            "encode replaceAll",
+            "encode CSVCodec",
+            "decode Scanner + replaceAll",
+            "decode CSVCodec, validating",
+            "decode CSVCodec, authenticated"
+        };
+        for (int i = 0; i < names.length; i++) {
+            System.out.printf("%-32s %7.1f Mi chars/s, %6.0f ns per entry%n", names[i],
+                    mebichars / (fastest[i] / 1e9), fastest[i] / (double) count);
+        }
+    }
+
+    /**
+     * Encodes the entries the way StoredPassword.toCSVLine and
+     * PasswordStorage.readPasswordsOut used to.
+     *
+     * @param entries entries to encode.
+     * @return the payload.
+     */
+    private static String encodeOld(List<StoredPassword> entries) {
+        StringBuilder allStoredPasswords = new StringBuilder();
+        for (StoredPassword entry : entries) {
+            String sanitizedTitle = entry.getTitle().replaceAll(",", "&#44;").replaceAll("\n", "&#10;").replaceAll("\r", "&#13;");
+            String sanitizedWebsite = entry.getWebsite().replaceAll(",", "&#44;").replaceAll("\n", "&#10;").replaceAll("\r", "&#13;");
+            String sanitizedPassword = entry.getPassword().replaceAll(",", "&#44;").replaceAll("\n", "&#10;").replaceAll("\r", "&#13;");
+            String sanitizedLastUpdated = entry.getLastUpdated().toString().replaceAll(",", "&#44;").replaceAll("\n", "&#10;").replaceAll("\r", "&#13;");
+            allStoredPasswords.append(entry.getId() + "," + sanitizedTitle + "," + sanitizedWebsite + ","
+                    + sanitizedPassword + "," + sanitizedLastUpdated).append("\n");
+        }
+        return allStoredPasswords.toString();
+    }
+
+    /**
+     * Decodes the payload the way PasswordStorage.readPasswordsIn used to.
+     *
+     * @param payload payload to decode.
+     * @return the decoded entries.
+     */
+    private static List<StoredPassword> decodeOld(String payload) {
+        List<StoredPassword> userPasswords = new ArrayList<>();
+        try (Scanner source = new Scanner(payload)) {
+            source.useDelimiter("[,\n]");
+            int passwordId;
+            String title, website, password;
+            LocalDateTime lastUpdated;
+            while (source.hasNextLine() && source.hasNext()) {
+                try {
+                    passwordId = source.nextInt();
+                    title = source.next().replaceAll("&#44;", ",").replaceAll("&#10;", "\n").replaceAll("&#13;", "\r");
+                    website = source.next().replaceAll("&#44;", ",").replaceAll("&#10;", "\n").replaceAll("&#13;", "\r");
+                    password = source.next().replaceAll("&#44;", ",").replaceAll("&#10;", "\n").replaceAll("&#13;", "\r");
+                    lastUpdated = LocalDateTime.parse(source.next().replaceAll("&#44;", ",").replaceAll("&#10;", "\n").replaceAll("&#13;", "\r"));
+                    userPasswords.add(new StoredPassword(passwordId, title, website, password, lastUpdated));
+                } catch (NoSuchElementException | IllegalArgumentException | DateTimeParseException e) {
+                    if (source.hasNextLine()) {
+                        source.nextLine();
+                    }
+                }
+            }
+        }
+        return userPasswords;
+    }
+
+    /**
+     * Checks that a decoder returned the encoded entries, in order.
+     *
+     * @param expected entries that were encoded.
+     * @param actual entries that were decoded.
+     * @param decoder name of the decoder, for the error.
+     * @throws IllegalStateException if an entry differs.
+     */
+    private static void checkSame(List<StoredPassword> expected, List<StoredPassword> actual, String decoder) {
+        if (actual.size() != expected.size()) {
+            throw new IllegalStateException(decoder + " decoded " + actual.size() + " of " + expected.size() + " entries");
+        }
+        for (int i = 0; i < expected.size(); i++) {
+            StoredPassword a = expected.get(i);
+            StoredPassword b = actual.get(i);
+            if (a.getId() != b.getId() || !a.getTitle().equals(b.getTitle()) || !a.getWebsite().equals(b.getWebsite())
+                    || !a.getPassword().equals(b.getPassword()) || !a.getLastUpdated().equals(b.getLastUpdated())) {
+                throw new IllegalStateException(decoder + " decoded entry " + a.getId() + " differently");
+            }
+        }
+    }
+}
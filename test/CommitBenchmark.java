@@ -0,0 +1,78 @@
+
+import java.io.File;
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * CommitBenchmark class.
+ *
+ * <p>
+ * Writes a vault of synthetic entries to a temporary file with VaultFile,
+ * reads it into a PasswordStorage, then times committing single edits the
+ * current way (commitChanges, which appends to the journal) and the old way
+ * (a full snapshot rewrite with readPasswordsOut), printing the mean and
+ * slowest commit of each. Run with the application classes on the classpath.
+ * </p>
+ *
+ * @author Luke Halpenny & Andrej Gorochov
+ * @version 1.0
+ */
+public class CommitBenchmark {
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param args optional number of entries (100000 if missing) and commits
+     *             timed per writer (20 if missing).
+     * @throws IOException if the temporary vault can't be written or read.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length > 2) {
+            System.err.println("Usage: java CommitBenchmark [entries] [commits]");
+            System.exit(1);
+        }
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        int commits = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        File file = File.createTempFile("vault", ".bench");
+        String filePath = file.getPath();
+        file.deleteOnExit();
+        PasswordJournal.forVault(filePath).deleteOnExit();
+        AccessSketch.forVault(filePath).deleteOnExit();
+        String key = Cipher.generateKey();
+        LocalDateTime now = LocalDateTime.now();
+        List<StoredPassword> entries = new ArrayList<>(count);
+        for (int id = 1; id <= count; id++) {
+            entries.add(new StoredPassword(id, "Title number " + id, "site" + id + ".example.com",
+                    "Zq#9vLm2!pX" + id, now));
+        }
+        VaultFile.write(file, entries, key);
+        PasswordStorage storage = new PasswordStorage();
+        if (!storage.readPasswordsIn(filePath, key) || storage.getUserPasswords().size() != count) {
+            throw new IOException("Couldn't read " + filePath);
+        }
+        System.out.println(count + " entries, " + file.length() / 1024 + " KiB vault");
+        String[] writers = {"journal (commitChanges)", "full snapshot (readPasswordsOut)"};
+        for (int writer = 0; writer < writers.length; writer++) {
+            long total = 0;
+            long slowest = 0;
+            for (int commit = 0; commit < commits; commit++) {
+                int id = 1 + (commit * 7919) % count;
+                storage.editPasswordTitle(id, "Edited title " + commit);
+                long start = System.nanoTime();
+                boolean written = writer == 0 ? storage.commitChanges(filePath, key)
+                        : storage.readPasswordsOut(filePath, key);
+                long elapsed = System.nanoTime() - start;
+                if (!written) {
+                    throw new IOException("Couldn't commit to " + filePath);
+                }
+                total += elapsed;
+                slowest = Math.max(slowest, elapsed);
+            }
+            System.out.printf("%-34s mean %8.2f ms, slowest %8.2f ms%n", writers[writer],
+                    total / 1e6 / commits, slowest / 1e6);
+        }
+        storage.closeJournal();
+    }
+}
@@ -0,0 +1,113 @@
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+/**
+ * PasswordJournalTest class.
+ *
+ * <p>
+ * Checks how PasswordStorage recovers a vault from its snapshot and journal:
+ * a record cut short at the end of the journal is dropped and truncated,
+ * while a damaged or changed record anywhere else fails the read and leaves
+ * the journal as it was. A journal left behind by an older snapshot is not
+ * replayed. Run with the application classes on the classpath; exits with
+ * status 1 if a check fails.
+ * </p>
+ *
+ * @author Luke Halpenny & Andrej Gorochov
+ * @version 1.0
+ */
+public class PasswordJournalTest {
+
+    private static int checks = 0;
+    private static int failures = 0;
+
+    /**
+     * Runs the checks.
+     *
+     * @param args unused.
+     * @throws IOException if the temporary vault can't be written.
+     */
+    public static void main(String[] args) throws IOException {
+        File dir = Files.createTempDirectory("journal-test").toFile();
+        String path = new File(dir, "passwordStore.txt").getPath();
+        File journal = PasswordJournal.forVault(path);
+        String key = Cipher.generateKey();
+
+        PasswordStorage storage = new PasswordStorage();
+        for (int i = 1; i <= 3; i++) {
+            storage.addNewPassword("Title " + i, "site" + i + ".example.com", "Zq#9vLm2!pX" + i + "Qw");
+        }
+        check(storage.readPasswordsOut(path, key), "snapshot is written");
+        for (int i = 4; i <= 8; i++) {
+            storage.addNewPassword("Title " + i, "site" + i + ".example.com", "Zq#9vLm2!pX" + i + "Qw");
+        }
+        storage.editPasswordTitle(2, "Edited");
+        check(storage.commitChanges(path, key), "changes are journaled");
+        storage.closeJournal();
+        byte[] complete = Files.readAllBytes(journal.toPath());
+
+        PasswordStorage read = new PasswordStorage();
+        check(read.readPasswordsIn(path, key) && read.getUserPasswords().size() == 8
+                && read.getPasswordDetails(2).getTitle().equals("Edited"), "journal is replayed");
+        read.closeJournal();
+
+        Files.write(journal.toPath(), Arrays.copyOf(complete, complete.length - 5));
+        read = new PasswordStorage();
+        check(read.readPasswordsIn(path, key) && read.getUserPasswords().size() == 8
+                && read.getPasswordDetails(2).getTitle().equals("Title 2"), "torn last record is dropped");
+        read.closeJournal();
+        check(journal.length() < complete.length - 5, "torn last record is truncated");
+
+        byte[] damaged = complete.clone();
+        damaged[0] = (byte) 0x7f;
+        Files.write(journal.toPath(), damaged);
+        read = new PasswordStorage();
+        check(!read.readPasswordsIn(path, key), "bad length of the first record fails the read");
+        check(!read.commitChanges(path, key), "nothing is committed after a damaged journal");
+        check(Arrays.equals(Files.readAllBytes(journal.toPath()), damaged), "damaged journal is left untouched");
+
+        damaged = complete.clone();
+        damaged[Integer.BYTES + 20] ^= 1;
+        Files.write(journal.toPath(), damaged);
+        read = new PasswordStorage();
+        check(!read.readPasswordsIn(path, key), "changed byte in the first record fails the read");
+
+        Files.write(journal.toPath(), complete);
+        read = new PasswordStorage();
+        check(read.readPasswordsIn(path, key), "journal is replayed again");
+        read.removePassword(2);
+        check(read.readPasswordsOut(path, key), "new snapshot is written");
+        read.closeJournal();
+        Files.write(journal.toPath(), complete);
+        read = new PasswordStorage();
+        check(read.readPasswordsIn(path, key) && read.getPasswordDetails(2) == null
+                && read.getUserPasswords().size() == 7, "journal of an older snapshot is skipped");
+        read.closeJournal();
+
+        for (File file : dir.listFiles()) {
+            file.delete();
+        }
+        dir.delete();
+        System.out.println((checks - failures) + " of " + checks + " checks passed.");
+        if (failures > 0) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Records the result of a check.
+     *
+     * @param passed whether the check passed.
+     * @param what what was checked.
+     */
+    private static void check(boolean passed, String what) {
+        checks++;
+        if (!passed) {
+            System.out.println("FAIL: " + what);
+            failures++;
+        }
+    }
+}
@@ -0,0 +1,55 @@
+
+/**
+ * ScryptBenchmark class.
+ *
+ * <p>
+ * Times scrypt at the memory cost Scrypt.withDefaults calibrates and PBKDF2
+ * at the iteration count Password.getCalibratedIterations calibrates. Both
+ * are calibrated towards Password.TARGET_MILLIS on this host, so this
+ * compares the two at equal defender time: what a login costs the user.
+ * It doesn't measure what a guess costs an attacker; the table size printed
+ * for scrypt is memory every parallel guess has to hold for its whole run,
+ * which PBKDF2 doesn't need. Run with the application classes on the
+ * classpath.
+ * </p>
+ *
+ * @author Luke Halpenny & Andrej Gorochov
+ * @version 1.0
+ */
+public class ScryptBenchmark {
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param args optional number of timed runs of each function, 5 if
+     *             missing.
+     */
+    public static void main(String[] args) {
+        int runs = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        char[] password = "benchmark password".toCharArray();
+        byte[] salt = new byte[Password.SALT_BYTES];
+        Scrypt scrypt = Scrypt.withDefaults();
+        Pbkdf2Function pbkdf2 = new Pbkdf2Function(Password.KEY_FACTORY_TYPE, Password.getCalibratedIterations());
+        KeyDerivationFunction[] functions = {scrypt, pbkdf2};
+        String[] names = {
+            "scrypt N=" + scrypt.getMemoryCost() + " r=" + scrypt.getBlockSize() + " p=" + scrypt.getLanes()
+                    + " (" + (128L * scrypt.getBlockSize() * scrypt.getMemoryCost() >> 20) + " MiB table)",
+            Password.KEY_FACTORY_TYPE + " iterations=" + pbkdf2.getIterations() + " (no table)"
+        };
+        System.out.println("Equal defender time: both calibrated towards " + Password.TARGET_MILLIS + " ms on this host, "
+                + runs + " runs each, " + Runtime.getRuntime().availableProcessors() + " cores");
+        for (int f = 0; f < functions.length; f++) {
+            functions[f].derive(password, salt, Password.KEY_SIZE / 8);
+            long total = 0;
+            long fastest = Long.MAX_VALUE;
+            for (int run = 0; run < runs; run++) {
+                long start = System.nanoTime();
+                functions[f].derive(password, salt, Password.KEY_SIZE / 8);
+                long elapsed = System.nanoTime() - start;
+                total += elapsed;
+                fastest = Math.min(fastest, elapsed);
+            }
+            System.out.printf("%-50s mean %6.1f ms, fastest %6.1f ms%n", names[f], total / 1e6 / runs, fastest / 1e6);
+        }
+    }
+}
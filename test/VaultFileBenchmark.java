@@ -0,0 +1,131 @@
+
+import java.io.File;
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.AbstractList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * VaultFileBenchmark class.
+ *
+ * <p>
+ * Measures how VaultFile's write and read throughput scales with the number
+ * of threads frames are sealed and opened on (see VaultFile.setParallelism).
+ * Run with the application classes on the classpath.
+ * </p>
+ *
+ * @author Luke Halpenny & Andrej Gorochov
+ * @version 1.0
+ */
+public class VaultFileBenchmark {
+
+    /**
+     * Runs the benchmark. Writes a synthetic vault of the given size to a
+     * temporary file and reads it back with 1, 2, 4, ... threads up to the
+     * number of processors (or the given limit), printing the throughput of
+     * each and the speedup over one thread. Entries are generated and
+     * discarded as they go, so the heap doesn't need to hold the vault.
+     *
+     * @param args optional vault size in MiB (128 if missing) and largest
+     *             thread count.
+     * @throws IOException if the temporary vault can't be written or read.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length > 2) {
+            System.err.println("Usage: java VaultFileBenchmark [megabytes] [maxThreads]");
+            System.exit(1);
+        }
+        long megabytes = args.length > 0 ? Long.parseLong(args[0]) : 128;
+        int maxThreads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        StringBuilder sample = new StringBuilder();
+        CSVCodec.appendEntry(sample, syntheticEntry(1_000_000, LocalDateTime.now()));
+        final int count = (int) Math.min(Integer.MAX_VALUE - 1, (megabytes << 20) / (sample.length() + 1));
+        final LocalDateTime now = LocalDateTime.now();
+        Iterable<StoredPassword> entries = new Iterable<StoredPassword>() {
+            @Override
+            public Iterator<StoredPassword> iterator() {
+                return new Iterator<StoredPassword>() {
+                    private int id = 0;
+
+                    @Override
+                    public boolean hasNext() {
+                        return this.id < count;
+                    }
+
+                    @Override
+                    public StoredPassword next() {
+                        return syntheticEntry(++this.id, now);
+                    }
+                };
+            }
+        };
+        final int[] read = new int[1];
+        List<StoredPassword> discard = new AbstractList<StoredPassword>() {
+            @Override
+            public boolean add(StoredPassword entry) {
+                read[0]++;
+                return true;
+            }
+
+            @Override
+            public StoredPassword get(int index) {
+                throw new IndexOutOfBoundsException();
+            }
+
+            @Override
+            public int size() {
+                return 0;
+            }
+        };
+        String key = Cipher.generateKey();
+        File file = File.createTempFile("vault", ".bench");
+        file.deleteOnExit();
+        System.out.println(count + " entries, " + Runtime.getRuntime().availableProcessors() + " processors");
+        // Untimed pass so the first timed one isn't slowed down by the JIT.
+        VaultFile.setParallelism(1);
+        VaultFile.write(file, entries, key);
+        VaultFile.read(file, key, discard);
+        double baseWrite = 0;
+        double baseRead = 0;
+        for (int step = 1; ; step *= 2) {
+            int threads = Math.min(step, maxThreads);
+            VaultFile.setParallelism(threads);
+            long start = System.nanoTime();
+            VaultFile.write(file, entries, key);
+            double writeSeconds = (System.nanoTime() - start) / 1e9;
+            read[0] = 0;
+            start = System.nanoTime();
+            VaultFile.read(file, key, discard);
+            double readSeconds = (System.nanoTime() - start) / 1e9;
+            if (read[0] != count) {
+                throw new IOException("Read " + read[0] + " of " + count + " entries back");
+            }
+            double mebibytes = file.length() / (double) (1 << 20);
+            double writeRate = mebibytes / writeSeconds;
+            double readRate = mebibytes / readSeconds;
+            if (threads == 1) {
+                baseWrite = writeRate;
+                baseRead = readRate;
+            }
+            System.out.printf("%2d threads, %.0f MiB: write %7.1f MiB/s (%.2fx), read %7.1f MiB/s (%.2fx)%n",
+                    threads, mebibytes, writeRate, writeRate / baseWrite, readRate, readRate / baseRead);
+            if (threads == maxThreads) {
+                break;
+            }
+        }
+        file.delete();
+    }
+
+    /**
+     * Makes an entry for the benchmark.
+     *
+     * @param id id of the entry.
+     * @param lastUpdated time the entry was last updated.
+     * @return the entry.
+     */
+    private static StoredPassword syntheticEntry(int id, LocalDateTime lastUpdated) {
+        return StoredPassword.fromTrustedVault(id, "Benchmark entry " + id, "site" + id + ".example.com",
+                "Zq#9vLm2!pX" + id, lastUpdated);
+    }
+}
@@ -0,0 +1,82 @@
+
+/**
+ * VaultQueryTest class.
+ *
+ * <p>
+ * Checks that VaultQuery.parse accepts well formed queries and rejects
+ * malformed ones with an IllegalArgumentException rather than any other
+ * exception. Run with the application classes on the classpath; exits with
+ * status 1 if a check fails.
+ * </p>
+ *
+ * @author Luke Halpenny & Andrej Gorochov
+ * @version 1.0
+ */
+public class VaultQueryTest {
+
+    private static final String[] VALID = {
+        "github",
+        "-github",
+        "NOT github",
+        "foo -bar",
+        "foo NOT bar",
+        "website:github title:work updated<2025-01-01 reused:true",
+        "(github OR gitlab) -title:old",
+        "\"two words\" id>=5",
+    };
+
+    private static final String[] INVALID = {
+        "",
+        "-",
+        "foo -",
+        "NOT",
+        "foo NOT",
+        "- -",
+        "NOT NOT",
+        "foo AND",
+        "foo OR",
+        "(",
+        "(foo",
+        ")",
+        "()",
+        "title:",
+        "\"open",
+        "updated<2025-13-01",
+        "id=x",
+        "reused:maybe",
+        "title<x",
+    };
+
+    /**
+     * Runs the checks.
+     *
+     * @param args unused.
+     */
+    public static void main(String[] args) {
+        int failures = 0;
+        for (String query : VALID) {
+            try {
+                VaultQuery.parse(query);
+            } catch (RuntimeException e) {
+                System.out.println("FAIL: '" + query + "' was rejected: " + e);
+                failures++;
+            }
+        }
+        for (String query : INVALID) {
+            try {
+                VaultQuery.parse(query);
+                System.out.println("FAIL: '" + query + "' was accepted");
+                failures++;
+            } catch (IllegalArgumentException e) {
+                // Expected.
+            } catch (RuntimeException e) {
+                System.out.println("FAIL: '" + query + "' threw " + e);
+                failures++;
+            }
+        }
+        System.out.println((VALID.length + INVALID.length - failures) + " of " + (VALID.length + INVALID.length) + " checks passed.");
+        if (failures > 0) {
+            System.exit(1);
+        }
+    }
+}